@@ -2,6 +2,8 @@ package io.lolyay.discordmsend.client;
 
 import io.lolyay.discordmsend.client.net.NetworkingClient;
 import io.lolyay.discordmsend.client.net.ClientRequestManager;
+import io.lolyay.discordmsend.client.net.SessionTicket;
+import io.lolyay.discordmsend.client.net.TrackInfoBatcher;
 import io.lolyay.discordmsend.network.Enviroment;
 import io.lolyay.discordmsend.network.protocol.NetworkPhase;
 import io.lolyay.discordmsend.network.protocol.packet.Packet;
@@ -46,6 +48,7 @@ public class DstClient {
     @Getter
     private final Map<Long, PlayerStatus> playerStatusMap = new ConcurrentHashMap<>();
     private final Map<Integer, TrackMetadata> id2TrackInfoCache = new ConcurrentHashMap<>();
+    private final TrackInfoBatcher trackInfoBatcher = new TrackInfoBatcher(this);
     private NetworkingClient client;
 
     private float pingMs;
@@ -65,6 +68,9 @@ public class DstClient {
     @Getter
     private ServerStatus status;
 
+    /** Ticket of the last session, presented on reconnect to skip the full key exchange. */
+    private volatile SessionTicket sessionTicket;
+
     public static DstClient createDiscord(long discordUserId, @Nullable String apiKey, CUserData cUserData, ClientEventHandler eventHandler) {
         cUserData.features().enable(ClientFeatures.Feature.IS_DISCORD_BOT);
         return new DstClient(discordUserId, apiKey, cUserData, eventHandler);
@@ -96,6 +102,20 @@ public class DstClient {
         this.clockOffsetMs = serverTimeMs - midpointMs;
     }
 
+    @ApiStatus.Internal
+    public void setSessionTicket(SessionTicket sessionTicket) {
+        this.sessionTicket = sessionTicket;
+    }
+
+    /**
+     * @return the ticket of the last session if it can still be used for resumption, otherwise null
+     */
+    @ApiStatus.Internal
+    public SessionTicket getSessionTicket() {
+        SessionTicket ticket = this.sessionTicket;
+        return ticket == null || ticket.isExpired() ? null : ticket;
+    }
+
     public void setServerStatus(ServerStatus status) {
         this.status = status;
     }
@@ -147,16 +167,19 @@ public class DstClient {
         client.connection.send(new PlayerDiscordConnectC2SPacket(guildId, endpoint, sessionId, token, channelId));
     }
 
+    /**
+     * Looks up a track, from the local cache if possible. Lookups made within a few milliseconds of each other
+     * are sent as a single batch request.
+     *
+     * @return the track, or null if the server does not know the id (anymore)
+     */
     public CompletableFuture<TrackMetadata> getTrackInfo(TrackId track) {
         int trackId = track.getTrackId();
-        if (id2TrackInfoCache.containsKey(trackId)) {
-            return CompletableFuture.completedFuture(id2TrackInfoCache.get(trackId));
+        TrackMetadata cached = id2TrackInfoCache.get(trackId);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
         }
-
-        return sendRequest(new TrackInfoRequest(trackId)).thenApply(packet -> {
-            id2TrackInfoCache.put(packet.metadata().id(), packet.metadata());
-            return packet.metadata();
-        });
+        return trackInfoBatcher.request(trackId);
     }
 
     public CompletableFuture<List<TrackId>> searchTracksMultiple(String query, int maxResults) {
@@ -180,6 +203,28 @@ public class DstClient {
         client.connection.send(new PlayTrackC2SPacket(track.getTrackId(), guildId));
     }
 
+    /**
+     * Queues a track on the server; it follows the current one without a gap (or starts now if nothing plays).
+     */
+    public void queueTrack(TrackId track, long guildId) {
+        client.connection.send(new QueueTrackC2SPacket(guildId, track.getTrackId()));
+    }
+
+    public void clearQueue(long guildId) {
+        client.connection.send(new QueueClearC2SPacket(guildId));
+    }
+
+    public void skip(long guildId) {
+        client.connection.send(new PlayerSkipC2SPacket(guildId));
+    }
+
+    /**
+     * @param crossfadeMs overlap between queued tracks, 0 for a gapless cut
+     */
+    public void setCrossfade(long guildId, int crossfadeMs) {
+        client.connection.send(new SetCrossfadeC2SPacket(guildId, crossfadeMs));
+    }
+
     public void seek(long position, long guildId) {
         client.connection.send(new SeekC2SPacket(guildId, position));
     }
@@ -200,6 +245,13 @@ public class DstClient {
     }
 
 
+    @ApiStatus.Internal
+    public void onTrackInfoBatch(TrackDetailsBatchS2CPacket packet) {
+        for (TrackMetadata track : packet.tracks()) {
+            id2TrackInfoCache.put(track.id(), track);
+        }
+    }
+
     @ApiStatus.Internal
     public void onCacheExpire(CacheExpireS2C packet) {
         for (int trackId : packet.expiredTrackIds()) {
@@ -5,6 +5,7 @@ import io.lolyay.discordmsend.client.PlayerStatus;
 import io.lolyay.discordmsend.client.ServerStatus;
 import io.lolyay.discordmsend.network.Enviroment;
 import io.lolyay.discordmsend.network.protocol.Connection;
+import io.lolyay.discordmsend.network.protocol.encryption.NetworkEncryptionUtils;
 import io.lolyay.discordmsend.network.protocol.listeners.client.ClientPostEncryptionPacketListener;
 import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.postenc.EncHelloC2SPacket;
 import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.postenc.KeepAliveC2SPacket;
@@ -14,6 +15,8 @@ import io.lolyay.discordmsend.network.protocol.request.IResponsePacket;
 import io.lolyay.discordmsend.obj.CUserData;
 import lombok.extern.slf4j.Slf4j;
 
+import java.security.GeneralSecurityException;
+
 @Slf4j
 public class ClientPostEncryptionListener implements ClientPostEncryptionPacketListener {
     private final Connection connection;
@@ -65,6 +68,12 @@ public class ClientPostEncryptionListener implements ClientPostEncryptionPacketL
         }
     }
 
+    @Override
+    public void onTrackDetailsBatch(TrackDetailsBatchS2CPacket packet) {
+        dstClient.onTrackInfoBatch(packet);
+        dstClient.getRequestManager().handleResponse(packet);
+    }
+
     @Override
     public void onStatistics(StatisticsS2CPacket packet) {
         dstClient.setServerStatus(new ServerStatus(packet.maxMem(), packet.freeMem(), packet.cpuUsageP(), packet.players(), packet.clients()));
@@ -125,6 +134,17 @@ public class ClientPostEncryptionListener implements ClientPostEncryptionPacketL
         dstClient.getEventHandler().onTrackTimingUpdate(packet);
     }
 
+    @Override
+    public void onSessionTicket(SessionTicketS2CPacket packet) {
+        try {
+            byte[] secret = NetworkEncryptionUtils.deriveResumptionSecret(connection.getSessionKey());
+            dstClient.setSessionTicket(new SessionTicket(packet.ticket(), secret, System.currentTimeMillis() + packet.lifetimeMs()));
+            log.debug("Received session ticket, valid for {}ms", packet.lifetimeMs());
+        } catch (GeneralSecurityException e) {
+            log.error("Failed to derive resumption secret", e);
+        }
+    }
+
     @Override
     public void onAudio(AudioS2CPacket packet) {
         dstClient.getEventHandler().onAudio(packet);
@@ -3,17 +3,22 @@ package io.lolyay.discordmsend.client.net;
 import io.lolyay.discordmsend.client.DstClient;
 import io.lolyay.discordmsend.network.protocol.Connection;
 import io.lolyay.discordmsend.network.protocol.NetworkPhase;
+import io.lolyay.discordmsend.network.protocol.encryption.KeyExchange;
 import io.lolyay.discordmsend.network.protocol.encryption.NetworkEncryptionUtils;
 import io.lolyay.discordmsend.network.protocol.encryption.RSA128Serializer;
+import io.lolyay.discordmsend.network.protocol.encryption.X25519Serializer;
 import io.lolyay.discordmsend.network.protocol.listeners.client.ClientPreEncryptionPacketListener;
 import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.preenc.EncryptionResponseC2SPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.preenc.ResumeSessionC2SPacket;
 import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.preenc.EncryptionRequestS2CPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.preenc.ResumeSessionS2CPacket;
 
 import lombok.extern.slf4j.Slf4j;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import java.security.GeneralSecurityException;
+import java.security.KeyPair;
 import java.security.PublicKey;
 
 @Slf4j
@@ -21,6 +26,11 @@ public class ClientPreEncryptionListener implements ClientPreEncryptionPacketLis
     private final Connection connection;
     private final DstClient dstClient;
 
+    // Set while a resumption attempt is pending
+    private EncryptionRequestS2CPacket pendingRequest;
+    private SessionTicket pendingTicket;
+    private byte[] clientNonce;
+
     public ClientPreEncryptionListener(Connection connection, DstClient dstClient) {
         this.connection = connection;
         this.dstClient = dstClient;
@@ -29,22 +39,71 @@ public class ClientPreEncryptionListener implements ClientPreEncryptionPacketLis
     @Override
     public void onEncryptionRequest(EncryptionRequestS2CPacket packet) {
         log.debug("Client: Received Encryption Request.");
+        SessionTicket ticket = dstClient.getSessionTicket();
+        if (ticket != null) {
+            pendingRequest = packet;
+            pendingTicket = ticket;
+            clientNonce = NetworkEncryptionUtils.generateNonce();
+            connection.send(new ResumeSessionC2SPacket(ticket.ticket(), clientNonce));
+            log.debug("Client: Trying to resume previous session.");
+            return;
+        }
+        performKeyExchange(packet);
+    }
+
+    @Override
+    public void onResumeSession(ResumeSessionS2CPacket packet) {
+        if (pendingRequest == null) {
+            log.warn("Client: Received unexpected resume answer.");
+            return;
+        }
+        EncryptionRequestS2CPacket request = pendingRequest;
+        pendingRequest = null;
+
+        if (!packet.accepted()) {
+            log.debug("Client: Session resumption rejected, falling back to full key exchange.");
+            dstClient.setSessionTicket(null);
+            performKeyExchange(request);
+            return;
+        }
+
         try {
-            PublicKey serverPublicKey = RSA128Serializer.bytesToPublicKey(packet.publicKey());
+            SecretKey sessionKey = NetworkEncryptionUtils.deriveResumedKey(pendingTicket.resumptionSecret(), request.nonce(), clientNonce);
+            connection.setPhase(NetworkPhase.POST_ENCRYPTION);
+            connection.setListener(new ClientPostEncryptionListener(connection, dstClient));
+            connection.enableEncryption(sessionKey);
+            log.debug("Client: Session resumed.");
+        } catch (GeneralSecurityException e) {
+            log.error("A critical error occurred while resuming the session.", e);
+            connection.disconnect("Session resumption failed: " + e.getMessage());
+        }
+    }
 
+    private void performKeyExchange(EncryptionRequestS2CPacket packet) {
+        try {
             byte[] nonce = packet.nonce();
-            SecretKey sharedSecret = NetworkEncryptionUtils.createAesKey();
-            byte[] encodedSecret = sharedSecret.getEncoded();
-
-            for (int i = 0; i < encodedSecret.length; i++) {
-                encodedSecret[i] ^= nonce[i];
+            SecretKey sharedSecret;
+            byte[] response;
+            if (packet.keyExchange() == KeyExchange.X25519) {
+                KeyPair keyPair = NetworkEncryptionUtils.createX25519KeyPair();
+                PublicKey serverPublicKey = X25519Serializer.bytesToPublicKey(packet.publicKey());
+                sharedSecret = NetworkEncryptionUtils.agreeX25519(keyPair.getPrivate(), serverPublicKey, nonce);
+                response = X25519Serializer.publicKeyToBytes(keyPair.getPublic());
+            } else {
+                PublicKey serverPublicKey = RSA128Serializer.bytesToPublicKey(packet.publicKey());
+                sharedSecret = NetworkEncryptionUtils.createAesKey();
+                byte[] encodedSecret = sharedSecret.getEncoded();
+
+                for (int i = 0; i < encodedSecret.length; i++) {
+                    encodedSecret[i] ^= nonce[i];
+                }
+
+                response = NetworkEncryptionUtils.crypt(
+                        Cipher.ENCRYPT_MODE, serverPublicKey, encodedSecret
+                );
             }
 
-            byte[] encryptedSecret = NetworkEncryptionUtils.crypt(
-                    Cipher.ENCRYPT_MODE, serverPublicKey, encodedSecret
-            );
-
-            connection.send(new EncryptionResponseC2SPacket(encryptedSecret));
+            connection.send(new EncryptionResponseC2SPacket(response));
 
             connection.setPhase(NetworkPhase.POST_ENCRYPTION);
             connection.setListener(new ClientPostEncryptionListener(connection, dstClient));
@@ -68,4 +127,4 @@ public class ClientPreEncryptionListener implements ClientPreEncryptionPacketLis
     public Connection getConnection() {
         return connection;
     }
-}
\ No newline at end of file
+}
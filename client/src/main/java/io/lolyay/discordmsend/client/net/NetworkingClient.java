@@ -5,8 +5,8 @@ import io.lolyay.discordmsend.client.DstClient;
 import io.lolyay.discordmsend.network.Enviroment;
 import io.lolyay.discordmsend.network.protocol.Connection;
 import io.lolyay.discordmsend.network.protocol.NetworkPhase;
-import io.lolyay.discordmsend.network.protocol.coder.PacketDecoder;
 import io.lolyay.discordmsend.network.protocol.coder.PacketEncoder;
+import io.lolyay.discordmsend.network.protocol.coder.PacketInboundDecoder;
 import io.lolyay.discordmsend.network.protocol.packet.PacketDirection;
 import io.lolyay.discordmsend.network.protocol.packet.PacketRegistry;
 
@@ -18,7 +18,6 @@ import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.codec.protobuf.ProtobufVarint32FrameDecoder;
 import io.netty.handler.codec.protobuf.ProtobufVarint32LengthFieldPrepender;
 import lombok.extern.slf4j.Slf4j;
 
@@ -66,8 +65,7 @@ public class NetworkingClient {
                             connection = new Connection(ch, Enviroment.CLIENT, protocolVersion, host, port, dstClient.getApiKey());
 
                             ch.pipeline()
-                                    .addLast("frameDecoder", new ProtobufVarint32FrameDecoder())
-                                    .addLast("packetDecoder", new PacketDecoder(registry, connection, PacketDirection.CLIENT_BOUND))
+                                    .addLast("packetDecoder", new PacketInboundDecoder(registry, connection, PacketDirection.CLIENT_BOUND))
 
                                     .addLast("frameEncoder", new ProtobufVarint32LengthFieldPrepender())
                                     .addLast("packetEncoder", new PacketEncoder(registry, connection, PacketDirection.SERVER_BOUND))
@@ -0,0 +1,14 @@
+package io.lolyay.discordmsend.client.net;
+
+/**
+ * Resumption ticket received from the server, together with the secret derived from the session it belongs to.
+ */
+public record SessionTicket(
+        byte[] ticket,
+        byte[] resumptionSecret,
+        long expiresAt
+) {
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= expiresAt;
+    }
+}
@@ -0,0 +1,93 @@
+package io.lolyay.discordmsend.client.net;
+
+import io.lolyay.discordmsend.client.DstClient;
+import io.lolyay.discordmsend.network.protocol.request.TrackInfoBatchRequest;
+import io.lolyay.discordmsend.network.types.TrackMetadata;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects track info lookups made within a short window and sends them as one batch request.
+ * <p>
+ * The first lookup of a window schedules the flush; lookups for an id that is already pending share its future.
+ * Ids the server does not know complete with null.
+ */
+@Slf4j
+public class TrackInfoBatcher {
+    public static final long WINDOW_MS = 5;
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "DST-TrackInfoBatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final DstClient dstClient;
+    private Map<Integer, CompletableFuture<TrackMetadata>> pending = new HashMap<>();
+
+    public TrackInfoBatcher(DstClient dstClient) {
+        this.dstClient = dstClient;
+    }
+
+    public synchronized CompletableFuture<TrackMetadata> request(int trackId) {
+        CompletableFuture<TrackMetadata> future = pending.get(trackId);
+        if (future != null) {
+            return future;
+        }
+        if (pending.isEmpty()) {
+            SCHEDULER.schedule(this::flush, WINDOW_MS, TimeUnit.MILLISECONDS);
+        }
+        future = new CompletableFuture<>();
+        pending.put(trackId, future);
+        return future;
+    }
+
+    private void flush() {
+        Map<Integer, CompletableFuture<TrackMetadata>> batch;
+        synchronized (this) {
+            batch = pending;
+            pending = new HashMap<>();
+        }
+
+        IntArrayList ids = new IntArrayList(Math.min(batch.size(), TrackInfoBatchRequest.MAX_TRACKS));
+        for (int trackId : batch.keySet()) {
+            ids.add(trackId);
+            if (ids.size() == TrackInfoBatchRequest.MAX_TRACKS) {
+                send(ids, batch);
+                ids = new IntArrayList();
+            }
+        }
+        if (!ids.isEmpty()) {
+            send(ids, batch);
+        }
+    }
+
+    private void send(IntArrayList ids, Map<Integer, CompletableFuture<TrackMetadata>> batch) {
+        try {
+            dstClient.sendRequest(new TrackInfoBatchRequest(ids)).whenComplete((packet, error) -> {
+                if (error != null) {
+                    ids.forEach(id -> batch.get(id).completeExceptionally(error));
+                    return;
+                }
+                for (TrackMetadata track : packet.tracks()) {
+                    CompletableFuture<TrackMetadata> future = batch.get(track.id());
+                    if (future != null) {
+                        future.complete(track);
+                    }
+                }
+                // Anything the server left out is unknown as well
+                ids.forEach(id -> batch.get(id).complete(null));
+            });
+        } catch (RuntimeException e) {
+            log.error("Failed to send track info batch", e);
+            ids.forEach(id -> batch.get(id).completeExceptionally(e));
+        }
+    }
+}
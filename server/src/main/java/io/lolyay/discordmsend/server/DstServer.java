@@ -5,12 +5,15 @@ import io.lolyay.discordmsend.network.protocol.Connection;
 import io.lolyay.discordmsend.network.protocol.NetworkPhase;
 import io.lolyay.discordmsend.network.protocol.encryption.NetworkEncryptionUtils;
 import io.lolyay.discordmsend.network.protocol.packet.PacketRegistry;
+import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.postenc.RequestTrackInfoBatchC2SPacket;
 import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.postenc.RequestTrackInfoC2SPacket;
 import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.postenc.SearchMultipleC2SPacket;
 import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc.KeepAliveS2CPacket;
 import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc.SearchResponseS2CPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc.TrackDetailsBatchS2CPacket;
 import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc.TrackDetailsS2CPacket;
 import io.lolyay.discordmsend.network.protocol.request.SearchRequest;
+import io.lolyay.discordmsend.network.protocol.request.TrackInfoBatchRequest;
 import io.lolyay.discordmsend.network.protocol.request.TrackInfoRequest;
 import io.lolyay.discordmsend.network.types.ModdedInfo;
 import io.lolyay.discordmsend.network.types.ServerFeatures;
@@ -18,17 +21,23 @@ import io.lolyay.discordmsend.network.types.TrackMetadata;
 import io.lolyay.discordmsend.obj.TrackId;
 import io.lolyay.discordmsend.server.addon.AddonLoader;
 import io.lolyay.discordmsend.server.addon.DstImplAddon;
+import io.lolyay.discordmsend.server.cache.ObjectStore;
+import io.lolyay.discordmsend.server.cache.ObjectStoreChain;
+import io.lolyay.discordmsend.server.cache.SearchCache;
 import io.lolyay.discordmsend.server.cache.TrackCacheManager;
+import io.lolyay.discordmsend.server.cache.peer.PeerTrackStore;
 import io.lolyay.discordmsend.server.music.pools.opus.OpusEncoderPool;
 import io.lolyay.discordmsend.server.music.pools.player.GuildPlayerPool;
 import io.lolyay.discordmsend.server.music.providers.ProviderPool;
 import io.lolyay.discordmsend.server.network.ConnectedClient;
+import io.lolyay.discordmsend.server.network.HandshakeAdmission;
 import io.lolyay.discordmsend.server.network.NetworkServer;
 import io.lolyay.discordmsend.server.network.ServerRequestManager;
+import io.lolyay.discordmsend.server.network.SessionTicketManager;
+import io.lolyay.discordmsend.server.registry.TrackRegistry;
 import io.lolyay.eventbus.EventBus;
 import it.unimi.dsi.fastutil.ints.Int2ObjectArrayMap;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
-import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
@@ -38,9 +47,12 @@ import moe.kyokobot.koe.gateway.GatewayVersion;
 import moe.kyokobot.koe.poller.udpqueue.QueueManagerPool;
 import moe.kyokobot.koe.poller.udpqueue.UdpQueueFramePollerFactory;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.security.KeyPair;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -53,15 +65,17 @@ public class DstServer {
 
     private final List<DstImplAddon> addons;
 
-    private final List<ConnectedClient> connectedClients = new ObjectArrayList<>();
+    /** Copy-on-write: changed from the network threads and the scheduler, iterated far more often than changed. */
+    private final List<ConnectedClient> connectedClients = new CopyOnWriteArrayList<>();
     private final NetworkServer networkServer;
     private final KeyPair keyPair = NetworkEncryptionUtils.createRsaKeyPair();
+    private final SessionTicketManager sessionTicketManager = new SessionTicketManager(this);
+    private final HandshakeAdmission handshakeAdmission = new HandshakeAdmission();
 
     private final ScheduledExecutorService scheduledExecutorService;
 
-    private final ObjectArrayList<TrackMetadata> trackPacketRegistry = new ObjectArrayList<>();
-    private final Object2IntOpenHashMap<String> identifierToIdMap = new Object2IntOpenHashMap<>();
-    private final Object2IntOpenHashMap<String> queryCache = new Object2IntOpenHashMap<>();
+    private final TrackRegistry trackRegistry;
+    private final SearchCache searchCache = new SearchCache(10, TimeUnit.MINUTES, 1024);
 
     private final int protocolVersion;
     private final int port;
@@ -106,14 +120,45 @@ public class DstServer {
         this.opusEncoderPool = new OpusEncoderPool(this.opusEncoderPoolSize, this.opusQueueLen);
         this.guildPlayerPool = new GuildPlayerPool(4);
         
+        try {
+            this.trackRegistry = new TrackRegistry(Path.of("./cache/tracks.registry"));
+        } catch (IOException e) {
+            log.error("Failed to load track registry: " + e.getMessage());
+            throw new RuntimeException("Failed to load track registry", e);
+        }
+        // Restored tracks keep expiring from when they were last used
+        trackRegistry.forEachRestored(cacheManager::restoreAccess);
+
         // Initialize audio cache manager
         try {
-            this.audioCacheManager = new io.lolyay.discordmsend.server.cache.FileSystemAudioCacheManager("./cache/tracks");
-            log.info("Audio cache initialized at ./cache/tracks");
+            io.lolyay.discordmsend.server.cache.FileSystemAudioCacheManager localCache =
+                    new io.lolyay.discordmsend.server.cache.FileSystemAudioCacheManager("./cache/tracks",
+                    initData.getTrackCacheMaxBytes(), initData.getTrackCacheMinPlays(), initData.isTrackCacheFsync(),
+                    initData.getTrackMemoryCacheBytes());
+            ObjectStore trackStore = initData.getTrackStore();
+            if (initData.getPeerPort() > 0 && !initData.getPeers().isEmpty()) {
+                if (initData.getPeerSecret().isBlank()) {
+                    log.warn("peerPort is set but peerSecret is empty; not sharing the track cache with peers");
+                } else {
+                    PeerTrackStore peerStore = new PeerTrackStore(localCache, registry, initData.getPeerPort(),
+                            initData.getPeerSelf(), initData.getPeers(), initData.getPeerSecret());
+                    peerStore.start();
+                    trackStore = trackStore == null ? peerStore : new ObjectStoreChain(peerStore, trackStore);
+                }
+            }
+            if (trackStore != null) {
+                this.audioCacheManager = new io.lolyay.discordmsend.server.cache.TieredAudioCacheManager(localCache, trackStore);
+                log.info("Audio cache initialized at ./cache/tracks, shared through {}", trackStore.getClass().getSimpleName());
+            } else {
+                this.audioCacheManager = localCache;
+                log.info("Audio cache initialized at ./cache/tracks");
+            }
         } catch (Exception e) {
             log.error("Failed to initialize audio cache: " + e.getMessage());
             throw new RuntimeException("Failed to initialize audio cache", e);
         }
+        audioCacheManager.warmUp(initData.getTrackCacheWarmupTracks(), initData.getTrackCacheWarmupBytesPerSecond());
+        opusEncoderPool.prewarm(initData.getOpusPrewarmEncoders());
 
 
 
@@ -152,24 +197,33 @@ public class DstServer {
 
         }, 5, TimeUnit.SECONDS);
 
-        scheduleRepeating(cacheManager::expireOldTracks, 6, TimeUnit.HOURS);
+        scheduleRepeating(sessionTicketManager::expireDetached, 5, TimeUnit.SECONDS);
+
+        scheduleRepeating(cacheManager::expireStep, 10, TimeUnit.SECONDS);
+
+        scheduleRepeating(audioCacheManager::checkpoint, 5, TimeUnit.MINUTES);
+
+        scheduleRepeating(searchCache::logStats, 30, TimeUnit.MINUTES);
+        scheduleRepeating(audioCacheManager::logStats, 30, TimeUnit.MINUTES);
 
         // Register Server Requests
         ServerRequestManager.registerExchange(SearchRequest.EXCHANGE_TYPE, (requestPacket, server, client) -> {
             if(!(requestPacket instanceof SearchMultipleC2SPacket searchMultipleC2SPacket))
                 return null;
-            List<TrackMetadata> metadata = ProviderPool.getInstance().search(searchMultipleC2SPacket.query(), searchMultipleC2SPacket.maxResults());
+            List<TrackMetadata> metadata = searchCache.search(searchMultipleC2SPacket.query(), searchMultipleC2SPacket.maxResults());
             IntArrayList returns = new IntArrayList();
 
             Int2ObjectArrayMap<TrackMetadata> tracks = new Int2ObjectArrayMap<>();
             for (TrackMetadata track : metadata) {
-                int index = trackPacketRegistry.size();
-                TrackMetadata t = track.withId(index);
-                trackPacketRegistry.add(t);
-                markTrackAccessed(index);
-                identifierToIdMap.put(t.identifier(), index);
-                tracks.put(index, t);
-                returns.add(index);
+                int id = trackRegistry.register(track);
+                TrackMetadata t = trackRegistry.get(id);
+                if (t == null) {
+                    continue; // expired right away
+                }
+                markTrackAccessed(id);
+                client.getKnownTracks().add(id);
+                tracks.put(id, t);
+                returns.add(id);
             }
 
             if(searchMultipleC2SPacket.details())
@@ -183,11 +237,33 @@ public class DstServer {
             if (!(requestPacket instanceof RequestTrackInfoC2SPacket trackInfoRequest))
                 return null;
             TrackMetadata trackMetadata = resolveTo(TrackId.ofId(trackInfoRequest.trackId()));
+            if (trackMetadata != null) {
+                client.getKnownTracks().add(trackInfoRequest.trackId());
+            }
             return new TrackDetailsS2CPacket(
                     trackMetadata
             );
         });
 
+        ServerRequestManager.registerExchange(TrackInfoBatchRequest.EXCHANGE_TYPE, (requestPacket, server, client) -> {
+            if (!(requestPacket instanceof RequestTrackInfoBatchC2SPacket batchRequest))
+                return null;
+            List<TrackMetadata> tracks = new ObjectArrayList<>(batchRequest.trackIds().size());
+            IntArrayList missing = new IntArrayList();
+            for (int i = 0; i < batchRequest.trackIds().size(); i++) {
+                int trackId = batchRequest.trackIds().getInt(i);
+                TrackMetadata track = trackRegistry.get(trackId);
+                if (track == null) {
+                    missing.add(trackId);
+                } else {
+                    markTrackAccessed(trackId);
+                    client.getKnownTracks().add(trackId);
+                    tracks.add(track);
+                }
+            }
+            return new TrackDetailsBatchS2CPacket(tracks, missing, batchRequest.sequence());
+        });
+
         addons = new AddonLoader().load(this);
 
     }
@@ -197,7 +273,12 @@ public class DstServer {
     }
 
     public void removeClientByConnection(Connection connection){
-        connectedClients.removeIf(connectedClient -> connectedClient.getConnection().equals(connection));
+        for (ConnectedClient connectedClient : connectedClients) {
+            if (connectedClient.getConnection().equals(connection) && !sessionTicketManager.detach(connectedClient)) {
+                connectedClient.cleanup();
+                connectedClients.remove(connectedClient);
+            }
+        }
     }
 
     public void addConnectedClient(ConnectedClient connectedClient){
@@ -239,17 +320,19 @@ public class DstServer {
         if (trackId == null) {
             return null;
         }
-        int id = trackId.getTrackId();
-        if (id < 0 || id >= trackPacketRegistry.size()) {
+        TrackMetadata track = trackRegistry.get(trackId.getTrackId());
+        if (track == null) {
             return null;
         }
-        markTrackAccessed(id);
-        return trackPacketRegistry.get(id);
+        markTrackAccessed(trackId.getTrackId());
+        return track;
     }
 
+    /**
+     * @return the id of the track, -1 if it is not registered (anymore)
+     */
     public TrackId unResolve(TrackMetadata audioTrack){
-        int id = identifierToIdMap.get(audioTrack.identifier());
-        return TrackId.ofId(id);
+        return TrackId.ofId(trackRegistry.idOf(audioTrack.identifier()));
     }
 
     public void schedule(Runnable runnable, long time, TimeUnit timeUnit){
@@ -315,16 +398,8 @@ public class DstServer {
 
     public void removeTracksFromCache(List<Integer> trackIds) {
         for (int trackId : trackIds) {
-            if (trackId >= 0 && trackId < trackPacketRegistry.size()) {
-                TrackMetadata track = trackPacketRegistry.get(trackId);
-                if (track != null) {
-                    identifierToIdMap.removeInt(track.identifier());
-                    trackPacketRegistry.set(trackId, null); // Clear but maintain index
-                }
-            }
+            trackRegistry.remove(trackId);
         }
-        
-        queryCache.entrySet().removeIf(entry -> trackIds.contains(entry.getValue()));
     }
 
     public void broadcastToAllClients(io.lolyay.discordmsend.network.protocol.packet.Packet<?> packet) {
@@ -3,10 +3,17 @@ package io.lolyay.discordmsend.server;
 import io.lolyay.discordmsend.network.Enviroment;
 import io.lolyay.discordmsend.network.protocol.packet.PacketRegistry;
 import io.lolyay.discordmsend.network.types.ServerFeatures;
+import io.lolyay.discordmsend.server.cache.DirectoryObjectStore;
+import io.lolyay.discordmsend.server.cache.ObjectStore;
+import io.lolyay.discordmsend.server.cache.S3ObjectStore;
 import io.lolyay.discordmsend.server.config.ConfigFile;
+import io.lolyay.discordmsend.server.music.providers.ProviderPool;
+import io.lolyay.discordmsend.server.music.providers.SearchRanking;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
 
 @Slf4j
 public class Main {
@@ -18,6 +25,9 @@ public class Main {
     public static void main(String[] args) throws Exception {
         packetRegistry.registerAll();
         ConfigFile.load();
+        ProviderPool.getInstance().setFanOut(ConfigFile.searchFanOut);
+        ProviderPool.getInstance().setSearchDeadlineMillis(ConfigFile.searchDeadlineMs);
+        ProviderPool.getInstance().setRanking(SearchRanking.byName(ConfigFile.searchRanking));
 
         serverInitData = ServerInitData.builder()
                 .serverName("Default DST Server")
@@ -34,6 +44,18 @@ public class Main {
                 ))
                 .serverId("3.1.8")
                 .singleGuildHQ(ConfigFile.singleGuildHQ)
+                .trackCacheMaxBytes(ConfigFile.trackCacheMaxMb << 20)
+                .trackCacheMinPlays(ConfigFile.trackCacheMinPlays)
+                .trackCacheFsync(ConfigFile.trackCacheFsync)
+                .trackMemoryCacheBytes(ConfigFile.trackMemoryCacheMb << 20)
+                .trackCacheWarmupTracks(ConfigFile.trackCacheWarmupTracks)
+                .trackCacheWarmupBytesPerSecond(ConfigFile.trackCacheWarmupMbPerSecond << 20)
+                .opusPrewarmEncoders(ConfigFile.opusPrewarmEncoders)
+                .trackStore(createTrackStore())
+                .peerPort(ConfigFile.peerPort)
+                .peers(Arrays.stream(ConfigFile.peers.split(",")).map(String::trim).filter(s -> !s.isEmpty()).toList())
+                .peerSelf(ConfigFile.peerSelf)
+                .peerSecret(ConfigFile.peerSecret)
                 .build();
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -44,10 +66,37 @@ public class Main {
                 log.error("Error saving Config: ");
                 throw new RuntimeException(e);
             }
+            if (dstServer != null) {
+                try {
+                    dstServer.getTrackRegistry().close();
+                } catch (IOException e) {
+                    log.error("Error closing track registry", e);
+                }
+                try {
+                    dstServer.getAudioCacheManager().close();
+                } catch (IOException e) {
+                    log.error("Error closing audio cache", e);
+                }
+            }
         }));
         dstServer = new DstServer(2677, Enviroment.PROTOCOL_VERSION, packetRegistry, serverInitData, ConfigFile.apiKey);
         log.error("Starting Server with protocol version " + Enviroment.PROTOCOL_VERSION + " on port " + 2677);
         dstServer.start();
 
     }
+
+    private static ObjectStore createTrackStore() throws IOException {
+        if (!ConfigFile.sharedTrackCacheDirectory.isBlank()) {
+            return new DirectoryObjectStore(Path.of(ConfigFile.sharedTrackCacheDirectory));
+        }
+        if (!ConfigFile.sharedTrackCache) {
+            return null;
+        }
+        if (ConfigFile.trackUploadBucketUrl.isBlank() || ConfigFile.s3AccessKey.isBlank()) {
+            log.warn("sharedTrackCache is enabled but trackUploadBucketUrl or s3AccessKey is not set; not sharing cached tracks");
+            return null;
+        }
+        return new S3ObjectStore(ConfigFile.trackUploadBucketUrl, ConfigFile.publicDownloadBucketUrl,
+                ConfigFile.s3AccessKey, ConfigFile.s3SecretKey, ConfigFile.s3Region);
+    }
 }
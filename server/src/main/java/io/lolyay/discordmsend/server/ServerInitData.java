@@ -2,10 +2,13 @@ package io.lolyay.discordmsend.server;
 
 
 import io.lolyay.discordmsend.network.types.ServerFeatures;
+import io.lolyay.discordmsend.server.cache.ObjectStore;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.util.List;
+
 @Getter
 @Setter
 @Builder
@@ -17,5 +20,40 @@ public class ServerInitData {
     private String countryCode;
     @Builder.Default
     private boolean singleGuildHQ = false;
+    /** Byte budget of the PCM track cache, 0 for unlimited. */
+    @Builder.Default
+    private long trackCacheMaxBytes = 0;
+    /** How often a track has to be played before it is written to the track cache. */
+    @Builder.Default
+    private int trackCacheMinPlays = 1;
+    /** Sync finished track cache files to disk before they are indexed. */
+    @Builder.Default
+    private boolean trackCacheFsync = false;
+    /** Off-heap budget for decoded PCM of the most played tracks, 0 to disable. */
+    @Builder.Default
+    private long trackMemoryCacheBytes = 0;
+    /** Most played tracks to read back in after startup, 0 to disable. */
+    @Builder.Default
+    private int trackCacheWarmupTracks = 0;
+    /** Read rate limit of the warm-up, 0 for none. */
+    @Builder.Default
+    private long trackCacheWarmupBytesPerSecond = 0;
+    /** Opus encoders to create at startup. */
+    @Builder.Default
+    private int opusPrewarmEncoders = 0;
+    /** Store shared with other servers behind the local track cache, null to disable. */
+    @Builder.Default
+    private ObjectStore trackStore = null;
+    /** Port to share the track cache with other servers on, 0 to disable. */
+    @Builder.Default
+    private int peerPort = 0;
+    /** {@code host:port} of every server sharing its track cache, including this one. */
+    @Builder.Default
+    private List<String> peers = List.of();
+    /** {@code host:port} of this server in {@link #peers}. */
+    @Builder.Default
+    private String peerSelf = "";
+    @Builder.Default
+    private String peerSecret = "";
 
 }
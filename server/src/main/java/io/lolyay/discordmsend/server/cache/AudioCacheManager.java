@@ -1,11 +1,12 @@
 package io.lolyay.discordmsend.server.cache;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
 
-public interface AudioCacheManager {
+public interface AudioCacheManager extends Closeable {
 
     boolean hasTrack(String trackUri);
 
@@ -16,11 +17,52 @@ public interface AudioCacheManager {
     void finalizeSave(String trackUri, boolean success);
 
     boolean deleteTrack(String trackUri);
+
+    /**
+     * Tells the cache which recording {@code trackUri} is, e.g. {@code "isrc:" + isrc}, so URIs of the same
+     * recording can share one cached copy. Called before the track is looked up.
+     */
+    default void linkContent(String trackUri, String contentId) {
+    }
+
+    /**
+     * Starts reading the {@code tracks} most played tracks back into memory in the background, at no more than
+     * {@code bytesPerSecond}. Called once after startup.
+     */
+    default void warmUp(int tracks, long bytesPerSecond) {
+    }
+
+    /**
+     * Persists state that is otherwise only written on {@link #close}. Called periodically.
+     */
+    default void checkpoint() {
+    }
+
+    /**
+     * @return whether the cached copy of {@code trackUri} was found corrupt while it was played and has been
+     * dropped, or the cache write it was played from was abandoned, in which case the failed playback should be
+     * retried from the source. Cleared by the call.
+     */
+    default boolean takeCorrupted(String trackUri) {
+        return false;
+    }
     
 
     long getCacheSize();
 
     void clearCache();
+
+    AudioCacheStats getStats();
+
+    /**
+     * Logs the statistics of {@link #getStats}. Does nothing by default.
+     */
+    default void logStats() {
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
     
 
     default String computeHash(String trackUri) {
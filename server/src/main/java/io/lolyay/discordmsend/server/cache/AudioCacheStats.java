@@ -0,0 +1,28 @@
+package io.lolyay.discordmsend.server.cache;
+
+/**
+ * Counters of an {@link AudioCacheManager} since startup.
+ *
+ * @param hits              tracks served from the cache
+ * @param misses            tracks that had to be fetched from their source
+ * @param rejected          misses the admission filter did not write to the cache
+ * @param evictions         tracks removed to stay within the byte budget
+ * @param bytesWritten      bytes of tracks committed to the cache
+ * @param bytesDeduplicated bytes not stored again because the same audio was cached under another URI
+ * @param dropped           cache writes abandoned because the disk could not keep up (or failed)
+ * @param corrupted         cached files dropped because they failed their checksums
+ * @param usedBytes         bytes the cached tracks occupy right now
+ * @param maxBytes          the byte budget, {@code 0} if unlimited
+ * @param memoryHits        hits served from decoded PCM held in memory, without disk I/O (included in {@code hits})
+ * @param memoryEvictions   tracks dropped from memory for more popular ones
+ * @param memoryBytes       off-heap bytes holding decoded tracks right now
+ */
+public record AudioCacheStats(long hits, long misses, long rejected, long evictions, long bytesWritten,
+                              long bytesDeduplicated, long dropped, long corrupted, long usedBytes, long maxBytes,
+                              long memoryHits, long memoryEvictions, long memoryBytes) {
+
+    public double hitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+}
@@ -0,0 +1,229 @@
+package io.lolyay.discordmsend.server.cache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only index of the audio cache directory.
+ * <p>
+ * File layout: magic, version, then records of {@code [int length][int crc32][byte op][payload]} where length
+ * and crc cover op and payload. {@link #PUT} records carry hash, file name and file size, {@link #DELETE}
+ * records only the hash, and {@link #CONTENT} records bind a content id to the file that holds it. Replaying
+ * the records in order restores the index; a torn record at the end (crash during append) is cut off on open.
+ * Once most records are superseded the file is rewritten.
+ */
+@Slf4j
+public class CacheIndexLog implements AutoCloseable {
+    static final byte PUT = 1;
+    static final byte DELETE = 2;
+    static final byte CONTENT = 3;
+
+    private static final int MAGIC = 0x44535443; // "DSTC"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER = 8;
+    private static final int RECORD_HEADER = 8;
+    private static final int MAX_RECORD = 1 << 16;
+    private static final int MIN_COMPACT_RECORDS = 1024;
+
+    public interface ReplayVisitor {
+        void put(String hash, String filename, long size);
+
+        void delete(String hash);
+
+        void content(String contentId, String filename);
+    }
+
+    /** What a compaction writes for one live entry. */
+    public record Entry(String filename, long size) {
+    }
+
+    private final Path file;
+    private FileChannel channel;
+    private long totalRecords;
+
+    public CacheIndexLog(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens (or creates) the log and replays its records into the visitor.
+     */
+    public synchronized void open(ReplayVisitor visitor) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < FILE_HEADER) {
+            channel.truncate(0);
+            channel.write(ByteBuffer.allocate(FILE_HEADER).putInt(MAGIC).putInt(VERSION).flip(), 0);
+        }
+
+        ByteBuffer data = ByteBuffer.allocate((int) channel.size());
+        while (data.hasRemaining() && channel.read(data, data.position()) >= 0) {
+            // read fully
+        }
+        data.flip();
+        if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+            throw new IOException("Not a cache index file (or unsupported version): " + file);
+        }
+
+        int position = FILE_HEADER;
+        int limit = data.limit();
+        CRC32 checksum = new CRC32();
+        while (position + RECORD_HEADER + 1 <= limit) {
+            int length = data.getInt(position);
+            if (length < 1 || length > MAX_RECORD || position + RECORD_HEADER + length > limit) {
+                break;
+            }
+            checksum.reset();
+            checksum.update(data.slice(position + RECORD_HEADER, length));
+            if ((int) checksum.getValue() != data.getInt(position + 4)) {
+                break;
+            }
+            ByteBuffer record = data.slice(position + RECORD_HEADER, length);
+            try {
+                byte op = record.get();
+                String hash = readString(record);
+                if (op == PUT) {
+                    String filename = readString(record);
+                    long size = record.getLong();
+                    visitor.put(hash, filename, size);
+                } else if (op == DELETE) {
+                    visitor.delete(hash);
+                } else if (op == CONTENT) {
+                    visitor.content(hash, readString(record));
+                } else {
+                    break;
+                }
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                break;
+            }
+            totalRecords++;
+            position += RECORD_HEADER + length;
+        }
+
+        if (position < limit) {
+            log.warn("Cache index {} has {} unreadable bytes at the end, truncating", file, limit - position);
+            channel.truncate(position);
+        }
+        channel.position(position);
+    }
+
+    public synchronized void appendPut(String hash, String filename, long size) {
+        append(encode(PUT, hash, filename, size));
+    }
+
+    public synchronized void appendDelete(String hash) {
+        append(encode(DELETE, hash, null, 0));
+    }
+
+    public synchronized void appendContent(String contentId, String filename) {
+        append(encode(CONTENT, contentId, filename, 0));
+    }
+
+    /**
+     * @param liveEntries number of entries and content bindings currently in the index
+     * @return true if most of the log is superseded records and {@link #compact} would pay off
+     */
+    public synchronized boolean needsCompaction(int liveEntries) {
+        return totalRecords > MIN_COMPACT_RECORDS && totalRecords > 2L * liveEntries;
+    }
+
+    /**
+     * Rewrites the log with one PUT per live entry and one CONTENT per content binding. Appends wait while this runs.
+     */
+    public synchronized void compact(Map<String, Entry> entries, Map<String, String> contents) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".compact");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer batch = ByteBuffer.allocate(64 * 1024);
+            batch.putInt(MAGIC).putInt(VERSION);
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                ByteBuffer record = encode(PUT, entry.getKey(), entry.getValue().filename(), entry.getValue().size());
+                if (batch.remaining() < record.remaining()) {
+                    writeFully(out, batch.flip());
+                    batch.clear();
+                }
+                batch.put(record);
+            }
+            for (Map.Entry<String, String> content : contents.entrySet()) {
+                ByteBuffer record = encode(CONTENT, content.getKey(), content.getValue(), 0);
+                if (batch.remaining() < record.remaining()) {
+                    writeFully(out, batch.flip());
+                    batch.clear();
+                }
+                batch.put(record);
+            }
+            writeFully(out, batch.flip());
+            out.force(true);
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        totalRecords = entries.size() + contents.size();
+        log.info("Compacted cache index to {} records", totalRecords);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null && channel.isOpen()) {
+            channel.force(true);
+            channel.close();
+        }
+    }
+
+    private void append(ByteBuffer record) {
+        try {
+            writeFully(channel, record);
+            totalRecords++;
+        } catch (IOException e) {
+            log.error("Failed to append to cache index {}", file, e);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    private static ByteBuffer encode(byte op, String hash, String filename, long size) {
+        byte[] hashBytes = hash.getBytes(StandardCharsets.UTF_8);
+        byte[] nameBytes = filename == null ? null : filename.getBytes(StandardCharsets.UTF_8);
+        boolean sized = op == PUT;
+        int length = 1 + Short.BYTES + hashBytes.length
+                + (nameBytes == null ? 0 : Short.BYTES + nameBytes.length + (sized ? Long.BYTES : 0));
+
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER + length);
+        buf.putInt(length).putInt(0).put(op);
+        buf.putShort((short) hashBytes.length).put(hashBytes);
+        if (nameBytes != null) {
+            buf.putShort((short) nameBytes.length).put(nameBytes);
+            if (sized) {
+                buf.putLong(size);
+            }
+        }
+
+        CRC32 checksum = new CRC32();
+        checksum.update(buf.array(), RECORD_HEADER, length);
+        buf.putInt(4, (int) checksum.getValue());
+        return buf.flip();
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getShort() & 0xFFFF];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,116 @@
+package io.lolyay.discordmsend.server.cache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks every compressed cache file against its block checksums in the background, so damage to tracks nobody played
+ * for a while is found before a player runs into it. Corrupt files are dropped from the cache.
+ * <p>
+ * Passes run on a minimum priority thread, a while after startup and then every few hours, at no more than
+ * {@link #BYTES_PER_SECOND}. Reading pauses while cache writes are queued or tracks are being opened from disk.
+ */
+@Slf4j
+final class CacheScrubber {
+    private static final long FIRST_PASS_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final long PASS_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(6);
+    private static final long BYTES_PER_SECOND = 8L << 20;
+    private static final long BACKOFF_MILLIS = 1000;
+
+    private final FileSystemAudioCacheManager cache;
+    private final Thread thread;
+    private volatile boolean stopped;
+
+    CacheScrubber(FileSystemAudioCacheManager cache) {
+        this.cache = cache;
+        this.thread = new Thread(this::run, "Cache-Scrubber");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() {
+        stopped = true;
+        thread.interrupt();
+    }
+
+    private void run() {
+        try {
+            Thread.sleep(FIRST_PASS_DELAY_MILLIS);
+            while (!stopped) {
+                scrub();
+                Thread.sleep(PASS_INTERVAL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /** Checks every file stored when the pass starts. */
+    void scrub() throws InterruptedException {
+        long start = System.nanoTime();
+        List<String> files = cache.storedFiles();
+        int checked = 0;
+        int corrupt = 0;
+        long bytes = 0;
+        // Reading is scheduled against this; pauses move it forward so no burst follows them
+        long due = System.nanoTime();
+
+        for (String filename : files) {
+            if (stopped) {
+                break;
+            }
+            if (!cache.isStored(filename)) {
+                continue;
+            }
+            try (CompressedPcmInputStream in = new CompressedPcmInputStream(cache.fileOf(filename))) {
+                for (int block = 0; block < in.blockCount() && !stopped; block++) {
+                    due = throttle(due);
+                    int read = in.verifyBlock(block);
+                    bytes += read;
+                    due += read * 1_000_000_000L / BYTES_PER_SECOND;
+                }
+                checked++;
+            } catch (CorruptCacheException e) {
+                corrupt++;
+                cache.quarantine(filename, null, e.getMessage());
+            } catch (NoSuchFileException e) {
+                // Evicted in the meantime
+            } catch (IOException e) {
+                if (stopped) {
+                    break;
+                }
+                log.debug("Skipping scrub of {}: {}", filename, e.getMessage());
+            }
+        }
+
+        log.info("Cache scrub {}: {} files checked ({} MB) in {} s, {} corrupt", stopped ? "stopped" : "finished",
+                checked, bytes >> 20, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), corrupt);
+    }
+
+    /**
+     * Sleeps while the cache is busy and until {@code due}.
+     *
+     * @return {@code due}, moved forward by the time spent waiting for the cache
+     */
+    private long throttle(long due) throws InterruptedException {
+        if (cache.isBusy()) {
+            while (!stopped && cache.isBusy()) {
+                Thread.sleep(BACKOFF_MILLIS);
+            }
+            due = Math.max(due, System.nanoTime());
+        }
+        long wait = due - System.nanoTime();
+        if (wait > 0 && !stopped) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        return due;
+    }
+}
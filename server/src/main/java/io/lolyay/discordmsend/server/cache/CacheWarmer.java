@@ -0,0 +1,105 @@
+package io.lolyay.discordmsend.server.cache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the most played tracks back in after a restart, so their first plays come from memory or the page cache
+ * instead of a cold disk.
+ * <p>
+ * Runs once, on a minimum priority thread, at no more than {@code bytesPerSecond}, and pauses while cache writes are
+ * queued, so it does not compete with live playback for the disk or the CPU. Progress is logged every quarter.
+ */
+@Slf4j
+final class CacheWarmer {
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final long BACKOFF_MILLIS = 200;
+
+    private final FileSystemAudioCacheManager cache;
+    /** Most popular first. */
+    private final List<String> hashes;
+    private final long bytesPerSecond;
+    private final Thread thread;
+    private volatile boolean stopped;
+
+    /**
+     * @param bytesPerSecond read rate limit, {@code 0} for none
+     */
+    CacheWarmer(FileSystemAudioCacheManager cache, List<String> hashes, long bytesPerSecond) {
+        this.cache = cache;
+        this.hashes = hashes;
+        this.bytesPerSecond = bytesPerSecond;
+        this.thread = new Thread(this::run, "Cache-Warmup");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() {
+        stopped = true;
+    }
+
+    private void run() {
+        log.info("Warming up the {} most played cached tracks{}", hashes.size(),
+                bytesPerSecond > 0 ? " at up to " + (bytesPerSecond >> 20) + " MB/s" : "");
+        long start = System.nanoTime();
+        byte[] buffer = new byte[BUFFER_BYTES];
+        int step = Math.max(1, hashes.size() / 4);
+        int warmed = 0;
+        long bytes = 0;
+        // Reading is scheduled relative to this; pauses move it forward so no burst follows them
+        long scheduleStart = System.currentTimeMillis();
+
+        for (int i = 0; i < hashes.size() && !stopped; i++) {
+            String hash = hashes.get(i);
+            try (InputStream in = cache.openForWarmUp(hash)) {
+                if (in != null) {
+                    int n;
+                    while (!stopped && (n = in.read(buffer)) > 0) {
+                        bytes += n;
+                        scheduleStart += throttle(bytes, scheduleStart);
+                    }
+                    warmed++;
+                }
+            } catch (IOException e) {
+                log.debug("Skipping warm-up of track {}: {}", hash, e.getMessage());
+            } catch (InterruptedException e) {
+                break;
+            }
+            if ((i + 1) % step == 0 && i + 1 < hashes.size()) {
+                log.info("Cache warm-up: {}/{} tracks, {} MB read", i + 1, hashes.size(), bytes >> 20);
+            }
+        }
+
+        log.info("Cache warm-up {}: {} tracks read ({} MB) in {} s", stopped ? "stopped" : "finished", warmed,
+                bytes >> 20, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+    }
+
+    /**
+     * Sleeps until {@code bytes} are within the rate limit, and while cache writes are queued.
+     *
+     * @return how long it paused for cache writes, in ms
+     */
+    private long throttle(long bytes, long scheduleStart) throws InterruptedException {
+        long paused = 0;
+        while (!stopped && cache.getQueuedWriteBytes() > 0) {
+            Thread.sleep(BACKOFF_MILLIS);
+            paused += BACKOFF_MILLIS;
+        }
+        if (bytesPerSecond > 0) {
+            long due = scheduleStart + paused + bytes * 1000 / bytesPerSecond;
+            long wait = due - System.currentTimeMillis();
+            if (wait > 0 && !stopped) {
+                Thread.sleep(wait);
+            }
+        }
+        return paused;
+    }
+}
@@ -0,0 +1,550 @@
+package io.lolyay.discordmsend.server.cache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes cache files on a dedicated I/O thread so decoding threads never wait for the disk.
+ * <p>
+ * A {@link Write} only copies what the provider writes into 64 KB blocks and queues them. The I/O thread
+ * compresses them into the temp file and, once the write is finished, runs the commit (move into place, index
+ * update). Queued blocks are bounded by {@code maxQueuedBytes}; a block that does not fit drops the whole
+ * cache write instead of blocking the provider. With {@code fsync} enabled, finished files are synced in
+ * batches whenever the queue runs empty, and only committed after that.
+ */
+@Slf4j
+final class CacheWriteBehind implements AutoCloseable {
+    static final int BLOCK_BYTES = 64 * 1024;
+    private static final int MAX_SYNC_BATCH = 16;
+
+    private final LinkedBlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final long maxQueuedBytes;
+    private final boolean fsync;
+    private final Thread thread;
+    /** Finished writes waiting for their fsync batch. I/O thread only. */
+    private final List<Write> awaitingSync = new ArrayList<>();
+    private volatile boolean running = true;
+
+    CacheWriteBehind(long maxQueuedBytes, boolean fsync) {
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.fsync = fsync;
+        this.thread = new Thread(this::run, "Cache-Writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts a cache write into {@code tempFile}. The file is created by the I/O thread.
+     */
+    Write open(Path tempFile) {
+        return new Write(tempFile);
+    }
+
+    /** @return bytes waiting for the I/O thread */
+    long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /** @return cache writes dropped because the queue was full or the disk failed */
+    long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public void close() {
+        close(10_000);
+    }
+
+    /**
+     * Lets the I/O thread finish what is queued (waiting up to {@code timeoutMillis}) and stops it.
+     */
+    void close(long timeoutMillis) {
+        running = false;
+        queue.add(() -> { });
+        try {
+            thread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            Runnable task;
+            try {
+                task = awaitingSync.isEmpty() ? queue.poll(1, TimeUnit.SECONDS) : queue.poll();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (task == null) {
+                syncAndCommit();
+                if (!running) {
+                    break;
+                }
+                continue;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.error("Cache writer task failed", e);
+            }
+            if (awaitingSync.size() >= MAX_SYNC_BATCH) {
+                syncAndCommit();
+            }
+        }
+        syncAndCommit();
+    }
+
+    private void syncAndCommit() {
+        for (Write write : awaitingSync) {
+            write.syncAndCommit();
+        }
+        awaitingSync.clear();
+    }
+
+    /**
+     * The stream handed to a provider for one cache write. Single writer thread.
+     * <p>
+     * Other players can {@link #follow} the write while it is in progress: they decode the blocks the I/O thread
+     * has already written to the temp file and wait for more when they catch up. While anyone follows, the I/O
+     * thread flushes after every block so followers see it right away.
+     */
+    final class Write extends OutputStream {
+        private final Path tempFile;
+        private byte[] block = new byte[BLOCK_BYTES];
+        private int filled;
+        private boolean closed;
+        private boolean finishing;
+        private volatile boolean failed;
+
+        // I/O thread only
+        private FileChannel channel;
+        private CompressedPcmOutputStream file;
+        private Runnable onCommitted;
+        private Runnable onClosed;
+        private MessageDigest digest;
+        /** Digest of the decoded PCM, set once the file is complete. */
+        private volatile String contentKey;
+
+        // Shared with followers, guarded by this
+        private FileChannel readChannel;
+        /** Start of every block written so far, plus the end of the last one. */
+        private long[] blockOffsets = {CompressedPcmOutputStream.HEADER_BYTES};
+        private int writtenBlocks;
+        /** Blocks that are flushed to the file and can be read through {@link #readChannel}. */
+        private int visibleBlocks;
+        /** Decoded length once the writer finished successfully, -1 before. */
+        private long finalLength = -1;
+        private boolean aborted;
+        /** The writer (until it is done) plus open followers; {@link #readChannel} closes when it drops to 0. */
+        private int channelUsers = 1;
+        private volatile int followers;
+
+        private Write(Path tempFile) {
+            this.tempFile = tempFile;
+        }
+
+        Path getTempFile() {
+            return tempFile;
+        }
+
+        /**
+         * @return the first 64 bits of the SHA-256 of everything written, as hex; null until the write completed
+         * (always set when the commit runs)
+         */
+        String getContentKey() {
+            return contentKey;
+        }
+
+        /** @return whether the write can still complete, so following it makes sense */
+        boolean isFollowable() {
+            return !failed && !aborted;
+        }
+
+        /**
+         * @return a stream over the PCM written so far, which blocks until the writer gets further and fails if
+         * the write is aborted
+         */
+        InputStream follow() throws IOException {
+            synchronized (this) {
+                if (failed || aborted || channelUsers == 0) {
+                    throw new IOException("Cache write " + tempFile.getFileName() + " was aborted");
+                }
+                channelUsers++;
+                followers++;
+            }
+            return new Follower(this);
+        }
+
+        @Override
+        public void write(int b) {
+            if (closed || failed) {
+                return;
+            }
+            block[filled++] = (byte) b;
+            if (filled == BLOCK_BYTES) {
+                submitBlock();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            while (len > 0 && !closed && !failed) {
+                int n = Math.min(len, BLOCK_BYTES - filled);
+                System.arraycopy(b, off, block, filled, n);
+                filled += n;
+                off += n;
+                len -= n;
+                if (filled == BLOCK_BYTES) {
+                    submitBlock();
+                }
+            }
+        }
+
+        /** Queues the partial block; writing more afterwards is ignored. */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            if (filled > 0 && !failed) {
+                submitBlock();
+            }
+            closed = true;
+        }
+
+        /**
+         * Ends the write. If it succeeded and no block was dropped, {@code onCommitted} runs on the I/O thread
+         * once the file is complete (and synced); otherwise the temp file is deleted. {@code onClosed} runs on
+         * the I/O thread after either.
+         */
+        void finish(boolean success, Runnable onCommitted, Runnable onClosed) {
+            if (finishing) {
+                return;
+            }
+            finishing = true;
+            close();
+            boolean commit = success;
+            queue.add(() -> complete(commit, onCommitted, onClosed));
+        }
+
+        private void submitBlock() {
+            byte[] full = block;
+            int length = filled;
+            block = new byte[BLOCK_BYTES];
+            filled = 0;
+            if (queuedBytes.addAndGet(length) > maxQueuedBytes) {
+                queuedBytes.addAndGet(-length);
+                fail("cache writer is behind");
+                return;
+            }
+            queue.add(() -> {
+                queuedBytes.addAndGet(-length);
+                writeBlock(full, length);
+            });
+        }
+
+        private void fail(String reason) {
+            if (!failed) {
+                failed = true;
+                dropped.incrementAndGet();
+                log.debug("Dropping cache write {}: {}", tempFile.getFileName(), reason);
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        private void writeBlock(byte[] data, int length) {
+            if (failed) {
+                return;
+            }
+            try {
+                if (file == null) {
+                    openFile();
+                }
+                file.write(data, 0, length);
+                digest.update(data, 0, length);
+                publish(followers > 0, false);
+            } catch (IOException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        private void openFile() throws IOException {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+            channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            file = new CompressedPcmOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 256 * 1024));
+            FileChannel reader = FileChannel.open(tempFile, StandardOpenOption.READ);
+            synchronized (this) {
+                readChannel = reader;
+            }
+        }
+
+        /**
+         * Records the blocks the compressor wrote since the last call and, if {@code flush}, makes them visible
+         * to followers. With {@code last}, the final length is published along with them, so no follower sees the
+         * last (partial) block without it.
+         */
+        private void publish(boolean flush, boolean last) throws IOException {
+            if (flush) {
+                file.flush();
+            }
+            synchronized (this) {
+                int blocks = file.blocksWritten();
+                if (blockOffsets.length <= blocks) {
+                    blockOffsets = Arrays.copyOf(blockOffsets, Math.max(blocks + 1, blockOffsets.length * 2));
+                }
+                for (; writtenBlocks < blocks; writtenBlocks++) {
+                    blockOffsets[writtenBlocks + 1] = blockOffsets[writtenBlocks] + file.blockLength(writtenBlocks);
+                }
+                if (last) {
+                    finalLength = file.rawLength();
+                }
+                if (flush) {
+                    visibleBlocks = writtenBlocks;
+                    notifyAll();
+                }
+            }
+        }
+
+        private void complete(boolean success, Runnable onCommitted, Runnable onClosed) {
+            this.onClosed = onClosed;
+            if (success && !failed) {
+                try {
+                    if (file == null) {
+                        openFile();
+                    }
+                    file.finish();
+                    contentKey = HexFormat.of().formatHex(digest.digest(), 0, 8);
+                    publish(true, true);
+                    if (fsync) {
+                        this.onCommitted = onCommitted;
+                        awaitingSync.add(this);
+                        return;
+                    }
+                    file.close();
+                    commit(onCommitted);
+                    return;
+                } catch (IOException e) {
+                    fail(e.getMessage());
+                }
+            }
+            discard();
+        }
+
+        private void syncAndCommit() {
+            try {
+                channel.force(false);
+                file.close();
+                commit(onCommitted);
+            } catch (IOException e) {
+                fail(e.getMessage());
+                discard();
+            }
+        }
+
+        private void commit(Runnable onCommitted) {
+            try {
+                onCommitted.run();
+            } finally {
+                done();
+            }
+        }
+
+        private void discard() {
+            synchronized (this) {
+                aborted = true;
+                notifyAll();
+            }
+            try {
+                if (file != null) {
+                    file.close();
+                }
+            } catch (IOException ignored) {
+                // Deleted below anyway
+            }
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException e) {
+                log.error("Failed to delete incomplete cache file: " + e.getMessage());
+            }
+            done();
+        }
+
+        private void done() {
+            releaseChannel();
+            if (onClosed != null) {
+                onClosed.run();
+            }
+        }
+
+        private void releaseChannel() {
+            FileChannel toClose = null;
+            synchronized (this) {
+                if (--channelUsers == 0) {
+                    toClose = readChannel;
+                }
+            }
+            if (toClose != null) {
+                try {
+                    toClose.close();
+                } catch (IOException ignored) {
+                    // Read-only
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads an in-progress {@link Write}. The temp file may be renamed into place or deleted while this is open;
+     * it keeps reading through the channel opened before that.
+     */
+    private static final class Follower extends InputStream {
+        private static final long STALL_TIMEOUT_MILLIS = 30_000;
+
+        private final Write write;
+        private final PcmBlockCodec codec = new PcmBlockCodec();
+        private final byte[] decoded = new byte[PcmBlockCodec.BLOCK_BYTES];
+        private byte[] encoded = new byte[PcmBlockCodec.BLOCK_BYTES + 64];
+        private int decodedBlock = -1;
+        private int decodedLength;
+        private long position;
+        private boolean closed;
+
+        Follower(Write write) {
+            this.write = write;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            int blockIndex = (int) (position / PcmBlockCodec.BLOCK_BYTES);
+            if (blockIndex != decodedBlock && !load(blockIndex)) {
+                return -1;
+            }
+            int inBlock = (int) (position % PcmBlockCodec.BLOCK_BYTES);
+            if (inBlock >= decodedLength) {
+                return -1;
+            }
+            int n = Math.min(len, decodedLength - inBlock);
+            System.arraycopy(decoded, inBlock, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            if (n <= 0) {
+                return 0;
+            }
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                synchronized (write) {
+                    write.followers--;
+                }
+                write.releaseChannel();
+            }
+        }
+
+        /**
+         * Waits until block {@code blockIndex} is written and decodes it.
+         *
+         * @return false if the write ended before that block
+         */
+        private boolean load(int blockIndex) throws IOException {
+            long offset;
+            int length;
+            int rawLength;
+            FileChannel channel;
+            synchronized (write) {
+                long deadline = System.currentTimeMillis() + STALL_TIMEOUT_MILLIS;
+                while (true) {
+                    if (write.failed || write.aborted) {
+                        throw new IOException("Cache write " + write.tempFile.getFileName() + " was aborted");
+                    }
+                    if (blockIndex < write.visibleBlocks) {
+                        break;
+                    }
+                    if (write.finalLength >= 0) {
+                        return false;
+                    }
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new IOException("Cache write " + write.tempFile.getFileName() + " stalled");
+                    }
+                    try {
+                        write.wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for the cache writer");
+                    }
+                }
+                offset = write.blockOffsets[blockIndex];
+                length = (int) (write.blockOffsets[blockIndex + 1] - offset);
+                rawLength = write.finalLength >= 0
+                        ? (int) Math.min(PcmBlockCodec.BLOCK_BYTES, write.finalLength - (long) blockIndex * PcmBlockCodec.BLOCK_BYTES)
+                        : PcmBlockCodec.BLOCK_BYTES;
+                channel = write.readChannel;
+            }
+
+            if (encoded.length < length) {
+                encoded = new byte[length];
+            }
+            ByteBuffer buf = ByteBuffer.wrap(encoded, 0, length);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, offset + buf.position()) < 0) {
+                    throw new IOException("Cache write " + write.tempFile.getFileName() + " ended early");
+                }
+            }
+            decodedBlock = -1;
+            codec.decode(encoded, length, decoded, rawLength);
+            decodedBlock = blockIndex;
+            decodedLength = rawLength;
+            return true;
+        }
+    }
+}
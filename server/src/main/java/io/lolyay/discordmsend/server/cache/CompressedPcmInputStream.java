@@ -0,0 +1,205 @@
+package io.lolyay.discordmsend.server.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Decodes a {@code .dpcm} file written by {@link CompressedPcmOutputStream} back into the original PCM bytes,
+ * one block at a time. The block index is read on open, so {@link #skip} and {@link #seek} only decode the
+ * block they land in. Each block is checked against its checksum when it is read, so a damaged file throws a
+ * {@link CorruptCacheException} at the first bad block instead of producing noise.
+ */
+public class CompressedPcmInputStream extends InputStream {
+    private final Path file;
+    private final FileChannel channel;
+    private final PcmBlockCodec codec = new PcmBlockCodec();
+    private final CRC32C crc = new CRC32C();
+    private final long[] blockOffsets;
+    /** CRC32C of every encoded block, null for version 1 files. */
+    private final int[] blockChecksums;
+    private final long rawLength;
+
+    private final byte[] decoded = new byte[PcmBlockCodec.BLOCK_BYTES];
+    private byte[] encoded = new byte[PcmBlockCodec.BLOCK_BYTES + 64];
+    /** Index of the block in {@link #decoded}, -1 if none. */
+    private int decodedBlock = -1;
+    private long position;
+
+    public CompressedPcmInputStream(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < CompressedPcmOutputStream.HEADER_BYTES + CompressedPcmOutputStream.FOOTER_BYTES) {
+                throw new CorruptCacheException("Compressed track too short: " + file);
+            }
+            ByteBuffer header = readFully(0, CompressedPcmOutputStream.HEADER_BYTES);
+            ByteBuffer footer = readFully(size - CompressedPcmOutputStream.FOOTER_BYTES, CompressedPcmOutputStream.FOOTER_BYTES);
+            byte version = header.get(4);
+            if (header.getInt(0) != CompressedPcmOutputStream.MAGIC || version < 1 || version > CompressedPcmOutputStream.VERSION
+                    || header.getInt(8) != PcmBlockCodec.FRAMES_PER_BLOCK) {
+                throw new IOException("Not a compressed track (or written by another version): " + file);
+            }
+            if (footer.getInt(12) != CompressedPcmOutputStream.MAGIC) {
+                throw new CorruptCacheException("Compressed track has no footer (truncated?): " + file);
+            }
+            this.rawLength = footer.getLong(0);
+            int blocks = footer.getInt(8);
+            int indexEntryBytes = version == 1 ? Integer.BYTES : 2 * Integer.BYTES;
+            long indexOffset = size - CompressedPcmOutputStream.FOOTER_BYTES - (long) blocks * indexEntryBytes;
+            if (blocks < 0 || indexOffset < CompressedPcmOutputStream.HEADER_BYTES
+                    || rawLength > (long) blocks * PcmBlockCodec.BLOCK_BYTES || rawLength <= (long) (blocks - 1) * PcmBlockCodec.BLOCK_BYTES) {
+                throw new CorruptCacheException("Corrupt compressed track index: " + file);
+            }
+
+            ByteBuffer index = readFully(indexOffset, blocks * indexEntryBytes);
+            this.blockOffsets = new long[blocks + 1];
+            this.blockChecksums = version == 1 ? null : new int[blocks];
+            blockOffsets[0] = CompressedPcmOutputStream.HEADER_BYTES;
+            for (int i = 0; i < blocks; i++) {
+                blockOffsets[i + 1] = blockOffsets[i] + index.getInt(i * indexEntryBytes);
+                if (blockChecksums != null) {
+                    blockChecksums[i] = index.getInt(i * indexEntryBytes + Integer.BYTES);
+                }
+            }
+            if (blockOffsets[blocks] != indexOffset) {
+                throw new CorruptCacheException("Corrupt compressed track index: " + file);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** @return the length of the decoded PCM in bytes */
+    public long length() {
+        return rawLength;
+    }
+
+    /**
+     * Moves to byte {@code rawPosition} of the decoded PCM.
+     */
+    public void seek(long rawPosition) {
+        position = Math.max(0, Math.min(rawPosition, rawLength));
+    }
+
+    /** @return the number of blocks */
+    int blockCount() {
+        return blockOffsets.length - 1;
+    }
+
+    /**
+     * Reads a block and checks its checksum without decoding it.
+     *
+     * @return the encoded length of the block
+     */
+    int verifyBlock(int blockIndex) throws IOException {
+        return readBlock(blockIndex);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureDecoded()) {
+            return -1;
+        }
+        return decoded[(int) (position++ % PcmBlockCodec.BLOCK_BYTES)] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureDecoded()) {
+            return -1;
+        }
+        int inBlock = (int) (position % PcmBlockCodec.BLOCK_BYTES);
+        int n = (int) Math.min(len, Math.min(PcmBlockCodec.BLOCK_BYTES - inBlock, rawLength - position));
+        System.arraycopy(decoded, inBlock, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        long target = Math.max(position, Math.min(rawLength, position + n));
+        long skipped = target - position;
+        position = target;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        if (decodedBlock < 0 || position / PcmBlockCodec.BLOCK_BYTES != decodedBlock) {
+            return 0;
+        }
+        return (int) Math.min(PcmBlockCodec.BLOCK_BYTES - position % PcmBlockCodec.BLOCK_BYTES, rawLength - position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private boolean ensureDecoded() throws IOException {
+        if (position >= rawLength) {
+            return false;
+        }
+        int blockIndex = (int) (position / PcmBlockCodec.BLOCK_BYTES);
+        if (blockIndex == decodedBlock) {
+            return true;
+        }
+        decodedBlock = -1;
+        int encodedLength = readBlock(blockIndex);
+        int rawBlockLength = (int) Math.min(PcmBlockCodec.BLOCK_BYTES, rawLength - (long) blockIndex * PcmBlockCodec.BLOCK_BYTES);
+        try {
+            codec.decode(encoded, encodedLength, decoded, rawBlockLength);
+        } catch (IOException | RuntimeException e) {
+            // Damage is caught by the checksum before this, except in version 1 files
+            throw new CorruptCacheException("Undecodable block " + blockIndex + " of " + file + ": " + e.getMessage());
+        }
+        decodedBlock = blockIndex;
+        return true;
+    }
+
+    /**
+     * Reads the encoded block into {@link #encoded} and checks it.
+     *
+     * @return its length
+     */
+    private int readBlock(int blockIndex) throws IOException {
+        int encodedLength = (int) (blockOffsets[blockIndex + 1] - blockOffsets[blockIndex]);
+        if (encoded.length < encodedLength) {
+            encoded = new byte[encodedLength];
+        }
+        ByteBuffer buf = ByteBuffer.wrap(encoded, 0, encodedLength);
+        readFully(blockOffsets[blockIndex], buf);
+        if (blockChecksums != null) {
+            crc.reset();
+            crc.update(encoded, 0, encodedLength);
+            if ((int) crc.getValue() != blockChecksums[blockIndex]) {
+                throw new CorruptCacheException("Checksum mismatch in block " + blockIndex + " of " + file);
+            }
+        }
+        return encodedLength;
+    }
+
+    private ByteBuffer readFully(long offset, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        readFully(offset, buf);
+        return buf.flip();
+    }
+
+    private void readFully(long offset, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, offset + buf.position()) < 0) {
+                throw new CorruptCacheException("Compressed track ended early: " + file);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package io.lolyay.discordmsend.server.cache;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * Writes PCM as a {@code .dpcm} file: a header, independently decodable blocks of
+ * {@link PcmBlockCodec#FRAMES_PER_BLOCK} stereo frames, and a block index followed by a fixed-size footer.
+ * <pre>
+ * header  [int magic "DPCM"][byte version][3 reserved][int frames per block]
+ * blocks  see {@link PcmBlockCodec}
+ * index   [int encoded length][int CRC32C of the encoded block] per block
+ * footer  [long raw length][int block count][int magic]
+ * </pre>
+ * The index is only written by {@link #finish()} or {@link #close()}, so a file that was not finished cannot be
+ * opened by {@link CompressedPcmInputStream}, which checks every block against its checksum before decoding it.
+ * Version 1 files have no checksums in the index and are still read.
+ */
+public class CompressedPcmOutputStream extends OutputStream {
+    static final int MAGIC = 0x4450434D; // "DPCM"
+    static final byte VERSION = 2;
+    static final int HEADER_BYTES = 12;
+    static final int FOOTER_BYTES = 16;
+
+    private final OutputStream out;
+    private final PcmBlockCodec codec = new PcmBlockCodec();
+    private final byte[] block = new byte[PcmBlockCodec.BLOCK_BYTES];
+    private final IntArrayList blockLengths = new IntArrayList();
+    private final IntArrayList blockChecksums = new IntArrayList();
+    private final CRC32C crc = new CRC32C();
+    private int buffered;
+    private long rawLength;
+    private boolean finished;
+
+    public CompressedPcmOutputStream(OutputStream out) throws IOException {
+        this.out = out;
+        out.write(ByteBuffer.allocate(HEADER_BYTES)
+                .putInt(MAGIC).put(VERSION).put((byte) 0).putShort((short) 0)
+                .putInt(PcmBlockCodec.FRAMES_PER_BLOCK)
+                .array());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        block[buffered++] = (byte) b;
+        if (buffered == block.length) {
+            writeBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, block.length - buffered);
+            System.arraycopy(b, off, block, buffered, n);
+            buffered += n;
+            off += n;
+            len -= n;
+            if (buffered == block.length) {
+                writeBlock();
+            }
+        }
+    }
+
+    /** Only flushes whole blocks; a partial block is kept until it fills up or the stream is closed. */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Writes the last block and the index and flushes the underlying stream without closing it.
+     * Nothing can be written afterwards.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (buffered > 0) {
+            writeBlock();
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(blockLengths.size() * 2 * Integer.BYTES + FOOTER_BYTES);
+        for (int i = 0; i < blockLengths.size(); i++) {
+            trailer.putInt(blockLengths.getInt(i)).putInt(blockChecksums.getInt(i));
+        }
+        trailer.putLong(rawLength).putInt(blockLengths.size()).putInt(MAGIC);
+        out.write(trailer.array());
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    /** @return number of blocks handed to the underlying stream so far */
+    int blocksWritten() {
+        return blockLengths.size();
+    }
+
+    int blockLength(int block) {
+        return blockLengths.getInt(block);
+    }
+
+    /** @return PCM bytes in the blocks written so far */
+    long rawLength() {
+        return rawLength;
+    }
+
+    private void writeBlock() throws IOException {
+        PcmBlockCodec.BitWriter encoded = codec.encode(block, buffered);
+        out.write(encoded.bytes(), 0, encoded.length());
+        blockLengths.add(encoded.length());
+        crc.reset();
+        crc.update(encoded.bytes(), 0, encoded.length());
+        blockChecksums.add((int) crc.getValue());
+        rawLength += buffered;
+        buffered = 0;
+    }
+}
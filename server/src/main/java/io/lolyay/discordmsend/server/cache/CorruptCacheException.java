@@ -0,0 +1,15 @@
+package io.lolyay.discordmsend.server.cache;
+
+import java.io.IOException;
+
+/**
+ * A cached track failed a checksum or structure check while it was read. The cache drops the file when it sees
+ * one, so the track is decoded from its source again.
+ */
+public class CorruptCacheException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public CorruptCacheException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,51 @@
+package io.lolyay.discordmsend.server.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * {@link ObjectStore} in a directory, e.g. a network share mounted on every server, or a local stand-in for S3.
+ * Objects are written to a temp file and renamed, so readers never see a partial object.
+ */
+public class DirectoryObjectStore implements ObjectStore {
+    private final Path directory;
+
+    public DirectoryObjectStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        try {
+            return Files.newInputStream(resolve(key));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, Path file) throws IOException {
+        Path target = resolve(key);
+        Files.createDirectories(target.getParent());
+        Path temp = target.resolveSibling(target.getFileName() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private Path resolve(String key) throws IOException {
+        Path path = directory.resolve(key).normalize();
+        if (!path.startsWith(directory.normalize())) {
+            throw new IOException("Object key outside of the store: " + key);
+        }
+        return path;
+    }
+}
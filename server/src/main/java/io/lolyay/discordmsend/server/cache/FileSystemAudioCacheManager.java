@@ -1,7 +1,6 @@
 package io.lolyay.discordmsend.server.cache;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 import lombok.extern.slf4j.Slf4j;
 
@@ -9,24 +8,119 @@ import java.io.*;
 import java.nio.file.*;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 
+/**
+ * PCM track cache in a directory, indexed by a {@link CacheIndexLog}.
+ * <p>
+ * With a byte budget the cache stays below {@code maxBytes}: least recently used tracks are evicted to make
+ * room, but only if the new track was requested more often than every track it displaces (TinyLFU, frequencies
+ * from a {@link FrequencySketch}). Tracks requested fewer than {@code minAdmitFrequency} times are not written
+ * at all, so one-off plays do not push out the tracks that are actually replayed.
+ * <p>
+ * Files are content addressed: a finished track is stored under a digest of its decoded PCM, so URIs that decode
+ * to the same audio (mirrors, re-uploads, other source ids) share one file, which is deleted with its last URI.
+ * Players can also link a URI to an external content id such as the ISRC ({@link #linkContent}); a URI whose
+ * content is already stored under another URI is then served from that file without being decoded at all.
+ */
 @Slf4j
 public class FileSystemAudioCacheManager implements AudioCacheManager {
+    /** Tracks are written compressed (see {@link CompressedPcmOutputStream}); raw .pcm files of older versions stay readable. */
+    private static final String COMPRESSED_EXTENSION = ".dpcm";
     
     private final Path cacheDirectory;
-    private final Path indexFile;
-    private final Map<String, String> trackIndex;
-    private final Gson gson;
-    private final Map<String, Path> pendingSaves;
+    private final Path legacyIndexFile;
+    private final CacheIndexLog indexLog;
+    private final Map<String, CacheIndexLog.Entry> trackIndex;
+    /** Same entries as trackIndex, least recently used first. Guarded by indexLog. */
+    private final LinkedHashMap<String, CacheIndexLog.Entry> recency;
+    private final Map<String, CacheWriteBehind.Write> pendingSaves;
+    private final CacheWriteBehind writeBehind;
+    private final HotTrackTier hotTier;
+    private final TrackPopularity popularity;
+    private volatile CacheWarmer warmer;
+    private final CacheScrubber scrubber;
+    /**
+     * URIs whose cached copy was dropped as corrupt, or whose followed cache write was abandoned, while being
+     * played; see {@link #takeCorrupted}.
+     */
+    private final Set<String> corruptedUris = ConcurrentHashMap.newKeySet();
+    /** When a track was last opened from disk, for {@link #isBusy}. */
+    private volatile long lastDiskOpen;
+    private final Set<String> rejectedSaves;
+    private volatile BiConsumer<String, Path> commitListener;
+    /** Stored files by name; several URIs can resolve to one. Guarded by indexLog. */
+    private final Map<String, Blob> blobs;
+    /** File holding the audio of each bound content id. Guarded by indexLog. */
+    private final Map<String, String> contentIndex;
+    /** Content ids announced by players, by URI hash, until the URI is cached. Guarded by itself. */
+    private final LinkedHashMap<String, String> contentLinks;
+    
+    private final long maxBytes;
+    private final int minAdmitFrequency;
+    private final FrequencySketch sketch;
+    
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong bytesDeduplicated = new AtomicLong();
+    private final AtomicLong corrupted = new AtomicLong();
+    
+    /** Requests before a track is also kept decoded in memory. */
+    private static final int HOT_MIN_FREQUENCY = 3;
+    /** Content links remembered for URIs that are not cached yet. */
+    private static final int MAX_CONTENT_LINKS = 4096;
     
     public FileSystemAudioCacheManager(String cacheDirectoryPath) throws IOException {
+        this(cacheDirectoryPath, 0, 1, false, 0);
+    }
+    
+    /**
+     * @param maxBytes          byte budget of the cached tracks, {@code 0} for unlimited
+     * @param minAdmitFrequency how often a track has to be requested before it is written to the cache
+     * @param fsync             sync finished track files to disk before indexing them
+     * @param memoryBytes       off-heap budget for decoded PCM of the most requested tracks, {@code 0} to disable
+     */
+    public FileSystemAudioCacheManager(String cacheDirectoryPath, long maxBytes, int minAdmitFrequency, boolean fsync,
+                                       long memoryBytes) throws IOException {
         this.cacheDirectory = Paths.get(cacheDirectoryPath);
-        this.indexFile = cacheDirectory.resolve("index.json");
+        this.legacyIndexFile = cacheDirectory.resolve("index.json");
+        this.indexLog = new CacheIndexLog(cacheDirectory.resolve("index.log"));
         this.trackIndex = new ConcurrentHashMap<>();
+        this.recency = new LinkedHashMap<>(16, 0.75f, true);
         this.pendingSaves = new ConcurrentHashMap<>();
-        this.gson = new GsonBuilder().setPrettyPrinting().create();
+        this.rejectedSaves = ConcurrentHashMap.newKeySet();
+        this.blobs = new HashMap<>();
+        this.contentIndex = new HashMap<>();
+        this.contentLinks = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > MAX_CONTENT_LINKS;
+            }
+        };
+        // About 3 minutes of raw PCM; a disk that falls further behind than that loses cache writes, not playback
+        this.writeBehind = new CacheWriteBehind(32L << 20, fsync);
+        this.maxBytes = Math.max(0, maxBytes);
+        this.minAdmitFrequency = Math.max(1, minAdmitFrequency);
+        // Roughly one counter per track that fits at 4 MB each, which is a short track as raw PCM
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, this.maxBytes > 0 ? this.maxBytes >> 22 : 1 << 14));
+        this.hotTier = new HotTrackTier(memoryBytes, sketch, HOT_MIN_FREQUENCY);
+        this.popularity = new TrackPopularity(cacheDirectory.resolve("popularity.dat"));
         
         if (!Files.exists(cacheDirectory)) {
             Files.createDirectories(cacheDirectory);
@@ -34,114 +128,204 @@ public class FileSystemAudioCacheManager implements AudioCacheManager {
         }
         
         loadIndex();
-        log.info("Track cache initialized with {} cached tracks", trackIndex.size());
+        // Counters saturate at 15, so more increments would not change anything
+        popularity.load(trackIndex::containsKey, (hash, plays) -> {
+            for (int i = Math.min(plays, 15); i > 0; i--) {
+                sketch.increment(hash);
+            }
+        });
+        if (this.maxBytes > 0 && usedBytes.get() > this.maxBytes) {
+            synchronized (indexLog) {
+                deleteFiles(evict(usedBytes.get() - this.maxBytes, null));
+            }
+        }
+        log.info("Track cache initialized with {} cached tracks ({} MB{})", trackIndex.size(), usedBytes.get() >> 20,
+                this.maxBytes > 0 ? " of " + (this.maxBytes >> 20) + " MB" : "");
+        this.scrubber = new CacheScrubber(this);
+        scrubber.start();
     }
     
     @Override
     public boolean hasTrack(String trackUri) {
         String hash = computeHash(trackUri);
-        String filename = trackIndex.get(hash);
-        if (filename == null) {
-            return false;
+        CacheIndexLog.Entry entry = trackIndex.get(hash);
+        if (entry == null) {
+            CacheWriteBehind.Write write = pendingSaves.get(trackUri);
+            return write != null && write.isFollowable();
         }
         
-        Path trackFile = cacheDirectory.resolve(filename);
+        Path trackFile = cacheDirectory.resolve(entry.filename());
         return Files.exists(trackFile) && Files.isReadable(trackFile);
     }
     
     @Override
     public InputStream loadTrack(String trackUri) throws IOException {
         String hash = computeHash(trackUri);
-        String filename = trackIndex.get(hash);
+        CacheIndexLog.Entry entry = trackIndex.get(hash);
+        
+        if (entry == null) {
+            CacheWriteBehind.Write write = pendingSaves.get(trackUri);
+            if (write == null) {
+                throw new IOException("Track not found in cache: " + trackUri);
+            }
+            // Still being written for another player: read along instead of fetching and decoding it again
+            InputStream following = write.follow();
+            hits.incrementAndGet();
+            sketch.increment(hash);
+            log.info("Following in-progress cache write of track: " + hash);
+            return new FollowerGuard(following, trackUri);
+        }
         
-        if (filename == null) {
-            throw new IOException("Track not found in cache: " + trackUri);
+        InputStream resident = hotTier.open(hash);
+        if (resident != null) {
+            hits.incrementAndGet();
+            sketch.increment(hash);
+            popularity.record(hash);
+            synchronized (indexLog) {
+                recency.get(hash);
+            }
+            return resident;
         }
         
+        String filename = entry.filename();
         Path trackFile = cacheDirectory.resolve(filename);
         if (!Files.exists(trackFile)) {
-            trackIndex.remove(hash);
-            saveIndex();
+            removeEntry(hash, new ArrayList<>());
             throw new IOException("Track file missing: " + filename);
         }
         
-        log.info("Loading cached track: " + filename + " (" + Files.size(trackFile) / 1024 / 1024 + " MB)");
-        return new BufferedInputStream(Files.newInputStream(trackFile));
+        lastDiskOpen = System.nanoTime();
+        InputStream in;
+        long length;
+        try {
+            if (filename.endsWith(COMPRESSED_EXTENSION)) {
+                CompressedPcmInputStream compressed = new CompressedPcmInputStream(trackFile);
+                in = compressed;
+                length = compressed.length();
+            } else {
+                // Raw files of older versions have no checksums, but a truncated one can still be told by its size
+                long size = Files.size(trackFile);
+                if (size != entry.size()) {
+                    throw new CorruptCacheException("Cached track " + filename + " has " + size + " bytes, expected " + entry.size());
+                }
+                in = new BufferedInputStream(Files.newInputStream(trackFile));
+                length = entry.size();
+            }
+        } catch (CorruptCacheException e) {
+            quarantine(filename, trackUri, e.getMessage());
+            throw e;
+        }
+        
+        hits.incrementAndGet();
+        sketch.increment(hash);
+        popularity.record(hash);
+        synchronized (indexLog) {
+            recency.get(hash);
+        }
+        log.info("Loading cached track: " + filename + " (" + entry.size() / 1024 / 1024 + " MB)");
+        return hotTier.capture(hash, new CorruptionGuard(in, filename, trackUri), length);
     }
     
     @Override
     public OutputStream startSavingTrack(String trackUri) throws IOException {
         String hash = computeHash(trackUri);
-        String tempFilename = hash + ".pcm.tmp";
+        misses.incrementAndGet();
+        sketch.increment(hash);
+        CacheWriteBehind.Write inProgress = pendingSaves.get(trackUri);
+        if (inProgress != null && inProgress.isFollowable()) {
+            // Another player is already writing it (and this one did not follow); one copy is enough
+            rejectedSaves.add(trackUri);
+            return OutputStream.nullOutputStream();
+        }
+        if (!shouldAdmit(hash)) {
+            rejected.incrementAndGet();
+            rejectedSaves.add(trackUri);
+            log.debug("Not caching track {} (not requested often enough)", hash);
+            return OutputStream.nullOutputStream();
+        }
+        
+        String tempFilename = hash + COMPRESSED_EXTENSION + ".tmp";
         Path tempFile = cacheDirectory.resolve(tempFilename);
         
-        pendingSaves.put(trackUri, tempFile);
+        CacheWriteBehind.Write write = writeBehind.open(tempFile);
+        pendingSaves.put(trackUri, write);
         
         log.debug("Starting to cache track: " + hash);
-        return new BufferedOutputStream(Files.newOutputStream(tempFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING));
+        return write;
     }
     
     @Override
     public void finalizeSave(String trackUri, boolean success) {
-        Path tempFile = pendingSaves.remove(trackUri);
+        CacheWriteBehind.Write write = pendingSaves.get(trackUri);
+        if (rejectedSaves.remove(trackUri)) {
+            return;
+        }
         
-        if (tempFile == null) {
+        if (write == null) {
             log.warn("No pending save found for track: " + trackUri);
             return;
         }
         
-        if (!success || !Files.exists(tempFile)) {
-            try {
-                if (Files.exists(tempFile)) {
-                    Files.delete(tempFile);
-                }
-                log.debug("Deleted incomplete cache file: " + tempFile.getFileName());
-            } catch (IOException e) {
-                log.error("Failed to delete incomplete cache file: " + e.getMessage());
-            }
+        // Stays in pendingSaves (and followable) until it is indexed or discarded
+        write.finish(success, () -> commit(trackUri, write), () -> pendingSaves.remove(trackUri, write));
+    }
+    
+    /**
+     * Binds {@code contentId} to the file of {@code trackUri} once it is cached. If another URI with the same
+     * content id is cached already, {@code trackUri} resolves to its file right away.
+     */
+    @Override
+    public void linkContent(String trackUri, String contentId) {
+        if (contentId == null || contentId.isBlank()) {
             return;
         }
-        
-        try {
-            String hash = computeHash(trackUri);
-            String finalFilename = hash + ".pcm";
-            Path finalFile = cacheDirectory.resolve(finalFilename);
-            
-            if (Files.exists(finalFile)) {
-                Files.delete(finalFile);
+        String hash = computeHash(trackUri);
+        synchronized (contentLinks) {
+            contentLinks.put(hash, contentId);
+        }
+        synchronized (indexLog) {
+            CacheIndexLog.Entry entry = trackIndex.get(hash);
+            if (entry != null) {
+                if (!contentIndex.containsKey(contentId)) {
+                    bindContent(contentId, entry.filename());
+                }
+                return;
             }
-            
-            Files.move(tempFile, finalFile, StandardCopyOption.REPLACE_EXISTING);
-            
-            trackIndex.put(hash, finalFilename);
-            saveIndex();
-            
-            long sizeKB = Files.size(finalFile) / 1024;
-            log.info("Successfully cached track: " + finalFilename + " (" + sizeKB + " KB)");
-            
-        } catch (IOException e) {
-            log.error("Failed to finalize track cache: " + e.getMessage());
-            try {
-                Files.deleteIfExists(tempFile);
-            } catch (IOException ex) {
-                // Ignore
+            String filename = contentIndex.get(contentId);
+            if (filename == null) {
+                return;
             }
+            long size = blobs.get(filename).size;
+            putEntry(hash, new CacheIndexLog.Entry(filename, size), new ArrayList<>());
+            bytesDeduplicated.addAndGet(size);
+            log.info("Track {} resolves to the cached copy of {}", hash, contentId);
         }
     }
     
+    @Override
+    public boolean takeCorrupted(String trackUri) {
+        return corruptedUris.remove(trackUri);
+    }
+    
     @Override
     public boolean deleteTrack(String trackUri) {
         String hash = computeHash(trackUri);
-        String filename = trackIndex.remove(hash);
+        List<String> orphaned = new ArrayList<>();
+        CacheIndexLog.Entry entry = removeEntry(hash, orphaned);
         
-        if (filename == null) {
+        if (entry == null) {
             return false;
         }
+        if (orphaned.isEmpty()) {
+            // The same audio is still cached for other URIs
+            log.info("Removed cached track: " + hash);
+            return true;
+        }
         
+        String filename = entry.filename();
         try {
             Path trackFile = cacheDirectory.resolve(filename);
             boolean deleted = Files.deleteIfExists(trackFile);
-            saveIndex();
             
             if (deleted) {
                 log.info("Deleted cached track: " + filename);
@@ -156,22 +340,63 @@ public class FileSystemAudioCacheManager implements AudioCacheManager {
     
     @Override
     public long getCacheSize() {
-        try {
-            return Files.walk(cacheDirectory)
-                    .filter(Files::isRegularFile)
-                    .filter(p -> p.toString().endsWith(".pcm"))
-                    .mapToLong(p -> {
-                        try {
-                            return Files.size(p);
-                        } catch (IOException e) {
-                            return 0;
-                        }
-                    })
-                    .sum();
-        } catch (IOException e) {
-            log.error("Failed to calculate cache size: " + e.getMessage());
-            return 0;
+        return usedBytes.get();
+    }
+    
+    @Override
+    public AudioCacheStats getStats() {
+        return new AudioCacheStats(hits.get(), misses.get(), rejected.get(), evictions.get(), bytesWritten.get(),
+                bytesDeduplicated.get(), writeBehind.getDropped(), corrupted.get(), usedBytes.get(), maxBytes,
+                hotTier.getHits(), hotTier.getEvictions(), hotTier.getResidentBytes());
+    }
+    
+    @Override
+    public void logStats() {
+        AudioCacheStats stats = getStats();
+        if (stats.hits() + stats.misses() == 0) {
+            return;
+        }
+        log.info("Audio cache: {} hits ({} from memory), {} misses ({}% hit ratio), {} not admitted, {} evicted, {} MB written, {} MB deduplicated, {} writes dropped, {} corrupt files dropped, {} MB used, {} MB in memory",
+                stats.hits(), stats.memoryHits(), stats.misses(), String.format("%.1f", stats.hitRatio() * 100),
+                stats.rejected(), stats.evictions(), stats.bytesWritten() >> 20, stats.bytesDeduplicated() >> 20, stats.dropped(), stats.corrupted(), stats.usedBytes() >> 20,
+                stats.memoryBytes() >> 20);
+    }
+    
+    /**
+     * Starts a {@link CacheWarmer} over the most played tracks.
+     */
+    @Override
+    public void warmUp(int tracks, long bytesPerSecond) {
+        if (tracks <= 0) {
+            return;
+        }
+        List<String> top = popularity.top(tracks);
+        if (top.isEmpty()) {
+            return;
         }
+        CacheWarmer started = new CacheWarmer(this, top, bytesPerSecond);
+        warmer = started;
+        started.start();
+    }
+    
+    @Override
+    public void checkpoint() {
+        popularity.save();
+    }
+    
+    /**
+     * Waits for queued cache writes, saves the play statistics and closes the index.
+     */
+    @Override
+    public void close() throws IOException {
+        CacheWarmer running = warmer;
+        if (running != null) {
+            running.stop();
+        }
+        scrubber.stop();
+        writeBehind.close();
+        popularity.save();
+        indexLog.close();
     }
     
     @Override
@@ -179,7 +404,9 @@ public class FileSystemAudioCacheManager implements AudioCacheManager {
         try {
             Files.walk(cacheDirectory)
                     .filter(Files::isRegularFile)
-                    .filter(p -> p.toString().endsWith(".pcm") || p.toString().endsWith(".pcm.tmp"))
+                    .filter(p -> p.toString().endsWith(".pcm") || p.toString().endsWith(".pcm.tmp")
+                            || p.toString().endsWith(COMPRESSED_EXTENSION) || p.toString().endsWith(COMPRESSED_EXTENSION + ".tmp")
+                            || p.toString().endsWith(COMPRESSED_EXTENSION + ".fetch"))
                     .forEach(p -> {
                         try {
                             Files.delete(p);
@@ -188,8 +415,19 @@ public class FileSystemAudioCacheManager implements AudioCacheManager {
                         }
                     });
             
-            trackIndex.clear();
-            saveIndex();
+            synchronized (indexLog) {
+                trackIndex.clear();
+                recency.clear();
+                blobs.clear();
+                contentIndex.clear();
+                hotTier.clear();
+                popularity.clear();
+                usedBytes.set(0);
+                indexLog.compact(Map.of(), Map.of());
+            }
+            synchronized (contentLinks) {
+                contentLinks.clear();
+            }
             log.info("Cache cleared");
             
         } catch (IOException e) {
@@ -217,26 +455,559 @@ public class FileSystemAudioCacheManager implements AudioCacheManager {
         }
     }
     
-    private void loadIndex() {
-        if (!Files.exists(indexFile)) {
+    private void loadIndex() throws IOException {
+        List<String> orphaned = new ArrayList<>();
+        indexLog.open(new CacheIndexLog.ReplayVisitor() {
+            @Override
+            public void put(String hash, String filename, long size) {
+                index(hash, new CacheIndexLog.Entry(filename, size), orphaned);
+            }
+            
+            @Override
+            public void delete(String hash) {
+                unindex(hash, orphaned);
+            }
+            
+            @Override
+            public void content(String contentId, String filename) {
+                Blob blob = blobs.get(filename);
+                if (blob != null) {
+                    contentIndex.put(contentId, filename);
+                    blob.contentIds.add(contentId);
+                }
+            }
+        });
+        // Left behind if the server stopped between the index update and the delete
+        orphaned.removeIf(blobs::containsKey);
+        deleteFiles(orphaned);
+        
+        if (trackIndex.isEmpty() && Files.exists(legacyIndexFile)) {
+            migrateLegacyIndex();
+        }
+    }
+    
+    /**
+     * Imports the index.json written by older versions into the log, then moves it out of the way.
+     */
+    private void migrateLegacyIndex() throws IOException {
+        Map<String, String> loaded;
+        try (Reader reader = Files.newBufferedReader(legacyIndexFile)) {
+            loaded = new Gson().fromJson(reader, new TypeToken<Map<String, String>>(){}.getType());
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to load legacy cache index: " + e.getMessage());
             return;
         }
         
-        try (Reader reader = Files.newBufferedReader(indexFile)) {
-            Map<String, String> loaded = gson.fromJson(reader, new TypeToken<Map<String, String>>(){}.getType());
-            if (loaded != null) {
-                trackIndex.putAll(loaded);
+        if (loaded != null) {
+            for (Map.Entry<String, String> legacy : loaded.entrySet()) {
+                Path trackFile = cacheDirectory.resolve(legacy.getValue());
+                if (Files.exists(trackFile)) {
+                    index(legacy.getKey(), new CacheIndexLog.Entry(legacy.getValue(), Files.size(trackFile)), new ArrayList<>());
+                }
+            }
+        }
+        synchronized (indexLog) {
+            indexLog.compact(trackIndex, contentIndex);
+        }
+        Files.move(legacyIndexFile, legacyIndexFile.resolveSibling("index.json.migrated"), StandardCopyOption.REPLACE_EXISTING);
+        log.info("Migrated {} entries from legacy cache index", trackIndex.size());
+    }
+    
+    /**
+     * Adds a compressed track fetched from another cache tier. It is copied to a temp file and decoded once, which
+     * verifies it and yields its content key, then stored like a finished cache write (without the admission
+     * filter, since it costs no decoding).
+     *
+     * @param hash the track's {@link #computeHash}
+     * @return the size of the stored file, or -1 if the track was not stored
+     */
+    public long importTrack(String hash, InputStream compressed) throws IOException {
+        // Unique per thread: the shared store and a peer may deliver the same track at once
+        Path tempFile = cacheDirectory.resolve(hash + "-" + Thread.currentThread().getId() + COMPRESSED_EXTENSION + ".fetch");
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try {
+            Files.copy(compressed, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            try (CompressedPcmInputStream in = new CompressedPcmInputStream(tempFile)) {
+                byte[] buffer = new byte[PcmBlockCodec.BLOCK_BYTES];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, n);
+                }
             }
         } catch (IOException e) {
-            log.error("Failed to load cache index: " + e.getMessage());
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        long size = Files.size(tempFile);
+        // Same key as CacheWriteBehind.Write#getContentKey
+        return store(hash, tempFile, HexFormat.of().formatHex(digest.digest(), 0, 8)) != null ? size : -1;
+    }
+    
+    /**
+     * @return whether the track with this {@link #computeHash} is cached
+     */
+    public boolean isCached(String hash) {
+        return trackIndex.containsKey(hash);
+    }
+    
+    /**
+     * Looks up the compressed file of a track for another server. Counts as a request of the track, so tracks
+     * other servers ask for stay cached.
+     *
+     * @return the file, or null if the track is not cached (or only as a raw .pcm of an older version)
+     */
+    public Path getCompressedFile(String hash) {
+        CacheIndexLog.Entry entry = trackIndex.get(hash);
+        if (entry == null || !entry.filename().endsWith(COMPRESSED_EXTENSION)) {
+            return null;
+        }
+        sketch.increment(hash);
+        synchronized (indexLog) {
+            recency.get(hash);
+        }
+        return cacheDirectory.resolve(entry.filename());
+    }
+    
+    /**
+     * Opens a track for the {@link CacheWarmer}: decoded into the memory tier if it is requested often enough to be
+     * kept there, otherwise the file as is, which only brings it into the OS page cache. Not counted as a request.
+     *
+     * @return null if the track is no longer cached or already in memory
+     */
+    InputStream openForWarmUp(String hash) throws IOException {
+        CacheIndexLog.Entry entry = trackIndex.get(hash);
+        if (entry == null || hotTier.contains(hash)) {
+            return null;
+        }
+        Path trackFile = cacheDirectory.resolve(entry.filename());
+        InputStream decoded;
+        long length;
+        if (entry.filename().endsWith(COMPRESSED_EXTENSION)) {
+            CompressedPcmInputStream in = new CompressedPcmInputStream(trackFile);
+            decoded = in;
+            length = in.length();
+        } else {
+            decoded = new BufferedInputStream(Files.newInputStream(trackFile));
+            length = entry.size();
+        }
+        InputStream captured = hotTier.capture(hash, decoded, length);
+        if (captured != decoded) {
+            return captured;
+        }
+        decoded.close();
+        return Files.newInputStream(trackFile);
+    }
+    
+    /** @return bytes of cache writes waiting for the disk */
+    long getQueuedWriteBytes() {
+        return writeBehind.getQueuedBytes();
+    }
+    
+    /**
+     * @return whether cache writes are queued or a track was opened from disk during the last second, so
+     * background work should wait
+     */
+    boolean isBusy() {
+        return writeBehind.getQueuedBytes() > 0 || System.nanoTime() - lastDiskOpen < 1_000_000_000L;
+    }
+    
+    /** @return the compressed files currently stored, for the {@link CacheScrubber} */
+    List<String> storedFiles() {
+        synchronized (indexLog) {
+            List<String> files = new ArrayList<>(blobs.size());
+            for (String filename : blobs.keySet()) {
+                if (filename.endsWith(COMPRESSED_EXTENSION)) {
+                    files.add(filename);
+                }
+            }
+            return files;
         }
     }
     
-    private void saveIndex() {
-        try (Writer writer = Files.newBufferedWriter(indexFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-            gson.toJson(trackIndex, writer);
+    boolean isStored(String filename) {
+        synchronized (indexLog) {
+            return blobs.containsKey(filename);
+        }
+    }
+    
+    Path fileOf(String filename) {
+        return cacheDirectory.resolve(filename);
+    }
+    
+    /**
+     * Drops every URI stored in a corrupt file and deletes the file.
+     *
+     * @param trackUri the URI that was being played from it, remembered for {@link #takeCorrupted}; null if none
+     */
+    void quarantine(String filename, String trackUri, String reason) {
+        if (trackUri != null) {
+            corruptedUris.add(trackUri);
+        }
+        List<String> orphaned = new ArrayList<>();
+        synchronized (indexLog) {
+            Blob blob = blobs.get(filename);
+            if (blob == null) {
+                // Another reader found it first
+                return;
+            }
+            for (String hash : new ArrayList<>(blob.hashes)) {
+                removeEntry(hash, orphaned);
+            }
+        }
+        corrupted.incrementAndGet();
+        log.warn("Dropped corrupt cached track {}: {}", filename, reason);
+        deleteFiles(orphaned);
+    }
+    
+    /**
+     * @param listener called on the cache writer thread with the URI hash and file of every track committed by a
+     *                 cache write (not by {@link #importTrack})
+     */
+    public void setCommitListener(BiConsumer<String, Path> listener) {
+        this.commitListener = listener;
+    }
+    
+    /**
+     * Stores a finished cache write. Runs on the cache writer thread.
+     */
+    private void commit(String trackUri, CacheWriteBehind.Write write) {
+        String hash = computeHash(trackUri);
+        String filename = store(hash, write.getTempFile(), write.getContentKey());
+        if (filename != null) {
+            // The play that wrote it
+            popularity.record(hash);
+        }
+        BiConsumer<String, Path> listener = commitListener;
+        if (filename != null && listener != null) {
+            listener.accept(hash, cacheDirectory.resolve(filename));
+        }
+    }
+    
+    /**
+     * Moves a completely written temp file into place and indexes it, or points the URI at the file that already
+     * holds the same audio.
+     *
+     * @return the file the track is stored in, or null if it was not stored
+     */
+    private String store(String hash, Path tempFile, String contentKey) {
+        List<String> orphaned = new ArrayList<>();
+        try {
+            String finalFilename = contentKey + COMPRESSED_EXTENSION;
+            Path finalFile = cacheDirectory.resolve(finalFilename);
+            
+            long size = Files.size(tempFile);
+            synchronized (indexLog) {
+                Blob existing = blobs.get(finalFilename);
+                if (existing != null) {
+                    Files.deleteIfExists(tempFile);
+                    putEntry(hash, new CacheIndexLog.Entry(finalFilename, existing.size), orphaned);
+                    bindLinkedContent(hash, finalFilename);
+                    bytesDeduplicated.addAndGet(size);
+                    log.info("Track {} decoded to audio that is already cached, sharing {}", hash, finalFilename);
+                    return finalFilename;
+                }
+                
+                CacheIndexLog.Entry previous = trackIndex.get(hash);
+                long replaced = previous != null && blobs.get(previous.filename()).hashes.size() == 1 ? previous.size() : 0;
+                long needed = usedBytes.get() + size - replaced - maxBytes;
+                List<String> evicted = maxBytes > 0 && needed > 0 ? evict(needed, hash) : List.of();
+                if (evicted == null) {
+                    rejected.incrementAndGet();
+                    Files.deleteIfExists(tempFile);
+                    log.debug("Not caching track {} (less popular than the tracks it would evict)", hash);
+                    return null;
+                }
+                orphaned.addAll(evicted);
+                
+                Files.move(tempFile, finalFile, StandardCopyOption.REPLACE_EXISTING);
+                putEntry(hash, new CacheIndexLog.Entry(finalFilename, size), orphaned);
+                bindLinkedContent(hash, finalFilename);
+            }
+            bytesWritten.addAndGet(size);
+            
+            long sizeKB = size / 1024;
+            log.info("Successfully cached track: " + finalFilename + " (" + sizeKB + " KB)");
+            return finalFilename;
+            
+        } catch (IOException e) {
+            log.error("Failed to finalize track cache: " + e.getMessage());
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException ex) {
+                // Ignore
+            }
+            return null;
+        } finally {
+            // Evicted and replaced files are out of the index even if the move failed
+            deleteFiles(orphaned);
+        }
+    }
+    
+    /** Binds the content id a player linked to {@code hash}, if any, to its file. Must hold indexLog. */
+    private void bindLinkedContent(String hash, String filename) {
+        String contentId;
+        synchronized (contentLinks) {
+            contentId = contentLinks.get(hash);
+        }
+        if (contentId != null && !contentIndex.containsKey(contentId)) {
+            bindContent(contentId, filename);
+        }
+    }
+    
+    /** Must hold indexLog. */
+    private void bindContent(String contentId, String filename) {
+        contentIndex.put(contentId, filename);
+        blobs.get(filename).contentIds.add(contentId);
+        indexLog.appendContent(contentId, filename);
+        compactIfNeeded();
+    }
+    
+    /**
+     * @return whether a track that was just requested should be written to the cache
+     */
+    private boolean shouldAdmit(String hash) {
+        int frequency = sketch.frequency(hash);
+        if (frequency < minAdmitFrequency) {
+            return false;
+        }
+        if (maxBytes == 0 || trackIndex.isEmpty()) {
+            return true;
+        }
+        // Full cache: don't bother decoding into a file that the eviction check would throw away
+        synchronized (indexLog) {
+            long averageSize = usedBytes.get() / Math.max(1, blobs.size());
+            if (usedBytes.get() + averageSize <= maxBytes) {
+                return true;
+            }
+            Iterator<String> lru = recency.keySet().iterator();
+            return !lru.hasNext() || sketch.frequency(lru.next()) < frequency;
+        }
+    }
+    
+    /**
+     * Removes the files of least recently used tracks, with every URI resolving to them, from the index until
+     * {@code bytes} are freed. Must hold indexLog.
+     *
+     * @param candidate the track the room is made for; eviction is refused unless it was requested more often
+     *                  than every victim. {@code null} to evict unconditionally
+     * @return the evicted files, which still have to be deleted, or null if eviction was refused
+     */
+    private List<String> evict(long bytes, String candidate) {
+        int candidateFrequency = candidate == null ? Integer.MAX_VALUE : sketch.frequency(candidate);
+        Set<String> victims = new LinkedHashSet<>();
+        long freed = 0;
+        for (CacheIndexLog.Entry entry : recency.values()) {
+            if (freed >= bytes) {
+                break;
+            }
+            Blob blob = blobs.get(entry.filename());
+            if (victims.contains(entry.filename()) || blob.hashes.contains(candidate)) {
+                continue;
+            }
+            for (String alias : blob.hashes) {
+                if (sketch.frequency(alias) >= candidateFrequency) {
+                    return null;
+                }
+            }
+            victims.add(entry.filename());
+            freed += blob.size;
+        }
+        if (freed < bytes && candidate != null) {
+            return null;
+        }
+        
+        List<String> orphaned = new ArrayList<>();
+        for (String victim : victims) {
+            for (String alias : List.copyOf(blobs.get(victim).hashes)) {
+                removeEntry(alias, orphaned);
+            }
+        }
+        evictions.addAndGet(victims.size());
+        return orphaned;
+    }
+    
+    private void deleteFiles(List<String> filenames) {
+        for (String filename : filenames) {
+            try {
+                Files.deleteIfExists(cacheDirectory.resolve(filename));
+                log.debug("Deleted unreferenced cache file: " + filename);
+            } catch (IOException e) {
+                log.error("Failed to delete cache file: " + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Must hold indexLog (or be single-threaded, as during startup).
+     *
+     * @param orphaned receives the file the URI resolved to before, if nothing else references it anymore
+     */
+    private void index(String hash, CacheIndexLog.Entry entry, List<String> orphaned) {
+        CacheIndexLog.Entry previous = trackIndex.put(hash, entry);
+        recency.put(hash, entry);
+        if (previous != null && !previous.filename().equals(entry.filename())) {
+            release(hash, previous.filename(), orphaned);
+        }
+        Blob blob = blobs.get(entry.filename());
+        if (blob == null) {
+            blob = new Blob(entry.size());
+            blobs.put(entry.filename(), blob);
+            usedBytes.addAndGet(entry.size());
+        }
+        blob.hashes.add(hash);
+    }
+    
+    /**
+     * Must hold indexLog (or be single-threaded, as during startup).
+     *
+     * @param orphaned receives the file of the removed entry if nothing else references it anymore
+     */
+    private CacheIndexLog.Entry unindex(String hash, List<String> orphaned) {
+        CacheIndexLog.Entry removed = trackIndex.remove(hash);
+        if (removed != null) {
+            recency.remove(hash);
+            hotTier.remove(hash);
+            popularity.remove(hash);
+            release(hash, removed.filename(), orphaned);
+        }
+        return removed;
+    }
+    
+    private void release(String hash, String filename, List<String> orphaned) {
+        Blob blob = blobs.get(filename);
+        if (blob == null || !blob.hashes.remove(hash) || !blob.hashes.isEmpty()) {
+            return;
+        }
+        blobs.remove(filename);
+        usedBytes.addAndGet(-blob.size);
+        for (String contentId : blob.contentIds) {
+            contentIndex.remove(contentId, filename);
+        }
+        orphaned.add(filename);
+    }
+    
+    private void putEntry(String hash, CacheIndexLog.Entry entry, List<String> orphaned) {
+        synchronized (indexLog) {
+            index(hash, entry, orphaned);
+            indexLog.appendPut(hash, entry.filename(), entry.size());
+            compactIfNeeded();
+        }
+    }
+    
+    private CacheIndexLog.Entry removeEntry(String hash, List<String> orphaned) {
+        synchronized (indexLog) {
+            CacheIndexLog.Entry removed = unindex(hash, orphaned);
+            if (removed != null) {
+                indexLog.appendDelete(hash);
+                compactIfNeeded();
+            }
+            return removed;
+        }
+    }
+    
+    private void compactIfNeeded() {
+        if (!indexLog.needsCompaction(trackIndex.size() + contentIndex.size())) {
+            return;
+        }
+        try {
+            indexLog.compact(trackIndex, contentIndex);
         } catch (IOException e) {
-            log.error("Failed to save cache index: " + e.getMessage());
+            log.error("Failed to compact cache index: " + e.getMessage());
+        }
+    }
+    
+    /** Drops the file it reads when a block turns out to be corrupt. */
+    private final class CorruptionGuard extends FilterInputStream {
+        private final String filename;
+        private final String trackUri;
+        
+        CorruptionGuard(InputStream in, String filename, String trackUri) {
+            super(in);
+            this.filename = filename;
+            this.trackUri = trackUri;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (CorruptCacheException e) {
+                quarantine(filename, trackUri, e.getMessage());
+                throw e;
+            }
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (CorruptCacheException e) {
+                quarantine(filename, trackUri, e.getMessage());
+                throw e;
+            }
+        }
+    }
+    
+    /**
+     * Hands the track to the corrupt cache recovery when the write it follows is abandoned (the writing player
+     * skipped, or the writer fell behind), so the player decodes it from the source where it was instead of
+     * failing.
+     */
+    private final class FollowerGuard extends FilterInputStream {
+        private final String trackUri;
+        private boolean closed;
+
+        FollowerGuard(InputStream in, String trackUri) {
+            super(in);
+            this.trackUri = trackUri;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                throw abandoned(e);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                throw abandoned(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+
+        private IOException abandoned(IOException e) {
+            if (!closed && !(e instanceof InterruptedIOException)) {
+                log.warn("Lost the cache write of {} while following it: {}", trackUri, e.getMessage());
+                corruptedUris.add(trackUri);
+            }
+            return e;
+        }
+    }
+
+    /** A stored file and the URI hashes and content ids that resolve to it. */
+    private static final class Blob {
+        final long size;
+        final Set<String> hashes = new HashSet<>(2);
+        final List<String> contentIds = new ArrayList<>(1);
+        
+        Blob(long size) {
+            this.size = size;
         }
     }
 }
@@ -0,0 +1,82 @@
+package io.lolyay.discordmsend.server.cache;
+
+/**
+ * Count-min sketch of 4-bit counters used as the TinyLFU admission filter of the audio cache.
+ * <p>
+ * Four hash functions pick four counters per key; its estimated frequency is the smallest of them.
+ * Increments only raise the counters that hold that minimum (conservative update), and once
+ * {@code 10 * expectedItems} increments have been recorded every counter is halved, so the estimates follow
+ * recent popularity instead of all-time popularity. 16 counters share a long, so tracking 16k keys costs 16 KB.
+ */
+final class FrequencySketch {
+    private static final int MAX_COUNT = 15;
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int[] SEEDS = {0x97CB3127, 0xB492B66F, 0x9AE16A3B, 0xCD9A19C5};
+
+    private final long[] table;
+    private final int counterMask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int expectedItems) {
+        int counters = Integer.highestOneBit(Math.max(expectedItems, 1024) - 1) << 2;
+        this.table = new long[counters >>> 4];
+        this.counterMask = counters - 1;
+        this.sampleSize = 10 * Math.max(expectedItems, 1024);
+    }
+
+    synchronized int frequency(String key) {
+        int hash = spread(key.hashCode());
+        int min = MAX_COUNT;
+        for (int row = 0; row < SEEDS.length; row++) {
+            min = Math.min(min, count(index(hash, row)));
+        }
+        return min;
+    }
+
+    /**
+     * Records one access of {@code key}.
+     */
+    synchronized void increment(String key) {
+        int hash = spread(key.hashCode());
+        int[] indexes = new int[SEEDS.length];
+        int min = MAX_COUNT;
+        for (int row = 0; row < SEEDS.length; row++) {
+            indexes[row] = index(hash, row);
+            min = Math.min(min, count(indexes[row]));
+        }
+        if (min == MAX_COUNT) {
+            return;
+        }
+        for (int index : indexes) {
+            if (count(index) == min) {
+                table[index >>> 4] += 1L << ((index & 15) << 2);
+            }
+        }
+        if (++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions >>>= 1;
+    }
+
+    private int count(int index) {
+        return (int) (table[index >>> 4] >>> ((index & 15) << 2)) & 0xF;
+    }
+
+    private int index(int hash, int row) {
+        int h = (hash + SEEDS[row]) * SEEDS[row];
+        return (h ^ (h >>> 16)) & counterMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
@@ -0,0 +1,347 @@
+package io.lolyay.discordmsend.server.cache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decoded PCM of the most requested tracks, held off-heap so a new player gets its bytes without touching the
+ * disk or the block decoder.
+ * <p>
+ * Memory is handed out in 1 MB direct buffers that are allocated on first use, up to {@code maxBytes}, and reused
+ * after an eviction instead of being left to the garbage collector. A track enters the tier while it is read from
+ * disk anyway: the stream returned by {@link #capture} copies what the player reads and publishes the track once
+ * it was read to the end. Room is made by evicting the tracks with the lowest estimated request frequency, and only
+ * if they are all less popular than the new one. Chunks of an evicted track go back to the pool once its last
+ * reader is closed.
+ */
+@Slf4j
+final class HotTrackTier {
+    static final int CHUNK_BYTES = 1 << 20;
+
+    private final FrequencySketch sketch;
+    private final int minFrequency;
+    private final int maxChunks;
+
+    // Guarded by this
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final ArrayDeque<ByteBuffer> freeChunks = new ArrayDeque<>();
+    private int allocatedChunks;
+    private int residentChunks;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param minFrequency how often a track has to be requested before it is kept in memory
+     */
+    HotTrackTier(long maxBytes, FrequencySketch sketch, int minFrequency) {
+        this.sketch = sketch;
+        this.minFrequency = minFrequency;
+        this.maxChunks = (int) Math.min(Integer.MAX_VALUE, Math.max(0, maxBytes) / CHUNK_BYTES);
+    }
+
+    /**
+     * @return a stream over the track's PCM if it is resident, otherwise null
+     */
+    InputStream open(String hash) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(hash);
+            if (entry == null) {
+                return null;
+            }
+            entry.refs.incrementAndGet();
+        }
+        hits.incrementAndGet();
+        return new TierInputStream(entry);
+    }
+
+    /**
+     * Wraps a stream that reads the track from disk. If the track is popular enough, the returned stream keeps a
+     * copy of everything read and adds the track to the tier when the end is reached.
+     *
+     * @param length decoded length of the track in bytes
+     */
+    InputStream capture(String hash, InputStream source, long length) {
+        if (maxChunks == 0 || length <= 0 || sketch.frequency(hash) < minFrequency) {
+            return source;
+        }
+        ByteBuffer[] chunks = reserve(hash, length);
+        if (chunks == null) {
+            return source;
+        }
+        return new CapturingInputStream(source, new Entry(hash, chunks, length));
+    }
+
+    synchronized boolean contains(String hash) {
+        return entries.containsKey(hash);
+    }
+
+    synchronized void remove(String hash) {
+        Entry entry = entries.remove(hash);
+        if (entry != null) {
+            entry.release();
+        }
+    }
+
+    synchronized void clear() {
+        List<Entry> resident = new ArrayList<>(entries.values());
+        entries.clear();
+        for (Entry entry : resident) {
+            entry.release();
+        }
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getEvictions() {
+        return evictions.get();
+    }
+
+    /** @return bytes held by resident tracks and tracks being captured */
+    synchronized long getResidentBytes() {
+        return (long) residentChunks * CHUNK_BYTES;
+    }
+
+    private synchronized ByteBuffer[] reserve(String hash, long length) {
+        if (entries.containsKey(hash)) {
+            return null;
+        }
+        long needed = (length + CHUNK_BYTES - 1) / CHUNK_BYTES;
+        if (needed > maxChunks) {
+            return null;
+        }
+        if (available() < needed) {
+            int frequency = sketch.frequency(hash);
+            List<Entry> candidates = new ArrayList<>(entries.values());
+            candidates.sort(Comparator.comparingInt(e -> sketch.frequency(e.hash)));
+            List<Entry> victims = new ArrayList<>();
+            long freed = available();
+            for (Entry candidate : candidates) {
+                if (freed >= needed) {
+                    break;
+                }
+                if (sketch.frequency(candidate.hash) >= frequency) {
+                    return null;
+                }
+                victims.add(candidate);
+                // Chunks of a track that is still being played only come back when its reader closes
+                if (candidate.refs.get() == 1) {
+                    freed += candidate.chunks.length;
+                }
+            }
+            if (freed < needed) {
+                return null;
+            }
+            for (Entry victim : victims) {
+                entries.remove(victim.hash);
+                victim.release();
+                evictions.incrementAndGet();
+            }
+        }
+
+        ByteBuffer[] chunks = new ByteBuffer[(int) needed];
+        for (int i = 0; i < chunks.length; i++) {
+            ByteBuffer chunk = freeChunks.poll();
+            if (chunk == null) {
+                chunk = ByteBuffer.allocateDirect(CHUNK_BYTES);
+                allocatedChunks++;
+            }
+            chunks[i] = chunk;
+        }
+        residentChunks += chunks.length;
+        return chunks;
+    }
+
+    private int available() {
+        return freeChunks.size() + maxChunks - allocatedChunks;
+    }
+
+    private synchronized boolean publish(Entry entry) {
+        if (entries.containsKey(entry.hash)) {
+            return false;
+        }
+        entries.put(entry.hash, entry);
+        log.debug("Holding track {} in memory ({} MB)", entry.hash, entry.length >> 20);
+        return true;
+    }
+
+    private synchronized void free(ByteBuffer[] chunks) {
+        for (ByteBuffer chunk : chunks) {
+            freeChunks.push(chunk);
+        }
+        residentChunks -= chunks.length;
+    }
+
+    private final class Entry {
+        final String hash;
+        final ByteBuffer[] chunks;
+        final long length;
+        /** One reference for being resident (or being captured) plus one per open reader. */
+        final AtomicInteger refs = new AtomicInteger(1);
+
+        Entry(String hash, ByteBuffer[] chunks, long length) {
+            this.hash = hash;
+            this.chunks = chunks;
+            this.length = length;
+        }
+
+        void release() {
+            if (refs.decrementAndGet() == 0) {
+                free(chunks);
+            }
+        }
+
+        int read(long position, byte[] b, int off, int len) {
+            int chunk = (int) (position / CHUNK_BYTES);
+            int inChunk = (int) (position % CHUNK_BYTES);
+            int n = (int) Math.min(len, Math.min(CHUNK_BYTES - inChunk, length - position));
+            chunks[chunk].get(inChunk, b, off, n);
+            return n;
+        }
+
+        void write(long position, byte[] b, int off, int len) {
+            while (len > 0) {
+                int chunk = (int) (position / CHUNK_BYTES);
+                int inChunk = (int) (position % CHUNK_BYTES);
+                int n = Math.min(len, CHUNK_BYTES - inChunk);
+                chunks[chunk].put(inChunk, b, off, n);
+                position += n;
+                off += n;
+                len -= n;
+            }
+        }
+    }
+
+    private static final class TierInputStream extends InputStream {
+        private final Entry entry;
+        private long position;
+        private boolean closed;
+
+        TierInputStream(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public int read() {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (closed || position >= entry.length) {
+                return -1;
+            }
+            int n = entry.read(position, b, off, len);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            long target = Math.max(position, Math.min(entry.length, position + n));
+            long skipped = target - position;
+            position = target;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, closed ? 0 : entry.length - position);
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                entry.release();
+            }
+        }
+    }
+
+    /**
+     * Copies what is read from the disk stream into the reserved chunks. Skipping abandons the capture, since the
+     * skipped bytes would be missing.
+     */
+    private final class CapturingInputStream extends InputStream {
+        private final InputStream source;
+        private Entry pending;
+        private long position;
+
+        CapturingInputStream(InputStream source, Entry pending) {
+            this.source = source;
+            this.pending = pending;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = source.read(b, off, len);
+            if (pending != null) {
+                if (n > 0 && position + n <= pending.length) {
+                    pending.write(position, b, off, n);
+                    position += n;
+                } else if (n > 0) {
+                    abandon();
+                } else if (n < 0) {
+                    complete();
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            abandon();
+            return source.skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return source.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            abandon();
+            source.close();
+        }
+
+        private void complete() {
+            Entry entry = pending;
+            pending = null;
+            if (position != entry.length || !publish(entry)) {
+                entry.release();
+            }
+        }
+
+        private void abandon() {
+            if (pending != null) {
+                pending.release();
+                pending = null;
+            }
+        }
+    }
+}
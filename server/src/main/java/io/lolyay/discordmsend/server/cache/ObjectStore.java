@@ -0,0 +1,27 @@
+package io.lolyay.discordmsend.server.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Flat key/value blob storage shared by several servers, used as the remote tier of the track cache
+ * (see {@link TieredAudioCacheManager}).
+ */
+public interface ObjectStore extends Closeable {
+
+    /**
+     * @return the content of the object, or null if there is no object with this key
+     */
+    InputStream get(String key) throws IOException;
+
+    /**
+     * Stores the file under {@code key}, replacing an existing object.
+     */
+    void put(String key, Path file) throws IOException;
+
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,71 @@
+package io.lolyay.discordmsend.server.cache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Several {@link ObjectStore}s used as one: reads try them in order (e.g. nearby servers before a bucket),
+ * writes go to all of them.
+ */
+@Slf4j
+public class ObjectStoreChain implements ObjectStore {
+    private final List<ObjectStore> stores;
+
+    public ObjectStoreChain(ObjectStore... stores) {
+        this.stores = List.of(stores);
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        IOException failure = null;
+        for (ObjectStore store : stores) {
+            try {
+                InputStream in = store.get(key);
+                if (in != null) {
+                    return in;
+                }
+            } catch (IOException e) {
+                log.debug("{} failed to get {}, trying the next store: {}", store.getClass().getSimpleName(), key, e.getMessage());
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return null;
+    }
+
+    @Override
+    public void put(String key, Path file) throws IOException {
+        IOException failure = null;
+        for (ObjectStore store : stores) {
+            try {
+                store.put(key, file);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (ObjectStore store : stores) {
+            try {
+                store.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package io.lolyay.discordmsend.server.cache;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Lossless coder for one block of 16-bit stereo PCM, in the style of FLAC's fixed subframes: each channel is
+ * predicted by the best polynomial predictor of order 0 to 4 and the residuals are Rice coded.
+ * <p>
+ * Block layout (bit-packed, MSB first):
+ * <pre>
+ * [8  mode]   bits 0-1: 0 verbatim, 1 little-endian samples, 2 big-endian samples; bit 2: left/side stereo
+ * per channel (left, then right or side):
+ *   [3 order][5 rice parameter][order x 17 warm-up samples][rice coded residuals]
+ * </pre>
+ * A verbatim block is the mode byte followed by the raw bytes. The writer does not know the byte order of the
+ * PCM it is given, so both are tried until one block compresses and that order is kept for the stream. Blocks
+ * that do not shrink (noise, a tail that is not a whole number of stereo samples) are stored verbatim, which
+ * keeps the format lossless for any input. Not thread-safe; one instance per stream.
+ */
+final class PcmBlockCodec {
+    static final int FRAMES_PER_BLOCK = 4096;
+    static final int BLOCK_BYTES = FRAMES_PER_BLOCK * 4;
+
+    private static final int VERBATIM = 0;
+    private static final int LITTLE_ENDIAN = 1;
+    private static final int BIG_ENDIAN = 2;
+    private static final int LEFT_SIDE = 4;
+    private static final int MAX_ORDER = 4;
+    private static final int WARMUP_BITS = 17;
+
+    private final int[] left = new int[FRAMES_PER_BLOCK];
+    private final int[] right = new int[FRAMES_PER_BLOCK];
+    private final int[] side = new int[FRAMES_PER_BLOCK];
+    private final int[] residual = new int[FRAMES_PER_BLOCK];
+    private final BitWriter writer = new BitWriter(BLOCK_BYTES + 64);
+
+    /** Predictor order and rice parameter picked by the last {@link #analyze} call. */
+    private int bestOrder;
+    private int bestRice;
+    /** Byte order of the first block that compressed; a stream does not change it, so later blocks skip the other. */
+    private int byteOrder;
+
+    /**
+     * @return the encoded block; valid until the next call
+     */
+    BitWriter encode(byte[] raw, int length) {
+        writer.reset();
+        if (length == 0 || length % 4 != 0) {
+            return verbatim(raw, length);
+        }
+        int frames = length / 4;
+
+        long bestBits = (long) length * 8;
+        int bestMode = VERBATIM;
+        int leftOrder = 0, leftRice = 0, secondOrder = 0, secondRice = 0;
+        for (int order = LITTLE_ENDIAN; order <= BIG_ENDIAN; order++) {
+            if (byteOrder != 0 && order != byteOrder) {
+                continue;
+            }
+            split(raw, frames, order == BIG_ENDIAN);
+            long leftBits = analyze(left, frames);
+            int lo = bestOrder, lr = bestRice;
+            long rightBits = analyze(right, frames);
+            int ro = bestOrder, rr = bestRice;
+            long sideBits = analyze(side, frames);
+            long bits = leftBits + Math.min(rightBits, sideBits);
+            if (bits < bestBits) {
+                bestBits = bits;
+                bestMode = order | (sideBits < rightBits ? LEFT_SIDE : 0);
+                leftOrder = lo;
+                leftRice = lr;
+                secondOrder = sideBits < rightBits ? bestOrder : ro;
+                secondRice = sideBits < rightBits ? bestRice : rr;
+            }
+        }
+        if (bestMode == VERBATIM) {
+            return verbatim(raw, length);
+        }
+        byteOrder = bestMode & (LITTLE_ENDIAN | BIG_ENDIAN);
+
+        split(raw, frames, byteOrder == BIG_ENDIAN);
+        writer.write(bestMode, 8);
+        writeChannel(left, frames, leftOrder, leftRice);
+        writeChannel((bestMode & LEFT_SIDE) != 0 ? side : right, frames, secondOrder, secondRice);
+        writer.flush();
+        return writer;
+    }
+
+    /**
+     * Decodes a block produced by {@link #encode} into {@code out}.
+     *
+     * @param length the raw length of the block, known from the block index
+     */
+    void decode(byte[] encoded, int encodedLength, byte[] out, int length) throws IOException {
+        if (encodedLength < 1) {
+            throw new IOException("Empty cache block");
+        }
+        int mode = encoded[0] & 0xFF;
+        if (mode == VERBATIM) {
+            if (encodedLength - 1 != length) {
+                throw new IOException("Verbatim cache block has " + (encodedLength - 1) + " bytes, expected " + length);
+            }
+            System.arraycopy(encoded, 1, out, 0, length);
+            return;
+        }
+        if (length % 4 != 0 || length / 4 > FRAMES_PER_BLOCK || (mode & ~(BIG_ENDIAN | LITTLE_ENDIAN | LEFT_SIDE)) != 0) {
+            throw new IOException("Malformed cache block (mode " + mode + ", " + length + " bytes)");
+        }
+        int frames = length / 4;
+        BitReader reader = new BitReader(encoded, 1, encodedLength);
+        readChannel(reader, left, frames);
+        readChannel(reader, right, frames);
+        boolean bigEndian = (mode & BIG_ENDIAN) != 0;
+        boolean leftSide = (mode & LEFT_SIDE) != 0;
+        for (int i = 0, o = 0; i < frames; i++, o += 4) {
+            int l = left[i];
+            int r = leftSide ? l - right[i] : right[i];
+            putSample(out, o, l, bigEndian);
+            putSample(out, o + 2, r, bigEndian);
+        }
+    }
+
+    private BitWriter verbatim(byte[] raw, int length) {
+        writer.write(VERBATIM, 8);
+        writer.writeBytes(raw, length);
+        return writer;
+    }
+
+    private void split(byte[] raw, int frames, boolean bigEndian) {
+        for (int i = 0, o = 0; i < frames; i++, o += 4) {
+            int l = sample(raw, o, bigEndian);
+            int r = sample(raw, o + 2, bigEndian);
+            left[i] = l;
+            right[i] = r;
+            side[i] = l - r;
+        }
+    }
+
+    /**
+     * Picks the predictor order with the smallest absolute residual sum and the best rice parameter for it.
+     *
+     * @return the encoded size of the channel in bits
+     */
+    private long analyze(int[] samples, int frames) {
+        long[] sums = new long[MAX_ORDER + 1];
+        for (int i = MAX_ORDER; i < frames; i++) {
+            int e0 = samples[i];
+            int e1 = e0 - samples[i - 1];
+            int e2 = e1 - (samples[i - 1] - samples[i - 2]);
+            int e3 = e2 - (samples[i - 1] - 2 * samples[i - 2] + samples[i - 3]);
+            int e4 = e3 - (samples[i - 1] - 3 * samples[i - 2] + 3 * samples[i - 3] - samples[i - 4]);
+            sums[0] += Math.abs(e0);
+            sums[1] += Math.abs(e1);
+            sums[2] += Math.abs(e2);
+            sums[3] += Math.abs(e3);
+            sums[4] += Math.abs(e4);
+        }
+        int order = 0;
+        for (int o = 1; o <= MAX_ORDER; o++) {
+            if (sums[o] < sums[order]) {
+                order = o;
+            }
+        }
+        order = Math.min(order, frames);
+
+        residuals(samples, frames, order);
+        long zigzagSum = 0;
+        for (int i = order; i < frames; i++) {
+            zigzagSum += zigzag(residual[i]);
+        }
+        int count = Math.max(1, frames - order);
+        int rice = zigzagSum / count > 0 ? 63 - Long.numberOfLeadingZeros(zigzagSum / count) : 0;
+        long bits = riceBits(frames, order, rice);
+        if (rice < 31) {
+            long higher = riceBits(frames, order, rice + 1);
+            if (higher < bits) {
+                bits = higher;
+                rice++;
+            }
+        }
+        if (rice > 0) {
+            long lower = riceBits(frames, order, rice - 1);
+            if (lower < bits) {
+                bits = lower;
+                rice--;
+            }
+        }
+        bestOrder = order;
+        bestRice = rice;
+        return 8 + (long) order * WARMUP_BITS + bits;
+    }
+
+    private long riceBits(int frames, int order, int rice) {
+        long bits = (long) (frames - order) * (rice + 1);
+        for (int i = order; i < frames; i++) {
+            bits += zigzag(residual[i]) >>> rice;
+        }
+        return bits;
+    }
+
+    private void writeChannel(int[] samples, int frames, int order, int rice) {
+        residuals(samples, frames, order);
+        writer.write(order, 3);
+        writer.write(rice, 5);
+        for (int i = 0; i < order; i++) {
+            writer.write(samples[i], WARMUP_BITS);
+        }
+        for (int i = order; i < frames; i++) {
+            long value = zigzag(residual[i]);
+            writer.writeUnary(value >>> rice);
+            if (rice > 0) {
+                writer.write((int) (value & ((1L << rice) - 1)), rice);
+            }
+        }
+    }
+
+    private void readChannel(BitReader reader, int[] samples, int frames) throws IOException {
+        int order = reader.read(3);
+        int rice = reader.read(5);
+        if (order > MAX_ORDER || order > frames) {
+            throw new IOException("Malformed cache block (predictor order " + order + ")");
+        }
+        for (int i = 0; i < order; i++) {
+            samples[i] = reader.read(WARMUP_BITS) << (32 - WARMUP_BITS) >> (32 - WARMUP_BITS);
+        }
+        for (int i = order; i < frames; i++) {
+            long value = (reader.readUnary() << rice) | (rice > 0 ? reader.read(rice) : 0);
+            int r = (int) ((value >>> 1) ^ -(value & 1));
+            samples[i] = switch (order) {
+                case 0 -> r;
+                case 1 -> r + samples[i - 1];
+                case 2 -> r + 2 * samples[i - 1] - samples[i - 2];
+                case 3 -> r + 3 * samples[i - 1] - 3 * samples[i - 2] + samples[i - 3];
+                default -> r + 4 * samples[i - 1] - 6 * samples[i - 2] + 4 * samples[i - 3] - samples[i - 4];
+            };
+        }
+    }
+
+    private void residuals(int[] samples, int frames, int order) {
+        for (int i = order; i < frames; i++) {
+            residual[i] = switch (order) {
+                case 0 -> samples[i];
+                case 1 -> samples[i] - samples[i - 1];
+                case 2 -> samples[i] - 2 * samples[i - 1] + samples[i - 2];
+                case 3 -> samples[i] - 3 * samples[i - 1] + 3 * samples[i - 2] - samples[i - 3];
+                default -> samples[i] - 4 * samples[i - 1] + 6 * samples[i - 2] - 4 * samples[i - 3] + samples[i - 4];
+            };
+        }
+    }
+
+    private static long zigzag(int value) {
+        long v = value;
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static int sample(byte[] raw, int offset, boolean bigEndian) {
+        return bigEndian
+                ? (short) ((raw[offset] << 8) | (raw[offset + 1] & 0xFF))
+                : (short) ((raw[offset + 1] << 8) | (raw[offset] & 0xFF));
+    }
+
+    private static void putSample(byte[] out, int offset, int sample, boolean bigEndian) {
+        if (bigEndian) {
+            out[offset] = (byte) (sample >> 8);
+            out[offset + 1] = (byte) sample;
+        } else {
+            out[offset] = (byte) sample;
+            out[offset + 1] = (byte) (sample >> 8);
+        }
+    }
+
+    /** MSB-first bit packer into a growable array. */
+    static final class BitWriter {
+        private byte[] bytes;
+        private int length;
+        private long accumulator;
+        private int pending;
+
+        BitWriter(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        void reset() {
+            length = 0;
+            pending = 0;
+        }
+
+        /** Writes the low {@code count} bits of {@code value}, {@code count <= 32}. */
+        void write(int value, int count) {
+            accumulator = (accumulator << count) | (value & ((1L << count) - 1));
+            pending += count;
+            while (pending >= 8) {
+                pending -= 8;
+                put((byte) (accumulator >>> pending));
+            }
+        }
+
+        /** Writes {@code value} zero bits followed by a one bit. */
+        void writeUnary(long value) {
+            while (value >= 32) {
+                write(0, 32);
+                value -= 32;
+            }
+            write(1, (int) value + 1);
+        }
+
+        void writeBytes(byte[] src, int count) {
+            ensure(count);
+            System.arraycopy(src, 0, bytes, length, count);
+            length += count;
+        }
+
+        /** Pads the last byte with zero bits. */
+        void flush() {
+            if (pending > 0) {
+                write(0, 8 - pending);
+            }
+        }
+
+        byte[] bytes() {
+            return bytes;
+        }
+
+        int length() {
+            return length;
+        }
+
+        private void put(byte b) {
+            ensure(1);
+            bytes[length++] = b;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+    }
+
+    /** MSB-first bit reader matching {@link BitWriter}. */
+    static final class BitReader {
+        private final byte[] bytes;
+        private final int end;
+        private int position;
+        private long accumulator;
+        private int available;
+
+        BitReader(byte[] bytes, int offset, int end) {
+            this.bytes = bytes;
+            this.position = offset;
+            this.end = end;
+        }
+
+        int read(int count) throws IOException {
+            while (available < count) {
+                if (position >= end) {
+                    throw new IOException("Cache block ended early");
+                }
+                accumulator = (accumulator << 8) | (bytes[position++] & 0xFF);
+                available += 8;
+            }
+            available -= count;
+            return (int) ((accumulator >>> available) & ((1L << count) - 1));
+        }
+
+        long readUnary() throws IOException {
+            long zeros = 0;
+            while (true) {
+                if (available == 0) {
+                    if (position >= end) {
+                        throw new IOException("Cache block ended early");
+                    }
+                    accumulator = bytes[position++] & 0xFF;
+                    available = 8;
+                }
+                int bits = (int) (accumulator & ((1L << available) - 1));
+                if (bits != 0) {
+                    int leading = available - (32 - Integer.numberOfLeadingZeros(bits));
+                    available -= leading + 1;
+                    return zeros + leading;
+                }
+                zeros += available;
+                available = 0;
+            }
+        }
+    }
+}
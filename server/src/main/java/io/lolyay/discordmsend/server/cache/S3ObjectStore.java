@@ -0,0 +1,115 @@
+package io.lolyay.discordmsend.server.cache;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * {@link ObjectStore} in an S3-compatible bucket.
+ * <p>
+ * The bucket is given as a path-style URL ({@code https://host/bucket}, optionally followed by a key prefix), which
+ * works with AWS as well as with other providers. If the bucket is also reachable through a public URL, objects are
+ * read with plain HTTP GETs from there instead of signed requests.
+ */
+public class S3ObjectStore implements ObjectStore {
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private final S3Client client;
+    private final String bucket;
+    private final String prefix;
+    private final String publicUrl;
+    private final HttpClient httpClient;
+
+    /**
+     * @param bucketUrl path-style URL of the bucket, e.g. {@code https://eu2.contabostorage.com/bucket-name}
+     * @param publicUrl public URL of the bucket root for downloads, empty to download through the S3 API
+     */
+    public S3ObjectStore(String bucketUrl, String publicUrl, String accessKey, String secretKey, String region) {
+        URI uri = URI.create(bucketUrl);
+        String path = uri.getPath() == null ? "" : uri.getPath().replaceAll("^/+|/+$", "");
+        if (path.isEmpty()) {
+            throw new IllegalArgumentException("No bucket in bucket URL: " + bucketUrl);
+        }
+        int slash = path.indexOf('/');
+        this.bucket = slash < 0 ? path : path.substring(0, slash);
+        this.prefix = slash < 0 ? "" : path.substring(slash + 1) + "/";
+        this.publicUrl = publicUrl == null ? "" : publicUrl.replaceAll("/+$", "");
+        this.client = S3Client.builder()
+                .endpointOverride(URI.create(uri.getScheme() + "://" + uri.getRawAuthority()))
+                .region(Region.of(region))
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey)))
+                .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build())
+                .overrideConfiguration(ClientOverrideConfiguration.builder().apiCallTimeout(TIMEOUT).build())
+                .build();
+        this.httpClient = this.publicUrl.isEmpty() ? null : HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        if (httpClient != null) {
+            return getPublic(key);
+        }
+        try {
+            return client.getObject(GetObjectRequest.builder().bucket(bucket).key(prefix + key).build());
+        } catch (NoSuchKeyException e) {
+            return null;
+        } catch (SdkException e) {
+            throw new IOException("Failed to get " + key + " from bucket " + bucket + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void put(String key, Path file) throws IOException {
+        try {
+            client.putObject(PutObjectRequest.builder().bucket(bucket).key(prefix + key)
+                    .contentType("application/octet-stream").build(), RequestBody.fromFile(file));
+        } catch (SdkException e) {
+            throw new IOException("Failed to put " + key + " into bucket " + bucket + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+
+    private InputStream getPublic(String key) throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(publicUrl + "/" + prefix + key)).timeout(TIMEOUT).GET().build();
+        HttpResponse<InputStream> response;
+        try {
+            response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching " + key, e);
+        }
+        if (response.statusCode() == 200) {
+            return response.body();
+        }
+        response.body().close();
+        if (response.statusCode() == 404 || response.statusCode() == 403) {
+            // Public buckets answer 403 for missing keys when listing is not allowed
+            return null;
+        }
+        throw new IOException("Failed to fetch " + key + ": HTTP " + response.statusCode());
+    }
+}
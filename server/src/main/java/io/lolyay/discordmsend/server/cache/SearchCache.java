@@ -0,0 +1,203 @@
+package io.lolyay.discordmsend.server.cache;
+
+import io.lolyay.discordmsend.network.types.TrackMetadata;
+import io.lolyay.discordmsend.server.music.providers.ISearcher;
+import io.lolyay.discordmsend.server.music.providers.ProviderPool;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches search results per (normalized query, limit, searcher) and collapses identical searches that
+ * are in flight at the same time into a single provider call.
+ * <p>
+ * Entries expire after a fixed TTL and the least recently used entry is evicted once the cache is full.
+ * Fan-out results some searcher did not contribute to are only kept for {@link #PARTIAL_TTL_MILLIS}, so a
+ * slow provider does not hide its results for the whole TTL.
+ * Results are stored as plain metadata, track ids are assigned by the registry on every request.
+ */
+@Slf4j
+public class SearchCache {
+    private static final long PARTIAL_TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final long ttlMillis;
+    private final int maxEntries;
+
+    private final Map<Key, Entry> entries;
+    private final ConcurrentHashMap<Key, CompletableFuture<List<TrackMetadata>>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder upstreamCalls = new LongAdder();
+    private final LongAdder upstreamNanos = new LongAdder();
+
+    private record Key(String query, int limit, Class<? extends ISearcher> searcher) {
+    }
+
+    private record Entry(List<TrackMetadata> results, long expiresAt) {
+    }
+
+    public SearchCache(long ttl, TimeUnit unit, int maxEntries) {
+        this.ttlMillis = unit.toMillis(ttl);
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > SearchCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Same as {@link ProviderPool#search}, but served from the cache when possible.
+     */
+    public List<TrackMetadata> search(String query, int limit) {
+        ProviderPool pool = ProviderPool.getInstance();
+        ISearcher searcher = pool.getSearcher(query);
+        if (searcher == null) {
+            return List.of();
+        }
+        // Fan-out results come from several searchers, so they are cached under the pool instead
+        boolean fanOut = pool.isFanOut();
+        Key key = new Key(normalize(query), limit, fanOut ? null : searcher.getClass());
+
+        List<TrackMetadata> cached = lookup(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+
+        CompletableFuture<List<TrackMetadata>> future = new CompletableFuture<>();
+        CompletableFuture<List<TrackMetadata>> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.increment();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+
+        misses.increment();
+        long start = System.nanoTime();
+        try {
+            List<TrackMetadata> results;
+            long ttl = ttlMillis;
+            if (fanOut) {
+                ProviderPool.FanOutResult result = pool.fanOutSearch(query, limit);
+                results = List.copyOf(result.tracks());
+                if (result.partial()) {
+                    ttl = Math.min(ttl, PARTIAL_TTL_MILLIS);
+                }
+            } else {
+                results = List.copyOf(searcher.search(query, limit));
+            }
+            if (!results.isEmpty()) {
+                synchronized (entries) {
+                    entries.put(key, new Entry(results, System.currentTimeMillis() + ttl));
+                }
+            }
+            future.complete(results);
+            return results;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            upstreamCalls.increment();
+            upstreamNanos.add(System.nanoTime() - start);
+            inFlight.remove(key, future);
+        }
+    }
+
+    private List<TrackMetadata> lookup(Key key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt() < System.currentTimeMillis()) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.results();
+        }
+    }
+
+    /**
+     * Trims the query. Free text is also lowercased with its whitespace collapsed; URLs and identifiers
+     * ({@code spotify:track:…}, bare video ids) are kept as they are since they are case sensitive.
+     */
+    static String normalize(String query) {
+        String trimmed = query.strip();
+        if (isIdentifier(trimmed)) {
+            return trimmed;
+        }
+        return trimmed.replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return true for URLs and single tokens; a one word text query is only cached per spelling
+     */
+    private static boolean isIdentifier(String query) {
+        return query.contains("://") || query.chars().noneMatch(Character::isWhitespace);
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return searches that waited for an identical search already in flight instead of calling the provider
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return mean provider latency in milliseconds, 0 if the provider was never called
+     */
+    public double getAverageUpstreamLatencyMs() {
+        long calls = upstreamCalls.sum();
+        return calls == 0 ? 0 : upstreamNanos.sum() / 1_000_000.0 / calls;
+    }
+
+    public void logStats() {
+        long total = getHits() + getMisses() + getCoalesced();
+        if (total == 0) {
+            return;
+        }
+        log.info("Search cache: {} entries, {} hits, {} misses, {} coalesced ({}% served without a provider call), avg provider latency {}ms",
+                size(), getHits(), getMisses(), getCoalesced(),
+                String.format("%.1f", (getHits() + getCoalesced()) * 100.0 / total),
+                String.format("%.1f", getAverageUpstreamLatencyMs()));
+        long rejected = ProviderPool.getInstance().getSearchesRejected();
+        if (rejected > 0) {
+            log.warn("Search pool: {} searchers skipped because every search thread was busy", rejected);
+        }
+    }
+}
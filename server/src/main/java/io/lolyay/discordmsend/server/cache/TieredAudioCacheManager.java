@@ -0,0 +1,331 @@
+package io.lolyay.discordmsend.server.cache;
+
+import io.netty.util.concurrent.FastThreadLocalThread;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Track cache with the local {@link FileSystemAudioCacheManager} in front of an {@link ObjectStore} shared by all
+ * servers.
+ * <p>
+ * A track that is not cached locally is downloaded from the store on a fetcher thread, and {@link #hasTrack} waits
+ * for that download for up to {@link #FETCH_WAIT_MILLIS} before the provider falls back to decoding from the source.
+ * A download that takes longer keeps going and fills the local cache for the next play. Event loop threads never
+ * wait. Tracks this server caches itself are uploaded in the background, so a new server fills its cache from the
+ * store instead of decoding everything again. Misses are remembered for a while so tracks that were never cached
+ * anywhere don't cost a request every time.
+ */
+@Slf4j
+public class TieredAudioCacheManager implements AudioCacheManager {
+    private static final String KEY_PREFIX = "tracks/";
+    private static final String KEY_SUFFIX = ".dpcm";
+    private static final long MISS_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final int MAX_REMEMBERED_MISSES = 16384;
+    private static final int MAX_QUEUED_UPLOADS = 256;
+    private static final int FETCH_THREADS = 2;
+    private static final int MAX_QUEUED_FETCHES = 64;
+    /** How long a local miss waits for the download, before decoding from the source is the faster way. */
+    private static final long FETCH_WAIT_MILLIS = 2000;
+
+    private final FileSystemAudioCacheManager local;
+    private final ObjectStore store;
+    private final ThreadPoolExecutor uploader;
+    private final ThreadPoolExecutor fetcher;
+    /**
+     * Downloads in progress by URI hash, so each track is only downloaded once at a time. Completes with whether the
+     * track is cached locally now.
+     */
+    private final Map<String, CompletableFuture<Boolean>> fetching = new ConcurrentHashMap<>();
+    /** When a track was last not found in the store, by URI hash. Guarded by itself. */
+    private final LinkedHashMap<String, Long> misses;
+
+    private final AtomicLong fetched = new AtomicLong();
+    private final AtomicLong fetchedBytes = new AtomicLong();
+    private final AtomicLong fetchFailures = new AtomicLong();
+    private final AtomicLong fetchesDropped = new AtomicLong();
+    private final AtomicLong fetchWaitsTimedOut = new AtomicLong();
+    private final AtomicLong uploaded = new AtomicLong();
+    private final AtomicLong uploadedBytes = new AtomicLong();
+    private final AtomicLong uploadsDropped = new AtomicLong();
+
+    public TieredAudioCacheManager(FileSystemAudioCacheManager local, ObjectStore store) {
+        this.local = local;
+        this.store = store;
+        this.misses = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > MAX_REMEMBERED_MISSES;
+            }
+        };
+        this.uploader = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_QUEUED_UPLOADS),
+                r -> {
+                    Thread thread = new Thread(r, "Cache-Uploader");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (r, executor) -> uploadsDropped.incrementAndGet());
+        this.fetcher = new ThreadPoolExecutor(FETCH_THREADS, FETCH_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_FETCHES),
+                r -> {
+                    Thread thread = new Thread(r, "Cache-Fetcher");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        local.setCommitListener(this::upload);
+    }
+
+    /**
+     * @return the key a track with this {@link AudioCacheManager#computeHash} is stored under
+     */
+    public static String objectKey(String hash) {
+        return KEY_PREFIX + hash + KEY_SUFFIX;
+    }
+
+    /**
+     * @return the track hash of an {@link #objectKey}, or null if the key is not one
+     */
+    public static String hashOf(String key) {
+        if (!key.startsWith(KEY_PREFIX) || !key.endsWith(KEY_SUFFIX)) {
+            return null;
+        }
+        String hash = key.substring(KEY_PREFIX.length(), key.length() - KEY_SUFFIX.length());
+        return hash.isEmpty() || hash.contains("/") ? null : hash;
+    }
+
+    /**
+     * On a local miss, starts or joins the download of the track from the store and waits up to
+     * {@link #FETCH_WAIT_MILLIS} for it. Returns right away on an event loop thread.
+     */
+    @Override
+    public boolean hasTrack(String trackUri) {
+        if (local.hasTrack(trackUri)) {
+            return true;
+        }
+        CompletableFuture<Boolean> fetch = prefetch(trackUri);
+        if (fetch == null || Thread.currentThread() instanceof FastThreadLocalThread) {
+            return false;
+        }
+        try {
+            return fetch.get(FETCH_WAIT_MILLIS, TimeUnit.MILLISECONDS) && local.hasTrack(trackUri);
+        } catch (TimeoutException e) {
+            // Keeps downloading for the next play
+            fetchWaitsTimedOut.incrementAndGet();
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public InputStream loadTrack(String trackUri) throws IOException {
+        return local.loadTrack(trackUri);
+    }
+
+    @Override
+    public OutputStream startSavingTrack(String trackUri) throws IOException {
+        return local.startSavingTrack(trackUri);
+    }
+
+    @Override
+    public void finalizeSave(String trackUri, boolean success) {
+        local.finalizeSave(trackUri, success);
+    }
+
+    /**
+     * Deletes the local copy only; the store is shared with other servers.
+     */
+    @Override
+    public boolean deleteTrack(String trackUri) {
+        return local.deleteTrack(trackUri);
+    }
+
+    @Override
+    public void linkContent(String trackUri, String contentId) {
+        local.linkContent(trackUri, contentId);
+    }
+
+    @Override
+    public void warmUp(int tracks, long bytesPerSecond) {
+        local.warmUp(tracks, bytesPerSecond);
+    }
+
+    @Override
+    public void checkpoint() {
+        local.checkpoint();
+    }
+
+    @Override
+    public boolean takeCorrupted(String trackUri) {
+        return local.takeCorrupted(trackUri);
+    }
+
+    @Override
+    public long getCacheSize() {
+        return local.getCacheSize();
+    }
+
+    @Override
+    public void clearCache() {
+        local.clearCache();
+        synchronized (misses) {
+            misses.clear();
+        }
+    }
+
+    @Override
+    public AudioCacheStats getStats() {
+        return local.getStats();
+    }
+
+    @Override
+    public void logStats() {
+        local.logStats();
+        if (fetched.get() + fetchFailures.get() + fetchesDropped.get() + uploaded.get() + uploadsDropped.get() == 0) {
+            return;
+        }
+        log.info("Shared track store: {} tracks fetched ({} MB), {} fetches failed, {} fetches dropped, {} fetches not waited for, {} uploaded ({} MB), {} uploads dropped",
+                fetched.get(), fetchedBytes.get() >> 20, fetchFailures.get(), fetchesDropped.get(),
+                fetchWaitsTimedOut.get(), uploaded.get(), uploadedBytes.get() >> 20, uploadsDropped.get());
+    }
+
+    @Override
+    public String computeHash(String trackUri) {
+        return local.computeHash(trackUri);
+    }
+
+    /**
+     * Finishes queued uploads (for up to 30 s), then closes the local cache and the store.
+     */
+    @Override
+    public void close() throws IOException {
+        fetcher.shutdownNow();
+        fetching.values().forEach(fetch -> fetch.complete(false));
+        uploader.shutdown();
+        try {
+            if (!uploader.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("Gave up waiting for {} track uploads", uploader.getQueue().size());
+                uploader.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            local.close();
+        } finally {
+            store.close();
+        }
+    }
+
+    /**
+     * Queues a download of the track from the store into the local cache, unless it missed recently. Joins the
+     * download if it is already running.
+     *
+     * @return the download, or null if there is none because the track missed recently or the queue is full
+     */
+    private CompletableFuture<Boolean> prefetch(String trackUri) {
+        String hash = local.computeHash(trackUri);
+        synchronized (misses) {
+            Long missed = misses.get(hash);
+            if (missed != null && System.currentTimeMillis() - missed < MISS_TTL_MILLIS) {
+                return null;
+            }
+        }
+        CompletableFuture<Boolean> fetch = new CompletableFuture<>();
+        CompletableFuture<Boolean> running = fetching.putIfAbsent(hash, fetch);
+        if (running != null) {
+            return running;
+        }
+        try {
+            fetcher.execute(() -> {
+                boolean found = false;
+                try {
+                    found = download(hash);
+                    if (!found) {
+                        synchronized (misses) {
+                            misses.put(hash, System.currentTimeMillis());
+                        }
+                    }
+                } finally {
+                    fetching.remove(hash);
+                    fetch.complete(found);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            fetching.remove(hash);
+            fetch.complete(false);
+            fetchesDropped.incrementAndGet();
+            return null;
+        }
+        return fetch;
+    }
+
+    /**
+     * @return whether the track is cached locally now
+     */
+    private boolean download(String hash) {
+        if (local.isCached(hash)) {
+            // Decoded from the source in the meantime
+            return true;
+        }
+        long start = System.nanoTime();
+        long size;
+        try (InputStream in = store.get(objectKey(hash))) {
+            if (in == null) {
+                return false;
+            }
+            size = local.importTrack(hash, in);
+            if (size < 0) {
+                return false;
+            }
+        } catch (IOException e) {
+            fetchFailures.incrementAndGet();
+            log.warn("Failed to fetch track {} from the shared track store: {}", hash, e.getMessage());
+            return false;
+        }
+        fetched.incrementAndGet();
+        fetchedBytes.addAndGet(size);
+        log.info("Fetched track {} from the shared track store ({} KB in {} ms)", hash, size >> 10,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return true;
+    }
+
+    /** Runs on the cache writer thread, so it only queues the upload. */
+    private void upload(String hash, Path file) {
+        uploader.execute(() -> {
+            try {
+                long size = Files.size(file);
+                store.put(objectKey(hash), file);
+                uploaded.incrementAndGet();
+                uploadedBytes.addAndGet(size);
+                synchronized (misses) {
+                    misses.remove(hash);
+                }
+            } catch (NoSuchFileException e) {
+                // Evicted before it got its turn
+                log.debug("Not uploading evicted track {}", hash);
+            } catch (IOException e) {
+                log.warn("Failed to upload track {} to the shared track store: {}", hash, e.getMessage());
+            }
+        });
+    }
+}
@@ -2,68 +2,234 @@ package io.lolyay.discordmsend.server.cache;
 
 import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc.CacheExpireS2C;
 import io.lolyay.discordmsend.server.DstServer;
+import io.lolyay.discordmsend.server.network.ConnectedClient;
+import io.lolyay.discordmsend.server.registry.TrackRegistry;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * Expires tracks that were not searched or played for the configured TTL.
+ * <p>
+ * Access times are kept per registry slot in plain int arrays (seconds since this manager started), so
+ * {@link #markAccessed} does not allocate. Expiry uses a lazy timing wheel with one bucket per hour: a slot is
+ * appended to the bucket of the hour it was last accessed in, at most once per hour, and its entry in an older
+ * bucket is left there. Once an hour is older than the TTL its bucket is walked in small steps; every slot whose
+ * access time really is older than the TTL is expired, and entries of slots accessed since are dropped. Each
+ * client is only told about the expired ids it was sent before (see
+ * {@link io.lolyay.discordmsend.server.network.KnownTrackSet}), in packets of at most {@value #MAX_IDS_PER_PACKET}
+ * ids.
+ * <p>
+ * Whenever a slot moves to a new bucket its access time is also stored in the {@link TrackRegistry}, and
+ * {@link #restoreAccess} puts it back after a restart, so frequent restarts don't keep tracks alive forever.
+ */
 @Slf4j
 public class TrackCacheManager {
-    
-    private final Map<Integer, Long> trackLastAccessTime = new ConcurrentHashMap<>();
+    public static final int MAX_IDS_PER_PACKET = 1024;
+    /** Slots looked at per {@link #expireStep} call. */
+    private static final int MAX_SLOTS_PER_STEP = 4096;
+    private static final long BUCKET_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
     private final long ttlMillis;
     private final DstServer dstServer;
-    
+    private final long startMillis = System.currentTimeMillis();
+
+    /** Per slot: last access in seconds since {@link #startMillis}, and the hour it was last added to a bucket. */
+    private final AtomicReferenceArray<int[]> accessSeconds = new AtomicReferenceArray<>(TrackRegistry.MAX_SLOTS >>> CHUNK_BITS);
+    private final AtomicReferenceArray<int[]> bucketHours = new AtomicReferenceArray<>(TrackRegistry.MAX_SLOTS >>> CHUNK_BITS);
+
+    private final IntArrayList[] wheel;
+    /** Oldest hour whose bucket was not fully processed yet. */
+    private long cursorHour;
+    /** Position inside the cursor's bucket. */
+    private int cursorIndex;
+
     public TrackCacheManager(DstServer dstServer, int ttlDays) {
         this.dstServer = dstServer;
         this.ttlMillis = TimeUnit.DAYS.toMillis(ttlDays);
+        this.wheel = new IntArrayList[(int) (ttlMillis / BUCKET_MILLIS) + 2];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new IntArrayList();
+        }
+        // Starts a full lap back, so the buckets of restored access times are walked too
+        this.cursorHour = hour(startMillis) - (wheel.length - 1);
     }
-    
+
     public void markAccessed(int trackId) {
-        trackLastAccessTime.put(trackId, System.currentTimeMillis());
+        long now = System.currentTimeMillis();
+        if (setAccess(trackId, now)) {
+            dstServer.getTrackRegistry().recordAccess(trackId, now);
+        }
+    }
+
+    /**
+     * Sets the access time of a track restored from the registry's file, without storing it again.
+     *
+     * @param lastAccessMillis as given by {@link TrackRegistry#forEachRestored}; -1 counts as accessed now
+     */
+    public void restoreAccess(int trackId, long lastAccessMillis) {
+        if (lastAccessMillis < 0) {
+            markAccessed(trackId);
+        } else {
+            setAccess(trackId, Math.min(lastAccessMillis, System.currentTimeMillis()));
+        }
     }
-    
-    public void expireOldTracks() {
+
+    /**
+     * @return true if the slot was added to a new bucket
+     */
+    private boolean setAccess(int trackId, long millis) {
+        int slot = trackId & (TrackRegistry.MAX_SLOTS - 1);
+        int chunk = slot >>> CHUNK_BITS;
+        int index = slot & CHUNK_MASK;
+
+        chunk(accessSeconds, chunk)[index] = (int) ((millis - startMillis) / 1000);
+
+        int[] hours = chunk(bucketHours, chunk);
+        // Access times older than the wheel go into its oldest bucket, which expires them right away
+        int hour = (int) Math.max(hour(millis), hour(startMillis) - (wheel.length - 1));
+        if (hours[index] == hour + 1) {
+            return false;
+        }
+        hours[index] = hour + 1; // 0 means never bucketed
+        IntArrayList bucket = wheel[hour % wheel.length];
+        synchronized (bucket) {
+            bucket.add(slot);
+        }
+        return true;
+    }
+
+    /**
+     * Processes a bounded amount of due buckets. Meant to be called frequently.
+     */
+    public void expireStep() {
         long now = System.currentTimeMillis();
-        IntArrayList expiredIds = new IntArrayList();
-        
-        for (Map.Entry<Integer, Long> entry : trackLastAccessTime.entrySet()) {
-            int trackId = entry.getKey();
-            long lastAccess = entry.getValue();
-            
-            if (now - lastAccess > ttlMillis) {
-                expiredIds.add(trackId);
+        long nowHour = hour(now);
+        int budget = MAX_SLOTS_PER_STEP;
+        IntArrayList expired = new IntArrayList();
+        IntArrayList keep = new IntArrayList();
+        TrackRegistry registry = dstServer.getTrackRegistry();
+
+        // An hour's bucket is due once its whole hour is older than the TTL
+        while (budget > 0 && (cursorHour + 1) * BUCKET_MILLIS + ttlMillis <= now && cursorHour < nowHour) {
+            IntArrayList bucket = wheel[(int) (cursorHour % wheel.length)];
+            synchronized (bucket) {
+                int end = Math.min(bucket.size(), cursorIndex + budget);
+                for (int i = cursorIndex; i < end; i++) {
+                    int slot = bucket.getInt(i);
+                    if (isExpired(slot, now)) {
+                        int id = registry.currentId(slot);
+                        if (id >= 0) {
+                            expired.add(id);
+                        }
+                        clear(slot);
+                    } else if (sharesBucket(slot, cursorHour)) {
+                        // Added for a later hour that maps to the same bucket (only when the cursor lags a full lap)
+                        keep.add(slot);
+                    }
+                }
+                budget -= end - cursorIndex;
+                cursorIndex = end;
+                if (cursorIndex < bucket.size()) {
+                    break;
+                }
+                bucket.clear();
+                bucket.addAll(keep);
+                bucket.trim(64);
+                keep.clear();
             }
+            cursorHour++;
+            cursorIndex = 0;
         }
-        
-        if (expiredIds.isEmpty()) {
+
+        if (expired.isEmpty()) {
             return;
         }
-        
-        for (int trackId : expiredIds) {
-            trackLastAccessTime.remove(trackId);
+        dstServer.removeTracksFromCache(expired);
+        for (ConnectedClient client : dstServer.getConnectedClients()) {
+            IntArrayList known = client.getKnownTracks().removeKnown(expired);
+            for (int from = 0; from < known.size(); from += MAX_IDS_PER_PACKET) {
+                int to = Math.min(known.size(), from + MAX_IDS_PER_PACKET);
+                client.sendPacket(new CacheExpireS2C(new IntArrayList(known.subList(from, to))));
+            }
         }
-        
-        dstServer.removeTracksFromCache(expiredIds);
-        
-        CacheExpireS2C packet = new CacheExpireS2C(expiredIds);
-        dstServer.broadcastToAllClients(packet);
-        
-        log.info("Expired " + expiredIds.size() + " tracks from cache (unused for " + 
-                    TimeUnit.MILLISECONDS.toDays(ttlMillis) + " days)");
-
+        log.info("Expired " + expired.size() + " tracks from cache (unused for " +
+                TimeUnit.MILLISECONDS.toDays(ttlMillis) + " days)");
+        registry.compactIfNeeded();
     }
+
+    /**
+     * @return the number of slots currently waiting to expire. Walks all slots, meant for diagnostics only.
+     */
     public int getTrackedCount() {
-        return trackLastAccessTime.size();
+        int count = 0;
+        for (int chunk = 0; chunk < bucketHours.length(); chunk++) {
+            int[] hours = bucketHours.get(chunk);
+            if (hours == null) {
+                continue;
+            }
+            for (int hour : hours) {
+                if (hour != 0) {
+                    count++;
+                }
+            }
+        }
+        return count;
     }
-    
+
     public void remove(int trackId) {
-        trackLastAccessTime.remove(trackId);
+        clear(trackId & (TrackRegistry.MAX_SLOTS - 1));
     }
-    
+
+    /**
+     * Forgets every access time. Slots already in the wheel are skipped when their bucket comes up.
+     */
     public void clear() {
-        trackLastAccessTime.clear();
+        for (int chunk = 0; chunk < bucketHours.length(); chunk++) {
+            bucketHours.set(chunk, null);
+        }
+    }
+
+    private boolean isExpired(int slot, long now) {
+        int[] seconds = accessSeconds.get(slot >>> CHUNK_BITS);
+        int[] hours = bucketHours.get(slot >>> CHUNK_BITS);
+        // No hour recorded: already expired or removed
+        if (seconds == null || hours == null || hours[slot & CHUNK_MASK] == 0) {
+            return false;
+        }
+        long lastAccess = startMillis + seconds[slot & CHUNK_MASK] * 1000L;
+        return now - lastAccess > ttlMillis;
+    }
+
+    private boolean sharesBucket(int slot, long hour) {
+        int[] hours = bucketHours.get(slot >>> CHUNK_BITS);
+        long recorded = hours == null ? -1 : hours[slot & CHUNK_MASK] - 1L;
+        return recorded > hour && recorded % wheel.length == hour % wheel.length;
+    }
+
+    private void clear(int slot) {
+        int[] hours = bucketHours.get(slot >>> CHUNK_BITS);
+        if (hours != null) {
+            hours[slot & CHUNK_MASK] = 0;
+        }
+    }
+
+    private static int[] chunk(AtomicReferenceArray<int[]> chunks, int index) {
+        int[] chunk = chunks.get(index);
+        if (chunk == null) {
+            chunks.compareAndSet(index, null, new int[CHUNK_SIZE]);
+            chunk = chunks.get(index);
+        }
+        return chunk;
+    }
+
+    private static long hour(long millis) {
+        return millis / BUCKET_MILLIS;
     }
 }
@@ -0,0 +1,167 @@
+package io.lolyay.discordmsend.server.cache;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Play count and last play time of every cached track, kept across restarts so the most played tracks can be warmed
+ * up again (see {@link CacheWarmer}).
+ * <p>
+ * Unlike the {@link FrequencySketch}, counts are exact and never halved; {@link #top} weighs them by how recently the
+ * track was played instead. The snapshot file is rewritten as a whole, which is cheap at 30 bytes per track.
+ */
+@Slf4j
+final class TrackPopularity {
+    private static final int MAGIC = 0x44504F50; // DPOP
+    private static final int VERSION = 1;
+    /** A play a week ago counts half as much as one now. */
+    private static final double HALF_LIFE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    private final Path file;
+    /** By track hash. Guarded by this. */
+    private final Map<String, Stats> tracks = new HashMap<>();
+    private boolean dirty;
+    /** Keeps concurrent snapshots from sharing the temp file. */
+    private final Object saveLock = new Object();
+
+    TrackPopularity(Path file) {
+        this.file = file;
+    }
+
+    synchronized void record(String hash) {
+        Stats stats = tracks.computeIfAbsent(hash, h -> new Stats());
+        stats.plays++;
+        stats.lastPlayed = System.currentTimeMillis();
+        dirty = true;
+    }
+
+    synchronized void remove(String hash) {
+        if (tracks.remove(hash) != null) {
+            dirty = true;
+        }
+    }
+
+    synchronized void clear() {
+        tracks.clear();
+        dirty = true;
+    }
+
+    /**
+     * @return the hashes of up to {@code limit} tracks, most popular first
+     */
+    synchronized List<String> top(int limit) {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, Stats>> ranked = new ArrayList<>(tracks.entrySet());
+        ranked.sort(Comparator.comparingDouble((Map.Entry<String, Stats> e) -> -e.getValue().score(now)));
+        List<String> top = new ArrayList<>(Math.min(limit, ranked.size()));
+        for (int i = 0; i < limit && i < ranked.size(); i++) {
+            top.add(ranked.get(i).getKey());
+        }
+        return top;
+    }
+
+    /**
+     * Reads the snapshot, keeping only tracks {@code keep} accepts.
+     *
+     * @param restored called with the hash and play count of every kept track
+     */
+    synchronized void load(Predicate<String> keep, BiConsumer<String, Integer> restored) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("Ignoring track popularity file {} of an unknown format", file);
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String hash = in.readUTF();
+                Stats stats = new Stats();
+                stats.plays = in.readInt();
+                stats.lastPlayed = in.readLong();
+                if (keep.test(hash)) {
+                    tracks.put(hash, stats);
+                    restored.accept(hash, stats.plays);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // First start
+        } catch (EOFException e) {
+            log.warn("Track popularity file {} is truncated, restored {} tracks", file, tracks.size());
+        } catch (IOException e) {
+            log.warn("Failed to read track popularity file {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the snapshot if anything changed since the last one.
+     */
+    void save() {
+        synchronized (saveLock) {
+            Map<String, Stats> snapshot;
+            synchronized (this) {
+                if (!dirty) {
+                    return;
+                }
+                dirty = false;
+                snapshot = new HashMap<>(tracks.size());
+                tracks.forEach((hash, stats) -> snapshot.put(hash, stats.copy()));
+            }
+            write(snapshot);
+        }
+    }
+
+    private void write(Map<String, Stats> snapshot) {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, Stats> e : snapshot.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeInt(e.getValue().plays);
+                    out.writeLong(e.getValue().lastPlayed);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            synchronized (this) {
+                dirty = true;
+            }
+            log.warn("Failed to write track popularity file {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static final class Stats {
+        int plays;
+        long lastPlayed;
+
+        double score(long now) {
+            return plays * Math.pow(0.5, Math.max(0, now - lastPlayed) / HALF_LIFE_MILLIS);
+        }
+
+        Stats copy() {
+            Stats copy = new Stats();
+            copy.plays = plays;
+            copy.lastPlayed = lastPlayed;
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package io.lolyay.discordmsend.server.cache.peer;
+
+import io.lolyay.discordmsend.network.Enviroment;
+import io.lolyay.discordmsend.network.protocol.Connection;
+import io.lolyay.discordmsend.network.protocol.NetworkPhase;
+import io.lolyay.discordmsend.network.protocol.coder.PacketEncoder;
+import io.lolyay.discordmsend.network.protocol.coder.PacketInboundDecoder;
+import io.lolyay.discordmsend.network.protocol.listeners.server.ServerPeerPacketListener;
+import io.lolyay.discordmsend.network.protocol.packet.PacketDirection;
+import io.lolyay.discordmsend.network.protocol.packet.PacketRegistry;
+import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.peer.PeerAnnounceC2SPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.peer.PeerFetchC2SPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.peer.PeerHelloC2SPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.peer.PeerFetchResponseS2CPacket;
+import io.lolyay.discordmsend.server.cache.FileSystemAudioCacheManager;
+import io.lolyay.discordmsend.server.cache.TieredAudioCacheManager;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.protobuf.ProtobufVarint32LengthFieldPrepender;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Serves cached tracks to the other servers of the cluster.
+ * <p>
+ * Requests and announcements arrive as {@link NetworkPhase#PEER} packets through the regular packet pipeline. A
+ * found track is answered with a {@link PeerFetchResponseS2CPacket} followed by the cache file as a
+ * {@link DefaultFileRegion}, which the kernel copies from the page cache to the socket without the file passing
+ * through the JVM.
+ */
+@Slf4j
+final class PeerCacheServer {
+    private final FileSystemAudioCacheManager cache;
+    private final PacketRegistry registry;
+    private final int port;
+    private final byte[] secret;
+    /** Called on the event loop with the announcing node and the track hash. */
+    private final BiConsumer<String, String> onAnnounce;
+
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong servedBytes = new AtomicLong();
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Channel serverChannel;
+
+    PeerCacheServer(FileSystemAudioCacheManager cache, PacketRegistry registry, int port, String secret,
+                    BiConsumer<String, String> onAnnounce) {
+        this.cache = cache;
+        this.registry = registry;
+        this.port = port;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.onAnnounce = onAnnounce;
+    }
+
+    void start() throws InterruptedException {
+        bossGroup = new NioEventLoopGroup(1);
+        workerGroup = new NioEventLoopGroup(2);
+        ServerBootstrap b = new ServerBootstrap();
+        b.group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        Connection connection = new Connection(ch, Enviroment.SERVER);
+                        ch.pipeline()
+                                .addLast("frameEncoder", new ProtobufVarint32LengthFieldPrepender())
+                                .addLast("packetDecoder", new PacketInboundDecoder(registry, connection, PacketDirection.SERVER_BOUND))
+                                .addLast("packetEncoder", new PacketEncoder(registry, connection, PacketDirection.CLIENT_BOUND))
+                                .addLast("handler", connection);
+                        connection.setPhase(NetworkPhase.PEER);
+                        connection.setListener(new PeerConnectionListener(connection));
+                    }
+                });
+        serverChannel = b.bind(port).sync().channel();
+        log.info("Peer cache server listening on port {}", port);
+    }
+
+    void close() {
+        if (serverChannel != null) {
+            serverChannel.close();
+            workerGroup.shutdownGracefully();
+            bossGroup.shutdownGracefully();
+        }
+        if (served.get() > 0) {
+            log.info("Served {} tracks ({} MB) to peers", served.get(), servedBytes.get() >> 20);
+        }
+    }
+
+    private final class PeerConnectionListener implements ServerPeerPacketListener {
+        private final Connection connection;
+        /** Set once the peer authenticated. */
+        private String nodeId;
+
+        PeerConnectionListener(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void onPeerHello(PeerHelloC2SPacket packet) {
+            if (packet.protocolVersion() != Enviroment.PROTOCOL_VERSION) {
+                connection.disconnect("Peer protocol " + packet.protocolVersion() + ", expected " + Enviroment.PROTOCOL_VERSION);
+                return;
+            }
+            if (!MessageDigest.isEqual(secret, packet.secret().getBytes(StandardCharsets.UTF_8))) {
+                connection.disconnect("Wrong peer secret");
+                return;
+            }
+            nodeId = packet.nodeId();
+            log.info("Peer {} connected from {}", nodeId, connection.getChannel().remoteAddress());
+        }
+
+        @Override
+        public void onPeerFetch(PeerFetchC2SPacket packet) {
+            if (nodeId == null) {
+                connection.disconnect("Fetch before hello");
+                return;
+            }
+            String hash = TieredAudioCacheManager.hashOf(packet.key());
+            Path file = hash == null ? null : cache.getCompressedFile(hash);
+            FileChannel channel = null;
+            long length = -1;
+            if (file != null) {
+                try {
+                    channel = FileChannel.open(file, StandardOpenOption.READ);
+                    length = channel.size();
+                } catch (IOException e) {
+                    // Evicted in the meantime
+                    closeQuietly(channel);
+                    channel = null;
+                    length = -1;
+                }
+            }
+
+            Channel socket = connection.getChannel();
+            socket.write(new PeerFetchResponseS2CPacket(packet.requestId(), length));
+            if (channel == null) {
+                socket.flush();
+                return;
+            }
+            long sent = length;
+            // The region owns the file channel and closes it once written
+            socket.writeAndFlush(new DefaultFileRegion(channel, 0, length)).addListener(future -> {
+                if (future.isSuccess()) {
+                    served.incrementAndGet();
+                    servedBytes.addAndGet(sent);
+                } else {
+                    log.debug("Failed to send track {} to peer {}: {}", hash, nodeId, future.cause().getMessage());
+                }
+            });
+        }
+
+        @Override
+        public void onPeerAnnounce(PeerAnnounceC2SPacket packet) {
+            if (nodeId == null) {
+                connection.disconnect("Announce before hello");
+                return;
+            }
+            String hash = TieredAudioCacheManager.hashOf(packet.key());
+            if (hash != null) {
+                onAnnounce.accept(nodeId, hash);
+            }
+        }
+
+        @Override
+        public void onDisconnect(String reason) {
+            log.debug("Peer {} disconnected: {}", nodeId, reason);
+        }
+
+        @Override
+        public Connection getConnection() {
+            return connection;
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Read-only
+            }
+        }
+    }
+}
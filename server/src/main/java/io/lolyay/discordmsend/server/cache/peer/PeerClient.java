@@ -0,0 +1,246 @@
+package io.lolyay.discordmsend.server.cache.peer;
+
+import io.lolyay.discordmsend.network.Enviroment;
+import io.lolyay.discordmsend.network.protocol.Connection;
+import io.lolyay.discordmsend.network.protocol.NetworkPhase;
+import io.lolyay.discordmsend.network.protocol.coder.PacketEncoder;
+import io.lolyay.discordmsend.network.protocol.listeners.client.ClientPeerPacketListener;
+import io.lolyay.discordmsend.network.protocol.packet.Packet;
+import io.lolyay.discordmsend.network.protocol.packet.PacketDirection;
+import io.lolyay.discordmsend.network.protocol.packet.PacketRegistry;
+import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.peer.PeerAnnounceC2SPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.peer.PeerFetchC2SPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.peer.PeerHelloC2SPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.peer.PeerFetchResponseS2CPacket;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.protobuf.ProtobufVarint32LengthFieldPrepender;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Link to the {@link PeerCacheServer} of one other node. Connects on first use and reconnects after the link was
+ * lost. Requests are pipelined on the single connection and answered in order.
+ */
+@Slf4j
+final class PeerClient {
+    private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+    private static final long RESPONSE_TIMEOUT_SECONDS = 10;
+
+    private final String node;
+    private final String host;
+    private final int port;
+    private final EventLoopGroup group;
+    private final PacketRegistry registry;
+    private final PeerHelloC2SPacket hello;
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+
+    /** Guarded by this. */
+    private Channel channel;
+
+    /**
+     * @param node {@code host:port} of the peer
+     */
+    PeerClient(String node, EventLoopGroup group, PacketRegistry registry, String selfId, String secret) {
+        int colon = node.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Peer address is not host:port: " + node);
+        }
+        this.node = node;
+        this.host = node.substring(0, colon);
+        this.port = Integer.parseInt(node.substring(colon + 1));
+        this.group = group;
+        this.registry = registry;
+        this.hello = new PeerHelloC2SPacket(Enviroment.PROTOCOL_VERSION, secret, selfId);
+    }
+
+    /**
+     * Requests a track file from the peer. Blocks for up to the connect and response timeouts, so it must not be
+     * called on an event loop.
+     *
+     * @return the file, or null if the peer does not have it
+     */
+    InputStream fetch(String key) throws IOException {
+        if (group.next().inEventLoop()) {
+            // The answer would be handled by the very thread waiting for it
+            throw new IOException("Cannot fetch from peer " + node + " on the peer event loop");
+        }
+        Channel ch = channel();
+        ResponseHandler handler = ch.pipeline().get(ResponseHandler.class);
+        int requestId = nextRequestId.incrementAndGet();
+        CompletableFuture<PeerResponseStream> response = new CompletableFuture<>();
+        // Queued on the event loop before the request is written, so the answer always finds it
+        ch.eventLoop().execute(() -> {
+            if (ch.isActive()) {
+                handler.pending.add(new PendingFetch(requestId, response));
+                ch.writeAndFlush(new PeerFetchC2SPacket(requestId, key));
+            } else {
+                response.completeExceptionally(new IOException("Connection to peer " + node + " lost"));
+            }
+        });
+        try {
+            return response.get(RESPONSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            // Later answers on this connection would be out of step
+            ch.close();
+            throw new IOException("Peer " + node + " did not answer in time");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for peer " + node);
+        }
+    }
+
+    /**
+     * Tells the peer that this node has the track, without waiting for the connection.
+     */
+    void announce(String key) {
+        try {
+            channel().writeAndFlush(new PeerAnnounceC2SPacket(key));
+        } catch (IOException e) {
+            log.debug("Could not announce {} to peer {}: {}", key, node, e.getMessage());
+        }
+    }
+
+    void close() {
+        synchronized (this) {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    private synchronized Channel channel() throws IOException {
+        if (channel != null && channel.isActive()) {
+            return channel;
+        }
+        Bootstrap b = new Bootstrap();
+        b.group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT_MILLIS)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        // Only used for its phase by the encoder, it is not part of the pipeline
+                        Connection connection = new Connection(ch, Enviroment.CLIENT);
+                        connection.setPhase(NetworkPhase.PEER);
+                        ch.pipeline()
+                                .addLast("frameEncoder", new ProtobufVarint32LengthFieldPrepender())
+                                .addLast("responseDecoder", new PeerResponseDecoder(registry))
+                                .addLast("packetEncoder", new PacketEncoder(registry, connection, PacketDirection.SERVER_BOUND))
+                                .addLast("handler", new ResponseHandler());
+                    }
+                });
+        ChannelFuture connect = b.connect(host, port).awaitUninterruptibly();
+        if (!connect.isSuccess()) {
+            throw new IOException("Could not connect to peer " + node + ": " + connect.cause().getMessage());
+        }
+        channel = connect.channel();
+        channel.writeAndFlush(hello);
+        return channel;
+    }
+
+    private record PendingFetch(int requestId, CompletableFuture<PeerResponseStream> response) {
+    }
+
+    /**
+     * Matches answers to requests and feeds file bytes into the stream of the answer they belong to. Runs on the
+     * event loop only.
+     */
+    private final class ResponseHandler extends ChannelInboundHandlerAdapter implements ClientPeerPacketListener {
+        private final ArrayDeque<PendingFetch> pending = new ArrayDeque<>();
+        private Channel ch;
+        private PeerResponseStream body;
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            ch = ctx.channel();
+        }
+
+        @Override
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            if (msg instanceof ByteBuf chunk) {
+                if (body == null) {
+                    chunk.release();
+                } else if (body.append(chunk)) {
+                    body = null;
+                }
+            } else if (msg instanceof Packet packet) {
+                packet.apply(this);
+            }
+        }
+
+        @Override
+        public void onPeerFetchResponse(PeerFetchResponseS2CPacket packet) {
+            PendingFetch fetch = pending.poll();
+            if (fetch == null || fetch.requestId() != packet.requestId()) {
+                log.warn("Unexpected answer {} from peer {}", packet.requestId(), node);
+                if (fetch != null) {
+                    pending.addFirst(fetch);
+                }
+                ch.close();
+                return;
+            }
+            if (packet.length() < 0) {
+                fetch.response().complete(null);
+                return;
+            }
+            PeerResponseStream stream = new PeerResponseStream(ch, packet.length());
+            if (packet.length() > 0) {
+                body = stream;
+            }
+            fetch.response().complete(stream);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            IOException lost = new IOException("Connection to peer " + node + " lost");
+            if (body != null) {
+                body.fail(lost);
+                body = null;
+            }
+            PendingFetch fetch;
+            while ((fetch = pending.poll()) != null) {
+                fetch.response().completeExceptionally(lost);
+            }
+            ctx.fireChannelInactive();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            log.debug("Peer link to {} failed: {}", node, cause.getMessage());
+            ctx.close();
+        }
+
+        @Override
+        public void onDisconnect(String reason) {
+        }
+
+        @Override
+        public Connection getConnection() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package io.lolyay.discordmsend.server.cache.peer;
+
+import io.lolyay.discordmsend.network.protocol.NetworkPhase;
+import io.lolyay.discordmsend.network.protocol.codec.PacketByteBuf;
+import io.lolyay.discordmsend.network.protocol.packet.Packet;
+import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
+import io.lolyay.discordmsend.network.protocol.packet.PacketDirection;
+import io.lolyay.discordmsend.network.protocol.packet.PacketRegistry;
+import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.peer.PeerFetchResponseS2CPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.util.List;
+
+/**
+ * Inbound side of a peer link: decodes varint length framed {@link NetworkPhase#PEER} packets, and after a
+ * {@link PeerFetchResponseS2CPacket} passes the unframed file bytes that follow it on as {@link ByteBuf} slices.
+ */
+final class PeerResponseDecoder extends ByteToMessageDecoder {
+    private static final int MAX_FRAME_LENGTH = 64 * 1024;
+
+    private final PacketRegistry registry;
+    /** File bytes of the current response that have not arrived yet. */
+    private long bodyRemaining;
+
+    PeerResponseDecoder(PacketRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        if (bodyRemaining > 0) {
+            int n = (int) Math.min(in.readableBytes(), bodyRemaining);
+            out.add(in.readRetainedSlice(n));
+            bodyRemaining -= n;
+            return;
+        }
+
+        int start = in.readerIndex();
+        int frameLength = 0;
+        int headerLength = 0;
+        while (true) {
+            if (headerLength == in.readableBytes()) {
+                return; // length prefix not complete yet
+            }
+            byte b = in.getByte(start + headerLength);
+            frameLength |= (b & 127) << (7 * headerLength++);
+            if ((b & 128) == 0) {
+                break;
+            }
+            if (headerLength == 5) {
+                throw new CorruptedFrameException("Frame length wider than 32 bits");
+            }
+        }
+        if (frameLength <= 0 || frameLength > MAX_FRAME_LENGTH) {
+            throw new CorruptedFrameException("Invalid peer frame length: " + frameLength);
+        }
+        if (in.readableBytes() - headerLength < frameLength) {
+            return; // frame not complete yet
+        }
+
+        in.skipBytes(headerLength);
+        PacketByteBuf buf = new PacketByteBuf(in.readSlice(frameLength));
+        int packetId = buf.readVarInt();
+        PacketCodec<?> codec = registry.getCodec(NetworkPhase.PEER, PacketDirection.CLIENT_BOUND, packetId);
+        if (codec == null) {
+            throw new CorruptedFrameException("Unknown peer packet id: 0x" + Integer.toHexString(packetId));
+        }
+        Packet<?> packet = codec.decoder().apply(buf);
+        if (packet instanceof PeerFetchResponseS2CPacket response && response.length() > 0) {
+            bodyRemaining = response.length();
+        }
+        out.add(packet);
+    }
+}
@@ -0,0 +1,130 @@
+package io.lolyay.discordmsend.server.cache.peer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * File bytes of one peer response, handed from the event loop to the thread that imports the track. The channel
+ * stops reading while more than {@code HIGH_WATER} bytes are queued, so a slow disk does not buffer a whole track
+ * in memory.
+ */
+final class PeerResponseStream extends InputStream {
+    private static final long HIGH_WATER = 4 << 20;
+    private static final long LOW_WATER = 1 << 20;
+    private static final long STALL_TIMEOUT_SECONDS = 30;
+
+    private final Channel channel;
+    private final long length;
+    private final LinkedBlockingQueue<ByteBuf> chunks = new LinkedBlockingQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private volatile IOException failure;
+    private volatile boolean closed;
+
+    // Event loop only
+    private long received;
+
+    // Reader only
+    private ByteBuf current;
+    private long read;
+
+    PeerResponseStream(Channel channel, long length) {
+        this.channel = channel;
+        this.length = length;
+    }
+
+    /**
+     * Queues a chunk. Called on the event loop.
+     *
+     * @return whether the response is complete
+     */
+    boolean append(ByteBuf chunk) {
+        received += chunk.readableBytes();
+        if (closed) {
+            chunk.release();
+        } else {
+            chunks.add(chunk);
+            if (queuedBytes.addAndGet(chunk.readableBytes()) > HIGH_WATER) {
+                channel.config().setAutoRead(false);
+            }
+        }
+        return received >= length;
+    }
+
+    /** The connection was lost before the response was complete. */
+    void fail(IOException cause) {
+        failure = cause;
+        chunks.add(Unpooled.EMPTY_BUFFER);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (current == null || !current.isReadable()) {
+            if (current != null) {
+                current.release();
+                current = null;
+            }
+            if (read >= length) {
+                return -1;
+            }
+            if (failure != null && chunks.isEmpty()) {
+                throw failure;
+            }
+            try {
+                current = chunks.poll(STALL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading from peer");
+            }
+            if (current == null) {
+                channel.close();
+                throw new IOException("Peer " + channel.remoteAddress() + " stalled");
+            }
+        }
+        int n = Math.min(len, current.readableBytes());
+        current.readBytes(b, off, n);
+        read += n;
+        if (queuedBytes.addAndGet(-n) < LOW_WATER && !channel.config().isAutoRead()) {
+            channel.config().setAutoRead(true);
+        }
+        return n;
+    }
+
+    /**
+     * Drops what was not read. The rest of the response is still received, and discarded, so the connection
+     * stays usable.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (current != null) {
+            current.release();
+            current = null;
+        }
+        ByteBuf chunk;
+        while ((chunk = chunks.poll()) != null) {
+            chunk.release();
+        }
+        queuedBytes.set(0);
+        channel.config().setAutoRead(true);
+    }
+}
@@ -0,0 +1,147 @@
+package io.lolyay.discordmsend.server.cache.peer;
+
+import io.lolyay.discordmsend.network.protocol.packet.PacketRegistry;
+import io.lolyay.discordmsend.server.cache.FileSystemAudioCacheManager;
+import io.lolyay.discordmsend.server.cache.ObjectStore;
+import io.lolyay.discordmsend.server.cache.TieredAudioCacheManager;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ObjectStore} made of the local caches of all nodes of the cluster.
+ * <p>
+ * Every track has an owner node, chosen by consistent hashing over the configured node list. A node that cached a
+ * track announces it to the owner, and the owner pulls a copy. A node missing a track asks the owner for it and
+ * waits a moment for the copy (see {@link TieredAudioCacheManager#hasTrack}) before decoding it from the source, so
+ * a track is decoded about once for the whole cluster instead of once per node, as long as the owner keeps it and
+ * answers in time.
+ * <p>
+ * Peer links are authenticated with a shared secret but not encrypted, so the peer port belongs on a private
+ * network.
+ */
+@Slf4j
+public class PeerTrackStore implements ObjectStore {
+    private static final int MAX_QUEUED_PULLS = 256;
+
+    private final FileSystemAudioCacheManager cache;
+    private final String self;
+    private final ConsistentHashRing ring;
+    private final PeerCacheServer server;
+    private final EventLoopGroup clientGroup;
+    /** By {@code host:port}, for every node except this one. */
+    private final Map<String, PeerClient> clients = new HashMap<>();
+    private final ThreadPoolExecutor puller;
+
+    private final AtomicLong pulled = new AtomicLong();
+    private final AtomicLong pullsDropped = new AtomicLong();
+
+    /**
+     * @param port  port to serve the local cache on
+     * @param self  {@code host:port} of this node as the other nodes know it
+     * @param nodes {@code host:port} of all nodes, including this one
+     */
+    public PeerTrackStore(FileSystemAudioCacheManager cache, PacketRegistry registry, int port, String self,
+                          List<String> nodes, String secret) {
+        this.cache = cache;
+        this.self = self;
+        this.ring = new ConsistentHashRing(nodes);
+        if (!nodes.contains(self)) {
+            log.warn("This node ({}) is not in the peer list, it will not own any tracks", self);
+        }
+        this.clientGroup = new NioEventLoopGroup(1);
+        for (String node : nodes) {
+            if (!node.equals(self)) {
+                clients.put(node, new PeerClient(node, clientGroup, registry, self, secret));
+            }
+        }
+        this.server = new PeerCacheServer(cache, registry, port, secret, this::onAnnounce);
+        this.puller = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_QUEUED_PULLS),
+                r -> {
+                    Thread thread = new Thread(r, "Peer-Puller");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (r, executor) -> pullsDropped.incrementAndGet());
+    }
+
+    public void start() throws InterruptedException {
+        server.start();
+    }
+
+    /**
+     * Asks the owner of the track for it. Returns null without asking anyone if this node is the owner, as the
+     * track would be in the local cache then.
+     * <p>
+     * Blocks for seconds when the owner is slow or down, and reading the stream can stall for longer, so this is
+     * only called from the fetcher threads of {@link TieredAudioCacheManager}; a caller waiting for the track
+     * gives up after a short deadline and decodes it from the source.
+     */
+    @Override
+    public InputStream get(String key) throws IOException {
+        PeerClient owner = ownerOf(key);
+        return owner == null ? null : owner.fetch(key);
+    }
+
+    /**
+     * Announces the track to its owner, which pulls a copy if it does not have one.
+     */
+    @Override
+    public void put(String key, Path file) {
+        PeerClient owner = ownerOf(key);
+        if (owner != null) {
+            owner.announce(key);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.close();
+        puller.shutdownNow();
+        clients.values().forEach(PeerClient::close);
+        clientGroup.shutdownGracefully();
+        if (pulled.get() + pullsDropped.get() > 0) {
+            log.info("Pulled {} announced tracks from peers, {} pulls dropped", pulled.get(), pullsDropped.get());
+        }
+    }
+
+    /**
+     * @return the client of the node owning the key, or null if this node owns it
+     */
+    private PeerClient ownerOf(String key) {
+        String hash = TieredAudioCacheManager.hashOf(key);
+        String owner = ring.owner(hash == null ? key : hash);
+        return owner == null || owner.equals(self) ? null : clients.get(owner);
+    }
+
+    /** Called on the peer server's event loop. */
+    private void onAnnounce(String node, String hash) {
+        PeerClient announcer = clients.get(node);
+        if (announcer == null || cache.isCached(hash)) {
+            return;
+        }
+        puller.execute(() -> {
+            if (cache.isCached(hash)) {
+                return;
+            }
+            try (InputStream in = announcer.fetch(TieredAudioCacheManager.objectKey(hash))) {
+                if (in != null && cache.importTrack(hash, in) >= 0) {
+                    pulled.incrementAndGet();
+                }
+            } catch (IOException e) {
+                log.debug("Failed to pull track {} from peer {}: {}", hash, node, e.getMessage());
+            }
+        });
+    }
+}
@@ -15,15 +15,32 @@ public class ConfigFile {
 
     // ==== Fields ====
     public static boolean enableTrackCache = true;
+    public static long trackCacheMaxMb = 20480;
+    public static int trackCacheMinPlays = 2;
+    public static boolean trackCacheFsync = false;
+    public static long trackMemoryCacheMb = 512;
+    public static int trackCacheWarmupTracks = 100;
+    public static long trackCacheWarmupMbPerSecond = 16;
+    public static int opusPrewarmEncoders = 4;
     public static boolean allowDownload = true;
     public static boolean singleGuildHQ = false;
     public static boolean debug = false;
 
+    public static boolean searchFanOut = false;
+    public static long searchDeadlineMs = 3000;
+    public static String searchRanking = "INTERLEAVE";
+
     public static String trackUploadBucketUrl = "";
     public static String publicDownloadBucketUrl = "";
     public static String s3AccessKey = "";
     public static String s3SecretKey = "";
     public static String s3Region = "eu-central-1";
+    public static boolean sharedTrackCache = false;
+    public static String sharedTrackCacheDirectory = "";
+    public static int peerPort = 0;
+    public static String peers = "";
+    public static String peerSelf = "";
+    public static String peerSecret = "";
 
     public static String apiKey = "";
 
@@ -44,15 +61,32 @@ public class ConfigFile {
         CommentedConfigurationNode root = LOADER.load();
 
         enableTrackCache = root.node("enableTrackCache").getBoolean(enableTrackCache);
+        trackCacheMaxMb = root.node("trackCacheMaxMb").getLong(trackCacheMaxMb);
+        trackCacheMinPlays = root.node("trackCacheMinPlays").getInt(trackCacheMinPlays);
+        trackCacheFsync = root.node("trackCacheFsync").getBoolean(trackCacheFsync);
+        trackMemoryCacheMb = root.node("trackMemoryCacheMb").getLong(trackMemoryCacheMb);
+        trackCacheWarmupTracks = root.node("trackCacheWarmupTracks").getInt(trackCacheWarmupTracks);
+        trackCacheWarmupMbPerSecond = root.node("trackCacheWarmupMbPerSecond").getLong(trackCacheWarmupMbPerSecond);
+        opusPrewarmEncoders = root.node("opusPrewarmEncoders").getInt(opusPrewarmEncoders);
         allowDownload = root.node("allowDownload").getBoolean(allowDownload);
         singleGuildHQ = root.node("singleGuildHQ").getBoolean(singleGuildHQ);
         debug = root.node("debug").getBoolean(debug);
 
+        searchFanOut = root.node("searchFanOut").getBoolean(searchFanOut);
+        searchDeadlineMs = root.node("searchDeadlineMs").getLong(searchDeadlineMs);
+        searchRanking = root.node("searchRanking").getString(searchRanking);
+
         trackUploadBucketUrl = root.node("trackUploadBucketUrl").getString(trackUploadBucketUrl);
         publicDownloadBucketUrl = root.node("publicDownloadBucketUrl").getString(publicDownloadBucketUrl);
         s3AccessKey = root.node("s3AccessKey").getString(s3AccessKey);
         s3SecretKey = root.node("s3SecretKey").getString(s3SecretKey);
         s3Region = root.node("s3Region").getString(s3Region);
+        sharedTrackCache = root.node("sharedTrackCache").getBoolean(sharedTrackCache);
+        sharedTrackCacheDirectory = root.node("sharedTrackCacheDirectory").getString(sharedTrackCacheDirectory);
+        peerPort = root.node("peerPort").getInt(peerPort);
+        peers = root.node("peers").getString(peers);
+        peerSelf = root.node("peerSelf").getString(peerSelf);
+        peerSecret = root.node("peerSecret").getString(peerSecret);
 
         apiKey = root.node("apiKey").getString(apiKey);
 
@@ -68,15 +102,32 @@ public class ConfigFile {
         CommentedConfigurationNode root = LOADER.load();
         
         root.node("enableTrackCache").set(enableTrackCache);
+        root.node("trackCacheMaxMb").set(trackCacheMaxMb);
+        root.node("trackCacheMinPlays").set(trackCacheMinPlays);
+        root.node("trackCacheFsync").set(trackCacheFsync);
+        root.node("trackMemoryCacheMb").set(trackMemoryCacheMb);
+        root.node("trackCacheWarmupTracks").set(trackCacheWarmupTracks);
+        root.node("trackCacheWarmupMbPerSecond").set(trackCacheWarmupMbPerSecond);
+        root.node("opusPrewarmEncoders").set(opusPrewarmEncoders);
         root.node("allowDownload").set(allowDownload);
         root.node("singleGuildHQ").set(singleGuildHQ);
         root.node("debug").set(debug);
+
+        root.node("searchFanOut").set(searchFanOut);
+        root.node("searchDeadlineMs").set(searchDeadlineMs);
+        root.node("searchRanking").set(searchRanking);
         
         root.node("trackUploadBucketUrl").set(trackUploadBucketUrl);
         root.node("publicDownloadBucketUrl").set(publicDownloadBucketUrl);
         root.node("s3AccessKey").set(s3AccessKey);
         root.node("s3SecretKey").set(s3SecretKey);
         root.node("s3Region").set(s3Region);
+        root.node("sharedTrackCache").set(sharedTrackCache);
+        root.node("sharedTrackCacheDirectory").set(sharedTrackCacheDirectory);
+        root.node("peerPort").set(peerPort);
+        root.node("peers").set(peers);
+        root.node("peerSelf").set(peerSelf);
+        root.node("peerSecret").set(peerSecret);
 
         root.node("apiKey").set(apiKey);
 
@@ -8,7 +8,6 @@ import io.lolyay.discordmsend.server.music.consumers.AbstractTrackConsumer;
 import io.lolyay.discordmsend.server.music.players.GuildPlayerInstance;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicLong;
 
 
@@ -63,17 +62,13 @@ public class PcmPacketTrackConsumer extends AbstractTrackConsumer {
     public void tick() {
         if (!running || isPaused()) return;
 
-        ArrayList<short[]> pcmFrames = getPlayerInstance().getPcmFrames();
-
         if (udpMode) {
             int pos = getPlayerInstance().getAndIncrementPosition();
-            short[] frame;
-            synchronized (pcmFrames) {
-                if (pos >= pcmFrames.size()) {
-                    getPlayerInstance().getEncodePosition().compareAndSet(pos + 1, pos);
-                    return;
-                }
-                frame = pcmFrames.get(pos);
+            short[] frame = getPlayerInstance().readFrame(pos);
+            if (frame == null) {
+                getPlayerInstance().getEncodePosition().compareAndSet(pos + 1, pos);
+                finishIfEnded(pos);
+                return;
             }
             sendPcmFrame(frame);
             return;
@@ -83,20 +78,24 @@ public class PcmPacketTrackConsumer extends AbstractTrackConsumer {
         if (now < nextSendNs) return;
 
         int pos = getPlayerInstance().getAndIncrementPosition();
-        short[] frame;
-        synchronized (pcmFrames) {
-            if (pos >= pcmFrames.size()) {
-                getPlayerInstance().getEncodePosition().compareAndSet(pos + 1, pos);
-                nextSendNs += FRAME_NS;
-                return;
-            }
-            frame = pcmFrames.get(pos);
+        short[] frame = getPlayerInstance().readFrame(pos);
+        if (frame == null) {
+            getPlayerInstance().getEncodePosition().compareAndSet(pos + 1, pos);
+            finishIfEnded(pos);
+            nextSendNs += FRAME_NS;
+            return;
         }
 
         sendPcmFrame(frame);
         nextSendNs += FRAME_NS;
     }
 
+    private void finishIfEnded(int pos) {
+        if (getPlayerInstance().isTrackFinished(pos)) {
+            getPlayerInstance().onTrackFinished();
+        }
+    }
+
     private void sendPcmFrame(short[] samples) {
         float vol = getVolume();
         if (vol != 1F) {
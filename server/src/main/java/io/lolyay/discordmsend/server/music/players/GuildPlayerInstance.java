@@ -10,11 +10,15 @@ import io.lolyay.discordmsend.server.music.consumers.packet.PcmPacketTrackConsum
 import io.lolyay.discordmsend.server.music.consumers.DiscordTrackConsumer;
 import io.lolyay.discordmsend.server.music.consumers.AbstractTrackConsumer;
 import io.lolyay.discordmsend.server.music.consumers.packet.OpusPacketTrackConsumer;
+import io.lolyay.discordmsend.server.music.providers.IProvider;
+import io.lolyay.discordmsend.server.music.providers.ProviderPool;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import moe.kyokobot.koe.MediaConnection;
 import moe.kyokobot.koe.codec.OpusCodecInfo;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -23,6 +27,11 @@ import java.util.concurrent.atomic.AtomicInteger;
 @Getter
 @Slf4j
 public class GuildPlayerInstance {
+    /** How long before the current track ends the next queued track starts decoding. */
+    private static final long PRELOAD_MS = 10_000;
+    private static final int FRAME_MS = 20;
+    public static final int MAX_CROSSFADE_MS = 12_000;
+
     private final ConnectedPlayer parent;
     private final AbstractTrackConsumer consumer;
     private final long guildId;
@@ -34,11 +43,47 @@ public class GuildPlayerInstance {
 
     private final BlockingQueue<byte[]> opusQueue = new ArrayBlockingQueue<>(100);
 
+    /** Set on standby sinks: the player this sink decodes a queued track for. */
+    @Getter(AccessLevel.NONE)
+    private final GuildPlayerInstance standbyOf;
+
+    /** Tracks to play after the current one; guarded by itself. */
+    @Getter(AccessLevel.NONE)
+    private final ArrayDeque<TrackMetadata> queue = new ArrayDeque<>();
+    /** Next queued track, decoding into its sink ahead of time. */
+    @Getter(AccessLevel.NONE)
+    private volatile QueuedTrack standby;
+    /** Queued track that took over from the consumer's own provider, null while that one plays. */
+    @Getter(AccessLevel.NONE)
+    private volatile QueuedTrack active;
+    /** The consumer's own provider was replaced by a queued track; its late events are stale. */
+    @Getter(AccessLevel.NONE)
+    private volatile boolean ownProviderRetired;
+    @Getter(AccessLevel.NONE)
+    private volatile boolean finishedSent;
+    /** Set by the encoder when the current track ended and the queue has to be advanced on the next tick. */
+    @Getter(AccessLevel.NONE)
+    private volatile boolean advancePending;
+    /** Track whose cached copy turned out corrupt while it played; it is decoded again on the next tick. */
+    @Getter(AccessLevel.NONE)
+    private volatile TrackMetadata recoverPending;
+    /** Frame the track that is decoded again continues at, 0 once it got there. */
+    @Getter(AccessLevel.NONE)
+    private volatile int resumeFrame;
+    /** Track that is decoded again; the client already saw it start. */
+    @Getter(AccessLevel.NONE)
+    private volatile TrackMetadata restarting;
+    /** The consumer's provider is being replaced for {@link #restarting}; its REPLACED is not reported. */
+    @Getter(AccessLevel.NONE)
+    private volatile boolean recovering;
+
+    private volatile int crossfadeMs;
 
 
     public GuildPlayerInstance(long guildId, ConnectedPlayer parent, MediaConnection connection) {
         this.guildId = guildId;
         this.parent = parent;
+        this.standbyOf = null;
         log.debug("Created Discord GuildPlayerInstance for guild {}", guildId);
         connection.setAudioCodec(OpusCodecInfo.INSTANCE);
         consumer = new DiscordTrackConsumer(connection, this);
@@ -47,6 +92,7 @@ public class GuildPlayerInstance {
     public GuildPlayerInstance(long guildId, ConnectedPlayer parent) {
         this.guildId = guildId;
         this.parent = parent;
+        this.standbyOf = null;
         log.debug("Created packet GuildPlayerInstance for guild {}", guildId);
         if (parent.getOwner().getUserData().features().isEnabled(ClientFeatures.Feature.FORCE_OPUS))
             this.consumer = new OpusPacketTrackConsumer(this);
@@ -54,7 +100,27 @@ public class GuildPlayerInstance {
             this.consumer = new PcmPacketTrackConsumer(this);
     }
 
+    /**
+     * Standby sink for a queued track of {@code primary}. Shares its consumer but is never ticked or registered.
+     */
+    private GuildPlayerInstance(GuildPlayerInstance primary) {
+        this.guildId = primary.guildId;
+        this.parent = primary.parent;
+        this.consumer = primary.consumer;
+        this.standbyOf = primary;
+    }
+
     public void tick() {
+        TrackMetadata corrupt = recoverPending;
+        if (corrupt != null) {
+            recoverPending = null;
+            recoverFromCorruptCache(corrupt);
+        } else if (advancePending) {
+            advancePending = false;
+            playNextQueued();
+        } else {
+            prepareStandby();
+        }
         consumer.tick();
     }
 
@@ -69,8 +135,118 @@ public class GuildPlayerInstance {
         return encodePosition.getAndIncrement();
     }
 
-    public io.lolyay.discordmsend.server.music.providers.IProvider getAudioProvider() {
-        return consumer.getAudioProvider();
+    /**
+     * @return the provider of the track that is playing right now
+     */
+    public IProvider getAudioProvider() {
+        QueuedTrack current = active;
+        return current != null ? current.provider : consumer.getAudioProvider();
+    }
+
+    public TrackMetadata getPlayingTrack() {
+        return getAudioProvider().getPlayingTrack();
+    }
+
+    /**
+     * Reads frame {@code pos} of the current track. Once the current track's decoder is done and a queued track
+     * is ready, the last {@link #crossfadeMs} are mixed with the start of the queued track, and reading past the
+     * end switches over to it on the exact next frame.
+     *
+     * @return the frame, or null if it is not decoded yet or the track is over (see {@link #isTrackFinished})
+     */
+    public short[] readFrame(int pos) {
+        int resume = resumeFrame;
+        if (pos < resume) {
+            // Decoded again after a corrupt cached copy: skip what was already played
+            encodePosition.compareAndSet(pos + 1, resume);
+            return null;
+        }
+        ArrayList<short[]> frames = activeFrames();
+        boolean ended = getAudioProvider().isStreamEnded();
+        short[] frame;
+        int size;
+        synchronized (frames) {
+            size = frames.size();
+            frame = pos < size ? frames.get(pos) : null;
+        }
+        if (resume > 0 && frame != null) {
+            resumeFrame = 0;
+        }
+
+        QueuedTrack next = standby;
+        if (!ended || next == null || next.failed) {
+            return frame;
+        }
+        int fadeStart = Math.max(0, size - crossfadeMs / FRAME_MS);
+        int fadeFrom = next.fadeFrom;
+        if (frame != null) {
+            if (pos < fadeStart) {
+                return frame;
+            }
+            if (fadeFrom < 0) {
+                // Decided once, where the fade is first reached: only fade if all of it is decoded already
+                fadeFrom = next.frame(size - pos - 1) != null ? pos : size;
+                next.fadeFrom = fadeFrom;
+            }
+            // Frame pos - fadeFrom of the queued track goes with frame pos, so seeking keeps them lined up
+            short[] incoming = pos >= fadeFrom ? next.frame(pos - fadeFrom) : null;
+            if (incoming == null) {
+                return frame;
+            }
+            return mix(frame, incoming, (pos - fadeFrom + 0.5f) / (size - fadeFrom));
+        }
+        // Continue right after the frames that were faded in
+        int offset = fadeFrom < 0 ? 0 : size - fadeFrom;
+        return next.isReady() ? switchToStandby(next, offset, EndReason.FINISHED) : null;
+    }
+
+    /**
+     * @return true if everything of the current track up to {@code pos} was played and nothing can follow gaplessly
+     */
+    public boolean isTrackFinished(int pos) {
+        if (!getAudioProvider().isStreamEnded()) {
+            return false;
+        }
+        ArrayList<short[]> frames = activeFrames();
+        synchronized (frames) {
+            return pos >= frames.size();
+        }
+    }
+
+    /**
+     * @return true while the current track is decoded again up to where it was, so the frame reader should wait
+     * for it instead of giving up
+     */
+    public boolean isCatchingUp() {
+        return resumeFrame > 0;
+    }
+
+    /**
+     * Called by the frame reader once {@link #isTrackFinished} is true. Reports the end once and plays the next
+     * queued track the normal way on the next tick if it could not be switched to gaplessly.
+     */
+    public synchronized void onTrackFinished() {
+        if (finishedSent) {
+            return;
+        }
+        finishedSent = true;
+        TrackMetadata track = getPlayingTrack();
+        if (track != null) {
+            log.info("Track '{}' finished naturally for guild {}", track.trackName(), guildId);
+            emitTrackEnd(track, EndReason.FINISHED);
+        }
+        QueuedTrack next = standby;
+        if (next != null) {
+            // Not decoded in time (or failed): start it from scratch instead
+            standby = null;
+            next.retire();
+            synchronized (queue) {
+                queue.addFirst(next.track);
+            }
+        }
+        synchronized (queue) {
+            advancePending = !queue.isEmpty();
+        }
     }
 
     public float getConsumerVolume() {
@@ -81,24 +257,366 @@ public class GuildPlayerInstance {
     }
 
     public boolean isPaused() { return consumer.isPaused(); }
-    public void playTrack(TrackMetadata track) { consumer.playTrack(track); }
     public void setVolume(float volume) { consumer.setVolume(volume); }
     public int getVolume() { return (int) (consumer.getVolume() * 100); }
-    public void stop() { consumer.stop(); }
     public void pause() { consumer.pause(); onPause(); }
     public void resume() { consumer.resume(); onResume(); }
     public float getDefaultVolume() { return parent.getDefaultVolume(); }
 
+    public synchronized void playTrack(TrackMetadata track) {
+        QueuedTrack previous = active;
+        if (previous != null) {
+            active = null;
+            emitTrackEnd(previous.track, EndReason.REPLACED);
+            previous.retire();
+        }
+        if (ownProviderRetired) {
+            consumer.getAudioProvider().cleanup(); // its REPLACED is stale and still muted
+            ownProviderRetired = false;
+        }
+        finishedSent = false;
+        clearRecovery();
+        linkCachedContent(track);
+        consumer.playTrack(track);
+    }
+
+    /** Lets the cache serve this URI from a cached copy of the same recording under another URI. */
+    private void linkCachedContent(TrackMetadata track) {
+        if (track.isrc() != null && !track.isrc().isBlank()) {
+            parent.getDstServer().getAudioCacheManager().linkContent(track.trackUrl(), "isrc:" + track.isrc());
+        }
+    }
+
+    public synchronized void stop() {
+        QueuedTrack previous = active;
+        if (previous != null) {
+            active = null;
+            emitTrackEnd(previous.track, EndReason.STOPPED);
+            previous.retire();
+        }
+        dropStandby();
+        clearRecovery();
+        consumer.stop();
+        ownProviderRetired = false;
+    }
+
+    /**
+     * Queues a track. Starts it right away if nothing is playing.
+     */
+    public void queueTrack(TrackMetadata track) {
+        if (track == null) {
+            return;
+        }
+        synchronized (this) {
+            if (isIdle()) {
+                playTrack(track);
+                return;
+            }
+            synchronized (queue) {
+                queue.addLast(track);
+            }
+        }
+    }
+
+    public void clearQueue() {
+        synchronized (queue) {
+            queue.clear();
+        }
+        synchronized (this) {
+            QueuedTrack next = standby;
+            if (next != null) {
+                standby = null;
+                next.retire();
+            }
+        }
+    }
+
+    /**
+     * Ends the current track and continues with the next queued one, switching over gaplessly if it is
+     * already decoded. Stops if nothing is queued.
+     */
+    public synchronized void skip() {
+        QueuedTrack next = standby;
+        if (next != null && next.isReady()) {
+            switchToStandby(next, 0, EndReason.REPLACED);
+            opusQueue.clear();
+            return;
+        }
+        if (next != null) {
+            standby = null;
+            next.retire();
+            playTrack(next.track);
+            return;
+        }
+        TrackMetadata queued;
+        synchronized (queue) {
+            queued = queue.pollFirst();
+        }
+        if (queued != null) {
+            playTrack(queued);
+        } else {
+            stop();
+        }
+    }
+
+    public int getQueueSize() {
+        synchronized (queue) {
+            return queue.size() + (standby != null ? 1 : 0);
+        }
+    }
+
+    public void setCrossfadeMs(int crossfadeMs) {
+        this.crossfadeMs = Math.max(0, Math.min(MAX_CROSSFADE_MS, crossfadeMs));
+    }
+
+    /**
+     * @return true if nothing is playing and nothing is about to
+     */
+    private boolean isIdle() {
+        return ((!consumer.isPlaying() && active == null) || finishedSent) && !advancePending;
+    }
+
+    private ArrayList<short[]> activeFrames() {
+        QueuedTrack current = active;
+        return current != null ? current.sink.getPcmFrames() : pcmFrames;
+    }
+
+    /**
+     * Starts decoding the head of the queue once the current track is about to end.
+     */
+    private synchronized void prepareStandby() {
+        if (standby != null || isIdle() || finishedSent) {
+            return;
+        }
+        TrackMetadata current = getPlayingTrack();
+        if (current == null) {
+            return;
+        }
+        long remaining;
+        if (getAudioProvider().isStreamEnded()) {
+            ArrayList<short[]> frames = activeFrames();
+            synchronized (frames) {
+                remaining = frames.size() * (long) FRAME_MS - getPosition();
+            }
+        } else if (current.durationMs() > 0) {
+            remaining = current.durationMs() - getPosition();
+        } else {
+            return;
+        }
+        if (remaining > PRELOAD_MS + crossfadeMs) {
+            return;
+        }
+
+        TrackMetadata track;
+        synchronized (queue) {
+            track = queue.pollFirst();
+        }
+        if (track == null) {
+            return;
+        }
+        GuildPlayerInstance sink = new GuildPlayerInstance(this);
+        IProvider provider = ProviderPool.getInstance().createProvider(sink, parent.getDstServer().getAudioCacheManager(), null);
+        QueuedTrack next = new QueuedTrack(track, sink, provider);
+        standby = next;
+        if (provider == null) {
+            log.warn("No provider available to prepare '{}' for guild {}", track.trackName(), guildId);
+            return;
+        }
+        try {
+            linkCachedContent(track);
+            provider.playTrack(track, sink);
+            log.debug("Preparing queued track '{}' for guild {}", track.trackName(), guildId);
+        } catch (Exception e) {
+            log.warn("Failed to prepare queued track '{}' for guild {}: {}", track.trackName(), guildId, e.getMessage());
+            next.failed = true;
+        }
+    }
+
+    private synchronized void playNextQueued() {
+        TrackMetadata next;
+        synchronized (queue) {
+            next = queue.pollFirst();
+        }
+        if (next != null) {
+            playTrack(next);
+        }
+    }
+
+    /**
+     * Makes the standby track the current one, continuing at frame {@code offset} of it.
+     */
+    private synchronized short[] switchToStandby(QueuedTrack next, int offset, EndReason reason) {
+        if (standby != next) {
+            return null; // raced with skip, stop or clear
+        }
+        TrackMetadata ended = getPlayingTrack();
+        QueuedTrack previous = active;
+        standby = null;
+        active = next;
+        finishedSent = false;
+        if (previous != null) {
+            previous.retire();
+        } else {
+            ownProviderRetired = true;
+            synchronized (pcmFrames) {
+                pcmFrames.clear();
+            }
+        }
+
+        short[] frame = next.frame(offset);
+        encodePosition.set(frame != null ? offset + 1 : offset);
+        if (ended != null) {
+            emitTrackEnd(ended, reason);
+        }
+        if (!next.startSent) {
+            next.startSent = true;
+            emitTrackStart(next.track);
+        }
+        log.debug("Switched guild {} to queued track '{}' at frame {}", guildId, next.track.trackName(), offset);
+        return frame;
+    }
+
+    /**
+     * Plays the current track again after its cached copy failed, continuing where it was. The cache dropped the
+     * copy (or never finished writing it), so the provider decodes it from the source; the client sees neither the
+     * failure nor a second start.
+     */
+    private synchronized void recoverFromCorruptCache(TrackMetadata track) {
+        int position = encodePosition.get();
+        log.warn("Cached copy of '{}' failed, decoding it again from {} ms for guild {}",
+                track.trackName(), position * (long) FRAME_MS, guildId);
+        QueuedTrack previous = active;
+        if (previous != null) {
+            active = null;
+            previous.retire();
+        }
+        if (ownProviderRetired) {
+            consumer.getAudioProvider().cleanup(); // its REPLACED is stale and still muted
+            ownProviderRetired = false;
+        }
+        finishedSent = false;
+        resumeFrame = position;
+        restarting = track;
+        recovering = true;
+        try {
+            consumer.playTrack(track);
+        } finally {
+            recovering = false;
+        }
+        if (!consumer.isPlaying()) {
+            // Failed to start, which was reported
+            clearRecovery();
+        }
+    }
+
+    /**
+     * @return whether the failure came from a corrupt cached copy, in which case the track is decoded again on the
+     * next tick instead of the failure being reported
+     */
+    private boolean recoverIfCacheCorrupt(TrackMetadata track) {
+        if (track == null || !parent.getDstServer().getAudioCacheManager().takeCorrupted(track.trackUrl())) {
+            return false;
+        }
+        recoverPending = track;
+        return true;
+    }
+
+    private void clearRecovery() {
+        recoverPending = null;
+        resumeFrame = 0;
+        restarting = null;
+    }
+
+    private void dropStandby() {
+        QueuedTrack next = standby;
+        if (next != null) {
+            standby = null;
+            next.retire();
+            synchronized (queue) {
+                queue.addFirst(next.track);
+            }
+        }
+    }
+
+    private static short[] mix(short[] out, short[] in, float progress) {
+        short[] mixed = new short[Math.min(out.length, in.length)];
+        float inGain = Math.max(0F, Math.min(1F, progress));
+        float outGain = 1F - inGain;
+        for (int i = 0; i < mixed.length; i++) {
+            int sample = (int) (out[i] * outGain + in[i] * inGain);
+            mixed[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+        }
+        return mixed;
+    }
+
 
-    //TODO
     public void onTrackStart(TrackMetadata track) {
+        if (standbyOf != null) {
+            standbyOf.onQueuedTrackStart(this, track);
+        } else if (!ownProviderRetired) {
+            if (track.equals(restarting)) {
+                restarting = null;
+            } else {
+                emitTrackStart(track);
+            }
+        }
+    }
+
+    public void onTrackEnd(TrackMetadata track, EndReason reason) {
+        if (standbyOf != null) {
+            standbyOf.onQueuedTrackEnd(this, track, reason);
+        } else if (!ownProviderRetired && !recovering) {
+            emitTrackEnd(track, reason);
+        }
+    }
+
+    public void onTrackFail(TrackMetadata track, Severity severity, String message) {
+        if (standbyOf != null) {
+            standbyOf.onQueuedTrackFail(this, track, severity, message);
+        } else if (!ownProviderRetired && !recoverIfCacheCorrupt(track)) {
+            emitTrackFail(track, severity, message);
+        }
+    }
+
+    // Start of a queued track is only reported when it actually takes over
+    private void onQueuedTrackStart(GuildPlayerInstance sink, TrackMetadata track) {
+        QueuedTrack current = active;
+        if (current != null && current.sink == sink && !current.retired && !current.startSent) {
+            current.startSent = true;
+            emitTrackStart(track);
+        }
+    }
+
+    private void onQueuedTrackEnd(GuildPlayerInstance sink, TrackMetadata track, EndReason reason) {
+        QueuedTrack current = active;
+        if (current != null && current.sink == sink && !current.retired) {
+            emitTrackEnd(track, reason);
+        }
+    }
+
+    private void onQueuedTrackFail(GuildPlayerInstance sink, TrackMetadata track, Severity severity, String message) {
+        QueuedTrack current = active;
+        if (current != null && current.sink == sink && !current.retired) {
+            if (!recoverIfCacheCorrupt(track)) {
+                emitTrackFail(track, severity, message);
+            }
+            return;
+        }
+        QueuedTrack next = standby;
+        if (next != null && next.sink == sink) {
+            log.warn("Queued track '{}' failed to prepare for guild {}: {}", track.trackName(), guildId, message);
+            next.failed = true;
+        }
+    }
+
+    private void emitTrackStart(TrackMetadata track) {
         int trackId = parent.getDstServer().unResolve(track).getTrackId();
         parent.getOwner().sendPacket(new PlayerTrackStartS2CPacket(getGuildId(), trackId));
         parent.getOwner().sendPacket(new TrackTimingUpdateS2CPacket(
                 TrackTimingUpdateS2CPacket.TrackTimingUpdateType.STARTED, getGuildId(), System.currentTimeMillis()));
     }
 
-    public void onTrackEnd(TrackMetadata track, EndReason reason) {
+    private void emitTrackEnd(TrackMetadata track, EndReason reason) {
         int trackId = parent.getDstServer().unResolve(track).getTrackId();
         parent.getOwner().sendPacket(new PlayerTrackEndS2CPacket(getGuildId(), trackId, reason));
         if (reason == EndReason.STOPPED) {
@@ -108,7 +626,7 @@ public class GuildPlayerInstance {
         }
     }
 
-    public void onTrackFail(TrackMetadata track, Severity severity, String message) {
+    private void emitTrackFail(TrackMetadata track, Severity severity, String message) {
         int trackId = parent.getDstServer().unResolve(track).getTrackId();
         parent.getOwner().sendPacket(new PlayerTrackFailS2CPacket(getGuildId(), trackId, severity, message));
     }
@@ -0,0 +1,61 @@
+package io.lolyay.discordmsend.server.music.players;
+
+import io.lolyay.discordmsend.network.types.TrackMetadata;
+import io.lolyay.discordmsend.server.music.providers.IProvider;
+
+import java.util.ArrayList;
+
+/**
+ * A queued track decoded by its own provider into a standby sink, so it can take over from the current track
+ * without a gap. The sink is a {@link GuildPlayerInstance} that is never ticked; it only collects PCM frames and
+ * hands the provider's events to the player it belongs to.
+ */
+final class QueuedTrack {
+    final TrackMetadata track;
+    final GuildPlayerInstance sink;
+    final IProvider provider;
+
+    /** The provider failed or could not be created; the track has to be played the normal way. */
+    volatile boolean failed;
+    /** Start was already reported to the client. */
+    volatile boolean startSent;
+    /** Replaced or dropped; events of its provider are ignored from now on. */
+    volatile boolean retired;
+    /**
+     * Frame of the current track the crossfade into this track starts at, the current track's length if it does
+     * not fade in, -1 until that is decided.
+     */
+    volatile int fadeFrom = -1;
+
+    QueuedTrack(TrackMetadata track, GuildPlayerInstance sink, IProvider provider) {
+        this.track = track;
+        this.sink = sink;
+        this.provider = provider;
+        this.failed = provider == null;
+    }
+
+    /**
+     * @return decoded frame {@code index}, or null if it is not decoded (yet)
+     */
+    short[] frame(int index) {
+        ArrayList<short[]> frames = sink.getPcmFrames();
+        synchronized (frames) {
+            return index >= 0 && index < frames.size() ? frames.get(index) : null;
+        }
+    }
+
+    boolean isReady() {
+        return !failed && frame(0) != null;
+    }
+
+    void retire() {
+        retired = true;
+        if (provider != null) {
+            provider.cleanup();
+        }
+        ArrayList<short[]> frames = sink.getPcmFrames();
+        synchronized (frames) {
+            frames.clear();
+        }
+    }
+}
@@ -7,6 +7,7 @@ import lombok.extern.slf4j.Slf4j;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 @Slf4j
 public class OpusEncoderPool {
@@ -15,6 +16,12 @@ public class OpusEncoderPool {
     private final int framesPerTick;
     private final List<OpusEncoderThread> threads = new ArrayList<>();
     private final Object lock = new Object();
+    /** Encoders created ahead of time by {@link #prewarm}, handed out before new ones are created. */
+    private final ConcurrentLinkedQueue<OpusEncoder> spareEncoders = new ConcurrentLinkedQueue<>();
+
+    /** 10 s of audio, enough for the JIT to compile the encoder's hot loops. */
+    private static final int WARMUP_FRAMES = 500;
+    private static final int FRAME_SIZE = 960;
 
     public OpusEncoderPool(int maxThreads, int framesPerTick) {
         this.maxThreads = maxThreads;
@@ -68,6 +75,49 @@ public class OpusEncoderPool {
     }
 
 
+    /**
+     * Creates {@code count} encoders on a minimum priority background thread, and runs the first through a few
+     * seconds of audio so the first track played after startup is not encoded by the interpreter.
+     */
+    public void prewarm(int count) {
+        if (count <= 0) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            long start = System.nanoTime();
+            try {
+                OpusEncoder encoder = createEncoder();
+                short[] frame = new short[FRAME_SIZE * 2];
+                byte[] out = new byte[4000];
+                for (int i = 0; i < WARMUP_FRAMES; i++) {
+                    for (int j = 0; j < frame.length; j += 2) {
+                        frame[j] = frame[j + 1] = (short) (8000 * Math.sin((i * FRAME_SIZE + j / 2) * 0.0628));
+                    }
+                    encoder.encode(frame, 0, FRAME_SIZE, out, 0, out.length);
+                }
+                encoder.resetState();
+                spareEncoders.add(encoder);
+                for (int i = 1; i < count; i++) {
+                    spareEncoders.add(createEncoder());
+                }
+                log.info("Pre-created {} Opus encoders in {} ms", count, (System.nanoTime() - start) / 1_000_000);
+            } catch (OpusException e) {
+                log.warn("Failed to pre-create Opus encoders: {}", e.getMessage());
+            }
+        }, "Opus-Prewarm");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * @return a pre-created encoder if there is one left, otherwise a new one
+     */
+    OpusEncoder obtainEncoder() throws OpusException {
+        OpusEncoder spare = spareEncoders.poll();
+        return spare != null ? spare : createEncoder();
+    }
+
     public static OpusEncoder createEncoder() throws OpusException {
         OpusEncoder encoder = new OpusEncoder(48000, 2, OpusApplication.OPUS_APPLICATION_AUDIO);
         encoder.setBitrate(OpusConstants.OPUS_BITRATE_MAX);
@@ -1,15 +1,12 @@
 package io.lolyay.discordmsend.server.music.pools.opus;
 
 import io.github.jaredmdobson.concentus.OpusException;
-import io.lolyay.discordmsend.network.types.TrackMetadata;
-import io.lolyay.discordmsend.obj.EndReason;
 import io.lolyay.discordmsend.server.music.players.GuildPlayerInstance;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 
 @Slf4j
@@ -33,7 +30,7 @@ public class OpusEncodingTask {
     @SneakyThrows
     public OpusEncodingTask(GuildPlayerInstance player, int framesPerTick, OpusEncoderPool pool) {
         this.player = player;
-        this.encoder = OpusEncoderPool.createEncoder();
+        this.encoder = pool.obtainEncoder();
         this.framesPerTick = framesPerTick;
         this.pool = pool;
     }
@@ -41,39 +38,28 @@ public class OpusEncodingTask {
     public void process() {
         if (!running) return;
 
-        ArrayList<short[]> pcmFrames = player.getPcmFrames();
-        boolean streamEnded = player.getConsumer().getAudioProvider().isStreamEnded();
-
         for (int i = 0; i < framesPerTick; i++) {
             if (player.getOpusQueue().remainingCapacity() == 0) return;
 
             int pos = player.getAndIncrementPosition();
-            short[] frame;
-
-            synchronized (pcmFrames) {
-                if (pos >= pcmFrames.size()) {
-                    player.getEncodePosition().compareAndSet(pos + 1, pos);
-
-                    if (streamEnded) {
-                        log.debug("Encoding complete for guild {} ({} frames)", player.getGuildId(), pos);
-                        TrackMetadata track =
-                                player.getConsumer().getAudioProvider().getPlayingTrack();
-                        if (track != null) {
-                            log.info("Track '{}' finished naturally for guild {}", track.trackName(), player.getGuildId());
-                            player.onTrackEnd(track, EndReason.FINISHED);
-                        }
+            short[] frame = player.readFrame(pos);
+
+            if (frame == null) {
+                player.getEncodePosition().compareAndSet(pos + 1, pos);
+
+                if (player.isTrackFinished(pos)) {
+                    log.debug("Encoding complete for guild {} ({} frames)", player.getGuildId(), pos);
+                    player.onTrackFinished();
+                    stop();
+                } else if (!player.isCatchingUp()) {
+                    idleTicks++;
+                    if (idleTicks >= IDLE_TICK_LIMIT) {
+                        log.warn("Encoder idle for {}ms for guild {} — stopping stale task",
+                                IDLE_TICK_LIMIT, player.getGuildId());
                         stop();
-                    } else {
-                        idleTicks++;
-                        if (idleTicks >= IDLE_TICK_LIMIT) {
-                            log.warn("Encoder idle for {}ms for guild {} — stopping stale task",
-                                    IDLE_TICK_LIMIT, player.getGuildId());
-                            stop();
-                        }
                     }
-                    return;
                 }
-                frame = pcmFrames.get(pos);
+                return;
             }
 
             idleTicks = 0;
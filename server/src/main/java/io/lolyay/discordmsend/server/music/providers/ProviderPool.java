@@ -6,24 +6,65 @@ import io.lolyay.discordmsend.server.cache.AudioCacheManager;
 import io.lolyay.discordmsend.server.music.players.GuildPlayerInstance;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiFunction;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 
+@Slf4j
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public class ProviderPool {
     @Getter
     private static final ProviderPool instance = new ProviderPool();
+    /** Searches that may run at once in fan-out mode; a hung searcher keeps its thread until it returns. */
+    private static final int MAX_SEARCH_THREADS = 32;
+    /** Searches that may wait for a thread; beyond that a searcher is skipped for the search. */
+    private static final int MAX_QUEUED_SEARCHES = 64;
 
     private final Map<BiFunction<GuildPlayerInstance, AudioCacheManager, ? extends IProvider>, TriPredicate<GuildPlayerInstance, AudioCacheManager, String>> providers = new Object2ObjectOpenHashMap<>();
     private final List<ISearcher> searchers = new ObjectArrayList<>();
 
+    /** Query every eligible searcher in parallel instead of only the first one. */
+    @Getter
+    @Setter
+    private volatile boolean fanOut = false;
+    /** Time a fan-out search waits for searchers before going with the results it has. */
+    @Getter
+    @Setter
+    private volatile long searchDeadlineMillis = 3000;
+    @Setter
+    private volatile SearchRanking ranking = SearchRanking.INTERLEAVE;
+
+    private final ThreadPoolExecutor searchExecutor = createSearchExecutor();
+    /** Searchers skipped because every search thread was busy and the queue was full. */
+    private final AtomicLong searchesRejected = new AtomicLong();
+
+    /**
+     * Merged results of a {@link #fanOutSearch}.
+     *
+     * @param partial whether a searcher was skipped, failed or missed the deadline, so results may be missing
+     */
+    public record FanOutResult(List<TrackMetadata> tracks, boolean partial) {
+    }
+
     public void register(BiFunction<GuildPlayerInstance, AudioCacheManager, ? extends IProvider> provider, TriPredicate<GuildPlayerInstance, AudioCacheManager, String> playablePredicate) {
         providers.put(provider, playablePredicate);
     }
@@ -45,14 +86,133 @@ public class ProviderPool {
         return null;
     }
 
-    public List<TrackMetadata> search(String query, int limit) {
-        List<TrackMetadata> results = new ObjectArrayList<>();
+    /**
+     * @return the searcher that handles this query, or null if none can
+     */
+    public ISearcher getSearcher(String query) {
         for (ISearcher searcher : searchers) {
             if(searcher.canSearch(query)) {
-                results.addAll(searcher.search(query, limit));
-                return results;
+                return searcher;
             }
         }
+        return null;
+    }
+
+    public List<TrackMetadata> search(String query, int limit) {
+        if (fanOut) {
+            return fanOutSearch(query, limit).tracks();
+        }
+        List<TrackMetadata> results = new ObjectArrayList<>();
+        ISearcher searcher = getSearcher(query);
+        if (searcher != null) {
+            results.addAll(searcher.search(query, limit));
+        }
         return results;
     }
+
+    /**
+     * Runs the query on every searcher that can handle it in parallel and merges whatever arrived before
+     * the deadline with the configured {@link SearchRanking}. Results are deduplicated by ISRC, or by
+     * identifier for tracks without one; the first searcher (in registration order) to return a track keeps it.
+     */
+    public FanOutResult fanOutSearch(String query, int limit) {
+        List<ISearcher> eligible = new ObjectArrayList<>();
+        for (ISearcher searcher : searchers) {
+            if (searcher.canSearch(query)) {
+                eligible.add(searcher);
+            }
+        }
+        if (eligible.isEmpty()) {
+            return new FanOutResult(new ObjectArrayList<>(), false);
+        }
+
+        List<Future<List<TrackMetadata>>> futures = new ObjectArrayList<>(eligible.size());
+        for (ISearcher searcher : eligible) {
+            try {
+                futures.add(searchExecutor.submit(() -> searcher.search(query, limit)));
+            } catch (RejectedExecutionException e) {
+                searchesRejected.incrementAndGet();
+                log.warn("Search pool is saturated ({} searches running, likely hung), skipping {} for this search",
+                        searchExecutor.getActiveCount(), searcher.getClass().getSimpleName());
+                futures.add(null);
+            }
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(searchDeadlineMillis);
+        List<List<TrackMetadata>> results = new ObjectArrayList<>(eligible.size());
+        Set<String> seen = new ObjectOpenHashSet<>();
+        boolean partial = false;
+        for (int i = 0; i < futures.size(); i++) {
+            Future<List<TrackMetadata>> future = futures.get(i);
+            if (future == null) {
+                partial = true;
+                continue;
+            }
+            String searcherName = eligible.get(i).getClass().getSimpleName();
+            try {
+                List<TrackMetadata> searcherResults = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                results.add(dedupe(searcherResults, seen));
+            } catch (TimeoutException e) {
+                partial = true;
+                cancel(future);
+                log.warn("Searcher {} missed the {}ms deadline for \"{}\"", searcherName, searchDeadlineMillis, query);
+            } catch (ExecutionException e) {
+                partial = true;
+                log.warn("Searcher {} failed for \"{}\": {}", searcherName, query, e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                partial = true;
+                futures.forEach(f -> {
+                    if (f != null) {
+                        cancel(f);
+                    }
+                });
+                break;
+            }
+        }
+        return new FanOutResult(ranking.rank(query, results, limit), partial);
+    }
+
+    /**
+     * @return searchers skipped so far because the search pool was saturated
+     */
+    public long getSearchesRejected() {
+        return searchesRejected.get();
+    }
+
+    /**
+     * Interrupts a search that is running, or takes it out of the queue so it does not hold a slot there.
+     */
+    private void cancel(Future<?> future) {
+        future.cancel(true);
+        if (future instanceof Runnable task) {
+            searchExecutor.remove(task);
+        }
+    }
+
+    private static List<TrackMetadata> dedupe(List<TrackMetadata> tracks, Set<String> seen) {
+        List<TrackMetadata> unique = new ObjectArrayList<>(tracks == null ? 0 : tracks.size());
+        if (tracks == null) {
+            return unique;
+        }
+        for (TrackMetadata track : tracks) {
+            String key = track.isrc() != null && !track.isrc().isBlank() ? "isrc:" + track.isrc() : "id:" + track.identifier();
+            if (seen.add(key)) {
+                unique.add(track);
+            }
+        }
+        return unique;
+    }
+
+    private static ThreadPoolExecutor createSearchExecutor() {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_SEARCH_THREADS, MAX_SEARCH_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_SEARCHES), r -> {
+            Thread thread = new Thread(r, "Search-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 }
@@ -0,0 +1,59 @@
+package io.lolyay.discordmsend.server.music.providers;
+
+import io.lolyay.discordmsend.network.types.TrackMetadata;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.util.List;
+
+/**
+ * Merges the results of a fan-out search into one list.
+ */
+@FunctionalInterface
+public interface SearchRanking {
+    /**
+     * @param query   the search query
+     * @param results the deduplicated results of every searcher that answered in time, in registration order,
+     *                each in the order its searcher returned them
+     * @param limit   maximum number of results to return
+     */
+    List<TrackMetadata> rank(String query, List<List<TrackMetadata>> results, int limit);
+
+    /** Best result of every searcher first, then the second best of every searcher, and so on. */
+    SearchRanking INTERLEAVE = (query, results, limit) -> {
+        List<TrackMetadata> ranked = new ObjectArrayList<>();
+        for (int position = 0; ranked.size() < limit; position++) {
+            boolean any = false;
+            for (List<TrackMetadata> searcherResults : results) {
+                if (position < searcherResults.size() && ranked.size() < limit) {
+                    ranked.add(searcherResults.get(position));
+                    any = true;
+                }
+            }
+            if (!any) {
+                break;
+            }
+        }
+        return ranked;
+    };
+
+    /** All results of the first registered searcher, then those of the next one. */
+    SearchRanking IN_ORDER = (query, results, limit) -> {
+        List<TrackMetadata> ranked = new ObjectArrayList<>();
+        for (List<TrackMetadata> searcherResults : results) {
+            for (TrackMetadata track : searcherResults) {
+                if (ranked.size() >= limit) {
+                    return ranked;
+                }
+                ranked.add(track);
+            }
+        }
+        return ranked;
+    };
+
+    /**
+     * @return the built-in ranking with this name (case-insensitive), {@link #INTERLEAVE} if unknown
+     */
+    static SearchRanking byName(String name) {
+        return "IN_ORDER".equalsIgnoreCase(name) ? IN_ORDER : INTERLEAVE;
+    }
+}
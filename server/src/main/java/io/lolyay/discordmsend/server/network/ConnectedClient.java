@@ -20,13 +20,20 @@ import java.lang.management.ManagementFactory;
 @Slf4j
 public class ConnectedClient {
     private final int protocolVersion;
-    private final Connection connection;
+    private volatile Connection connection;
     private final DstServer dstServer;
 
     private ConnectedPlayer player;
 
     private CUserData userData;
 
+    /** Resumption session id, 0 until the first ticket is issued. */
+    private long sessionId;
+    /** Time the connection was lost while waiting for a resumed session, 0 while attached. */
+    private volatile long detachedAt;
+    /** Track ids sent to this client, so cache expiry only tells it about ids it can have cached. */
+    private final KnownTrackSet knownTracks = new KnownTrackSet();
+
     public ConnectedClient(int protocolVersion, Connection connection, DstServer dstServer) {
         this.protocolVersion = protocolVersion;
         this.connection = connection;
@@ -34,9 +41,8 @@ public class ConnectedClient {
     }
 
     public void updateClient(){
-        if(!this.connection.isActive()){
-            cleanup();
-            dstServer.removeClient(this);
+        if(!isAttached()){
+            return;
         }
         if(this.connection.getPhase() == NetworkPhase.POST_ENCRYPTION)
             for(GuildPlayerInstance p : player.getPlayers().values()){
@@ -44,17 +50,16 @@ public class ConnectedClient {
                         p.getGuildId(),
                         p.isPaused(),
                         p.getVolume(),
-                        p.getConsumer().getPlayingTrack() == null ? 0 : p.getPosition(),
-                        p.getConsumer().getPlayingTrack() != null,
-                        dstServer.unResolve(p.getConsumer().getPlayingTrack()).getTrackId()
+                        p.getPlayingTrack() == null ? 0 : p.getPosition(),
+                        p.getPlayingTrack() != null,
+                        dstServer.unResolve(p.getPlayingTrack()).getTrackId()
                 ));
             }
     }
 
     public void updateClientUsage(){
-        if(!this.connection.isActive()) {
-            cleanup();
-            dstServer.removeClient(this);
+        if(!isAttached()){
+            return;
         }
         if(this.connection.getPhase() == NetworkPhase.POST_ENCRYPTION) {
             Runtime runtime = Runtime.getRuntime();
@@ -75,13 +80,44 @@ public class ConnectedClient {
     }
 
     public void sendPacket(Packet<?> packet){
-        if(!connection.isActive()) {
-            cleanup();
-            dstServer.removeClient(this);
+        if(!isAttached()){
+            return;
         }
         connection.send(packet);
     }
 
+    /**
+     * Checks the connection and handles it going away: the client is either detached (kept for session
+     * resumption) or cleaned up and removed.
+     *
+     * @return whether packets can be sent to this client right now
+     */
+    public boolean isAttached() {
+        if (detachedAt != 0) {
+            return false;
+        }
+        if (!connection.isActive()) {
+            if (!dstServer.getSessionTicketManager().detach(this)) {
+                cleanup();
+                dstServer.removeClient(this);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Moves this client, and with it all of its guild players, onto the connection of a resumed session.
+     */
+    public void reattach(Connection newConnection) {
+        Connection old = this.connection;
+        this.connection = newConnection;
+        this.detachedAt = 0;
+        if (old != newConnection && old.isActive()) {
+            old.getChannel().close();
+        }
+    }
+
     public void cleanup() {
         if (player != null) {
             log.info("Cleaning up resources for disconnected client " + player.getUserId());
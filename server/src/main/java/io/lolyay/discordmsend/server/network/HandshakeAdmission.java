@@ -0,0 +1,78 @@
+package io.lolyay.discordmsend.server.network;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.InetAddress;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits how many connections a single address may have in the pre-encryption phase and runs the
+ * expensive key operations of the handshake off the event loops.
+ * <p>
+ * The crypto executor is bounded in both threads and queue length, so a reconnect storm only ever costs
+ * a fixed amount of CPU; handshakes that do not fit are refused instead of stalling the event loop that
+ * also serves established connections.
+ */
+@Slf4j
+public class HandshakeAdmission {
+    public static final int MAX_PENDING_PER_ADDRESS = 8;
+    private static final int MAX_QUEUED_OPERATIONS = 256;
+
+    /** Handshakes in flight by address; only changed inside compute calls, so counting and removal can't race. */
+    private final ConcurrentHashMap<InetAddress, Integer> pending = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor cryptoExecutor;
+
+    public HandshakeAdmission() {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger counter = new AtomicInteger();
+        this.cryptoExecutor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED_OPERATIONS), r -> {
+            Thread thread = new Thread(r, "Handshake-Crypto-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        this.cryptoExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return false if the address already has too many handshakes in flight
+     */
+    public boolean tryAcquire(InetAddress address) {
+        boolean[] admitted = new boolean[1];
+        pending.compute(address, (a, count) -> {
+            int current = count == null ? 0 : count;
+            if (current >= MAX_PENDING_PER_ADDRESS) {
+                return count;
+            }
+            admitted[0] = true;
+            return current + 1;
+        });
+        if (!admitted[0]) {
+            log.warn("Refusing handshake from {}: too many pending handshakes", address.getHostAddress());
+        }
+        return admitted[0];
+    }
+
+    public void release(InetAddress address) {
+        pending.computeIfPresent(address, (a, count) -> count <= 1 ? null : count - 1);
+    }
+
+    /**
+     * Runs a key operation on the crypto executor.
+     *
+     * @return false if the executor is saturated and the task was not accepted
+     */
+    public boolean submit(Runnable task) {
+        try {
+            cryptoExecutor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    public int getPendingAddresses() {
+        return pending.size();
+    }
+}
@@ -0,0 +1,76 @@
+package io.lolyay.discordmsend.server.network;
+
+import io.lolyay.discordmsend.server.registry.TrackRegistry;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * Track ids a client has been told about, as a bitmap over registry slots split into 4096-slot pages.
+ * Pages are only allocated once a slot in them is marked and dropped again when they become empty, so a
+ * client that saw a few hundred tracks costs a few pages instead of a bit per registered track.
+ */
+public class KnownTrackSet {
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_WORDS = (1 << PAGE_BITS) >>> 6;
+
+    private final Int2ObjectOpenHashMap<long[]> pages = new Int2ObjectOpenHashMap<>();
+
+    public synchronized void add(int trackId) {
+        if (trackId < 0) {
+            return;
+        }
+        int slot = trackId & (TrackRegistry.MAX_SLOTS - 1);
+        long[] page = pages.get(slot >>> PAGE_BITS);
+        if (page == null) {
+            page = new long[PAGE_WORDS];
+            pages.put(slot >>> PAGE_BITS, page);
+        }
+        page[(slot >>> 6) & (PAGE_WORDS - 1)] |= 1L << slot;
+    }
+
+    /**
+     * Removes the given ids from this set.
+     *
+     * @return the ids that were in the set, in the order given
+     */
+    public synchronized IntArrayList removeKnown(IntArrayList trackIds) {
+        IntArrayList known = new IntArrayList();
+        for (int i = 0; i < trackIds.size(); i++) {
+            int trackId = trackIds.getInt(i);
+            int slot = trackId & (TrackRegistry.MAX_SLOTS - 1);
+            long[] page = pages.get(slot >>> PAGE_BITS);
+            if (page == null) {
+                continue;
+            }
+            int word = (slot >>> 6) & (PAGE_WORDS - 1);
+            if ((page[word] & 1L << slot) == 0) {
+                continue;
+            }
+            page[word] &= ~(1L << slot);
+            known.add(trackId);
+            if (page[word] == 0 && isEmpty(page)) {
+                pages.remove(slot >>> PAGE_BITS);
+            }
+        }
+        return known;
+    }
+
+    public synchronized int size() {
+        int size = 0;
+        for (long[] page : pages.values()) {
+            for (long word : page) {
+                size += Long.bitCount(word);
+            }
+        }
+        return size;
+    }
+
+    private static boolean isEmpty(long[] page) {
+        for (long word : page) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -2,8 +2,8 @@ package io.lolyay.discordmsend.server.network;
 import io.lolyay.discordmsend.network.Enviroment;
 import io.lolyay.discordmsend.network.protocol.Connection;
 import io.lolyay.discordmsend.network.protocol.NetworkPhase;
-import io.lolyay.discordmsend.network.protocol.coder.PacketDecoder;
 import io.lolyay.discordmsend.network.protocol.coder.PacketEncoder;
+import io.lolyay.discordmsend.network.protocol.coder.PacketInboundDecoder;
 import io.lolyay.discordmsend.network.protocol.packet.PacketDirection;
 import io.lolyay.discordmsend.network.protocol.packet.PacketRegistry;
 import io.lolyay.discordmsend.server.DstServer;
@@ -12,7 +12,6 @@ import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.protobuf.ProtobufVarint32FrameDecoder;
 import io.netty.handler.codec.protobuf.ProtobufVarint32LengthFieldPrepender;
 import lombok.Getter;
 
@@ -44,13 +43,17 @@ public class NetworkServer {
                         protected void initChannel(SocketChannel ch) {
                             Connection connection = new Connection(ch, Enviroment.SERVER);
                             ch.pipeline()
-                                    .addLast("frameDecoder", new ProtobufVarint32FrameDecoder())
                                     .addLast("frameEncoder", new ProtobufVarint32LengthFieldPrepender())
-                                    .addLast("packetDecoder", new PacketDecoder(registry, connection, PacketDirection.SERVER_BOUND))
+                                    .addLast("packetDecoder", new PacketInboundDecoder(registry, connection, PacketDirection.SERVER_BOUND))
                                     .addLast("packetEncoder", new PacketEncoder(registry, connection, PacketDirection.CLIENT_BOUND))
                                     .addLast("handler", connection);
                             connection.setPhase(NetworkPhase.PRE_ENCRYPTION);
-                            connection.setListener(new ServerPreEncryptionListener(connection, dstServer));
+                            ServerPreEncryptionListener listener = new ServerPreEncryptionListener(connection, dstServer);
+                            connection.setListener(listener);
+                            if (!listener.isAdmitted()) {
+                                ch.close();
+                                return;
+                            }
                             connections.add(connection);
                         }
                     });
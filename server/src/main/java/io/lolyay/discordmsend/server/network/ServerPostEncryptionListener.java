@@ -21,12 +21,19 @@ import static io.lolyay.discordmsend.server.DstServer.EVENT_BUS;
 public class ServerPostEncryptionListener implements ServerPostEncryptionPacketListener {
     private final DstServer dstServer;
     private final Connection connection;
-    private final ConnectedClient client;
+    private ConnectedClient client;
+    /** Session id from a resumption ticket, 0 for a full handshake. */
+    private final long resumedSessionId;
 
     public ServerPostEncryptionListener(DstServer dstServer, Connection connection, ConnectedClient client) {
+        this(dstServer, connection, client, 0);
+    }
+
+    public ServerPostEncryptionListener(DstServer dstServer, Connection connection, ConnectedClient client, long resumedSessionId) {
         this.dstServer = dstServer;
         this.connection = connection;
         this.client = client;
+        this.resumedSessionId = resumedSessionId;
         PreClientConnectEvent ev = EVENT_BUS.postAndGet(new PreClientConnectEvent(
                 dstServer,
                 client,
@@ -52,12 +59,30 @@ public class ServerPostEncryptionListener implements ServerPostEncryptionPacketL
 
     @Override
     public void onEncHello(EncHelloC2SPacket packet) {
+        if (resumedSessionId != 0) {
+            // Only now, with a packet that decrypted correctly, do we know the peer holds the resumption secret
+            ConnectedClient previous = dstServer.getSessionTicketManager().find(resumedSessionId);
+            if (previous != null && previous != client) {
+                dstServer.removeClient(client);
+                previous.reattach(connection);
+                client = previous;
+                log.debug("Reattached resumed session {} to its existing client", resumedSessionId);
+            } else {
+                client.setSessionId(resumedSessionId);
+            }
+        }
+
         log.info("Client \"%s\"s by \"%s\" Version \"%s\" Connected with ClientId %s".formatted(packet.userAgent(), packet.userAuthor(), packet.userVersion(), dstServer.getConnectedClients().size()));
 
         client.setUserData(new CUserData(packet.userAgent(),
                 packet.userVersion(), packet.userAuthor(),
                 packet.features()));
-        client.setUserId(packet.botId());
+        if (client.getPlayer() == null || !client.getPlayer().getUserId().equals(String.valueOf(packet.botId()))) {
+            client.cleanup();
+            client.setUserId(packet.botId());
+        } else {
+            log.info("Resumed session {} with its existing players", client.getSessionId());
+        }
         PostClientConnectEvent ev = EVENT_BUS.postAndGet(new PostClientConnectEvent(
                 dstServer,
                 client,
@@ -66,7 +91,9 @@ public class ServerPostEncryptionListener implements ServerPostEncryptionPacketL
 
         if (ev.isCancelled()) {
             connection.disconnect(ev.getCR() != null ? ev.getCR() : "Connection cancelled by server.");
+            return;
         }
+        dstServer.getSessionTicketManager().issue(client);
     }
 
     @Override
@@ -155,6 +182,26 @@ public class ServerPostEncryptionListener implements ServerPostEncryptionPacketL
         client.getPlayer().getOrCreatePlayer(packet.guildId()).seek(packet.positionMs());
     }
 
+    @Override
+    public void onQueueTrack(QueueTrackC2SPacket packet) {
+        client.getPlayer().getOrCreatePlayer(packet.guildId()).queueTrack(dstServer.resolveTo(TrackId.ofId(packet.trackId())));
+    }
+
+    @Override
+    public void onQueueClear(QueueClearC2SPacket packet) {
+        client.getPlayer().getOrCreatePlayer(packet.guildId()).clearQueue();
+    }
+
+    @Override
+    public void onPlayerSkip(PlayerSkipC2SPacket packet) {
+        client.getPlayer().getOrCreatePlayer(packet.guildId()).skip();
+    }
+
+    @Override
+    public void onSetCrossfade(SetCrossfadeC2SPacket packet) {
+        client.getPlayer().getOrCreatePlayer(packet.guildId()).setCrossfadeMs(packet.crossfadeMs());
+    }
+
     @Override
     public void onRequest(IRequestPacket requestPacket) {
         ServerRequestManager.getExchange(requestPacket.getExchangeType())
@@ -3,19 +3,27 @@ package io.lolyay.discordmsend.server.network;
 import io.lolyay.discordmsend.network.Enviroment;
 import io.lolyay.discordmsend.network.protocol.Connection;
 import io.lolyay.discordmsend.network.protocol.NetworkPhase;
+import io.lolyay.discordmsend.network.protocol.encryption.KeyExchange;
 import io.lolyay.discordmsend.network.protocol.encryption.NetworkEncryptionUtils;
 import io.lolyay.discordmsend.network.protocol.encryption.RSA128Serializer;
+import io.lolyay.discordmsend.network.protocol.encryption.X25519Serializer;
 import io.lolyay.discordmsend.network.protocol.listeners.server.ServerPreEncryptionPacketListener;
 import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.preenc.EncryptionResponseC2SPacket;
 import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.preenc.HandShakeC2SPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.preenc.ResumeSessionC2SPacket;
 import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.preenc.EncryptionRequestS2CPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.preenc.ResumeSessionS2CPacket;
 import io.lolyay.discordmsend.server.DstServer;
+import io.netty.channel.Channel;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.security.GeneralSecurityException;
-import java.security.PublicKey;
+import java.security.KeyPair;
 import java.util.concurrent.TimeUnit;
 
 @Slf4j
@@ -25,9 +33,23 @@ public class ServerPreEncryptionListener implements ServerPreEncryptionPacketLis
     private byte[] nonce;
     private ConnectedClient client;
 
+    private KeyExchange keyExchange;
+    /** Ephemeral key pair for {@link KeyExchange#X25519}, null otherwise. */
+    private KeyPair ephemeralKeyPair;
+    /** Set while the key operation runs on the crypto executor. */
+    private boolean keyOperationPending;
+
+    private final InetAddress remoteAddress;
+    @Getter
+    private final boolean admitted;
+    private boolean released;
+
     public ServerPreEncryptionListener(Connection connection, DstServer dstServer) {
         this.connection = connection;
         this.dstServer = dstServer;
+        this.remoteAddress = connection.getChannel().remoteAddress() instanceof InetSocketAddress address ? address.getAddress() : null;
+        this.admitted = remoteAddress == null || dstServer.getHandshakeAdmission().tryAcquire(remoteAddress);
+        this.released = remoteAddress == null || !admitted;
         dstServer.schedule(() -> {
             if(getConnection().getPhase() == NetworkPhase.PRE_ENCRYPTION)
                 connection.disconnect("Encryption handshake failed: " + "Timeout");
@@ -49,37 +71,136 @@ public class ServerPreEncryptionListener implements ServerPreEncryptionPacketLis
         dstServer.addConnectedClient(client);
 
         nonce = NetworkEncryptionUtils.generateNonce();
-        PublicKey publicKey = dstServer.getKeyPair().getPublic();
-        byte[] pubBytes = RSA128Serializer.publicKeyToBytes(publicKey);
+        if (!KeyExchange.X25519.isIn(packet.keyExchanges())) {
+            keyExchange = KeyExchange.RSA;
+            sendEncryptionRequest(RSA128Serializer.publicKeyToBytes(dstServer.getKeyPair().getPublic()));
+            return;
+        }
+
+        keyExchange = KeyExchange.X25519;
+        keyOperationPending = true;
+        Channel channel = connection.getChannel();
+        boolean accepted = dstServer.getHandshakeAdmission().submit(() -> {
+            KeyPair keyPair;
+            try {
+                keyPair = NetworkEncryptionUtils.createX25519KeyPair();
+            } catch (RuntimeException e) {
+                log.error("Failed to create X25519 key pair.", e);
+                channel.eventLoop().execute(() -> connection.disconnect("Encryption handshake failed: " + e.getMessage()));
+                return;
+            }
+            channel.eventLoop().execute(() -> {
+                keyOperationPending = false;
+                ephemeralKeyPair = keyPair;
+                sendEncryptionRequest(X25519Serializer.publicKeyToBytes(keyPair.getPublic()));
+            });
+        });
+        if (!accepted) {
+            connection.disconnect("Encryption handshake failed: " + "Server busy");
+        }
+    }
 
-        getConnection().send(new EncryptionRequestS2CPacket(pubBytes, nonce));
-        log.debug("Sent ER");
+    private void sendEncryptionRequest(byte[] pubBytes) {
+        getConnection().send(new EncryptionRequestS2CPacket(keyExchange, pubBytes, nonce));
+        log.debug("Sent ER ({})", keyExchange);
     }
 
     @Override
     public void onEncryptionResponse(EncryptionResponseC2SPacket packet) {
         log.debug("Encryption Received");
+        if (nonce == null || client == null || keyOperationPending) {
+            connection.disconnect("Encryption handshake failed: " + "Unexpected encryption response");
+            return;
+        }
 
-        try {
-            byte[] decrypted = NetworkEncryptionUtils.crypt(
-                    Cipher.DECRYPT_MODE,
-                    dstServer.getKeyPair().getPrivate(),
-                    packet.sharedSecret()
-            );
-
-            for (int i = 0; i < decrypted.length; i++) {
-                decrypted[i] ^= nonce[i];
+        // The client switches to encryption right after sending this packet, so nothing after it
+        // may be decoded until the session key is known.
+        keyOperationPending = true;
+        connection.pauseInbound();
+        Channel channel = connection.getChannel();
+        boolean accepted = dstServer.getHandshakeAdmission().submit(() -> {
+            SecretKey sessionKey;
+            try {
+                sessionKey = deriveSessionKey(packet.sharedSecret());
+            } catch (GeneralSecurityException | RuntimeException e) {
+                log.error("Failed to establish client AES key.", e);
+                channel.eventLoop().execute(() -> connection.disconnect("Encryption handshake failed: " + e.getMessage()));
+                return;
             }
-            SecretKey sharedSecret = new javax.crypto.spec.SecretKeySpec(decrypted, "AES");
+            channel.eventLoop().execute(() -> completeHandshake(sessionKey));
+        });
+        if (!accepted) {
+            connection.disconnect("Encryption handshake failed: " + "Server busy");
+        }
+    }
+
+    private SecretKey deriveSessionKey(byte[] response) throws GeneralSecurityException {
+        if (keyExchange == KeyExchange.X25519) {
+            return NetworkEncryptionUtils.agreeX25519(ephemeralKeyPair.getPrivate(), X25519Serializer.bytesToPublicKey(response), nonce);
+        }
+        byte[] decrypted = NetworkEncryptionUtils.crypt(
+                Cipher.DECRYPT_MODE,
+                dstServer.getKeyPair().getPrivate(),
+                response
+        );
 
-            connection.enableEncryption(sharedSecret);
+        for (int i = 0; i < decrypted.length; i++) {
+            decrypted[i] ^= nonce[i];
+        }
+        return new javax.crypto.spec.SecretKeySpec(decrypted, "AES");
+    }
+
+    private void completeHandshake(SecretKey sessionKey) {
+        keyOperationPending = false;
+        ephemeralKeyPair = null;
+        if (!connection.isActive()) {
+            return;
+        }
+        try {
+            connection.enableEncryption(sessionKey);
             connection.setPhase(NetworkPhase.POST_ENCRYPTION);
             connection.setListener(new ServerPostEncryptionListener(dstServer, connection, client));
+            releaseAdmission();
+            connection.resumeInbound();
 
             log.debug("Encryption handshake completed successfully!");
+        } catch (GeneralSecurityException e) {
+            log.error("Failed to enable encryption.", e);
+            connection.disconnect("Encryption handshake failed: " + e.getMessage());
+        }
+    }
+
+    private void releaseAdmission() {
+        if (!released) {
+            released = true;
+            dstServer.getHandshakeAdmission().release(remoteAddress);
+        }
+    }
+
+    @Override
+    public void onResumeSession(ResumeSessionC2SPacket packet) {
+        if (nonce == null || client == null || keyOperationPending) {
+            connection.disconnect("Encryption handshake failed: " + "Resume before handshake");
+            return;
+        }
+        SessionTicketManager.Ticket ticket = dstServer.getSessionTicketManager().open(packet.ticket());
+        if (ticket == null) {
+            log.debug("Rejected resumption ticket, continuing with full key exchange");
+            connection.send(new ResumeSessionS2CPacket(false));
+            return;
+        }
+
+        try {
+            SecretKey sessionKey = NetworkEncryptionUtils.deriveResumedKey(ticket.resumptionSecret(), nonce, packet.clientNonce());
+            connection.send(new ResumeSessionS2CPacket(true));
+            connection.enableEncryption(sessionKey);
+            connection.setPhase(NetworkPhase.POST_ENCRYPTION);
+            connection.setListener(new ServerPostEncryptionListener(dstServer, connection, client, ticket.sessionId()));
+            releaseAdmission();
 
+            log.debug("Session resumed without key exchange");
         } catch (GeneralSecurityException e) {
-            log.error("Failed to decrypt client AES key.", e);
+            log.error("Failed to derive resumed session key.", e);
             connection.disconnect("Encryption handshake failed: " + e.getMessage());
         }
     }
@@ -87,6 +208,7 @@ public class ServerPreEncryptionListener implements ServerPreEncryptionPacketLis
     @Override
     public void onDisconnect(String reason) {
         log.info("Client disconnected During Encryption Handshake: " + reason);
+        releaseAdmission();
         dstServer.networkServer().removeConnection(connection);
     }
 
@@ -0,0 +1,160 @@
+package io.lolyay.discordmsend.server.network;
+
+import io.lolyay.discordmsend.network.protocol.encryption.NetworkEncryptionUtils;
+import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc.SessionTicketS2CPacket;
+import io.lolyay.discordmsend.server.DstServer;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issues and opens session resumption tickets and keeps disconnected clients around for a short grace period.
+ * <p>
+ * A ticket is the session id, its expiry and the resumption secret sealed with a key that only lives in this
+ * process (AES-GCM), so opening one costs a symmetric decrypt instead of an RSA private-key operation.
+ * Tickets do not survive a restart; clients then simply fall back to the full key exchange.
+ */
+@Slf4j
+public class SessionTicketManager {
+    public static final long TICKET_LIFETIME_MS = TimeUnit.HOURS.toMillis(6);
+    /** How long a disconnected client and its players are kept so a resumed session can reattach to them. */
+    public static final long DETACH_GRACE_MS = TimeUnit.SECONDS.toMillis(60);
+
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    private static final int SECRET_LENGTH = 16;
+
+    private final DstServer dstServer;
+    private final SecretKey ticketKey;
+    private final SecureRandom random = new SecureRandom();
+
+    public SessionTicketManager(DstServer dstServer) {
+        this.dstServer = dstServer;
+        try {
+            KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+            keyGenerator.init(256);
+            this.ticketKey = keyGenerator.generateKey();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Failed to create session ticket key", e);
+        }
+    }
+
+    public record Ticket(long sessionId, long expiresAt, byte[] resumptionSecret) {
+    }
+
+    /**
+     * Sends the client a fresh ticket for its current session. Assigns a session id on first use.
+     */
+    public void issue(ConnectedClient client) {
+        try {
+            if (client.getSessionId() == 0) {
+                long id;
+                do {
+                    id = random.nextLong();
+                } while (id == 0);
+                client.setSessionId(id);
+            }
+            byte[] secret = NetworkEncryptionUtils.deriveResumptionSecret(client.getConnection().getSessionKey());
+            long expiresAt = System.currentTimeMillis() + TICKET_LIFETIME_MS;
+
+            ByteBuffer plain = ByteBuffer.allocate(Long.BYTES * 2 + SECRET_LENGTH);
+            plain.putLong(client.getSessionId()).putLong(expiresAt).put(secret);
+
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, ticketKey, new GCMParameterSpec(TAG_BITS, iv));
+            byte[] sealed = cipher.doFinal(plain.array());
+
+            byte[] ticket = new byte[IV_LENGTH + sealed.length];
+            System.arraycopy(iv, 0, ticket, 0, IV_LENGTH);
+            System.arraycopy(sealed, 0, ticket, IV_LENGTH, sealed.length);
+
+            client.sendPacket(new SessionTicketS2CPacket(ticket, TICKET_LIFETIME_MS));
+        } catch (GeneralSecurityException e) {
+            log.error("Failed to issue session ticket", e);
+        }
+    }
+
+    /**
+     * @return the ticket contents, or null if the ticket is forged, corrupted or expired
+     */
+    public Ticket open(byte[] ticket) {
+        if (ticket == null || ticket.length <= IV_LENGTH) {
+            return null;
+        }
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, ticketKey, new GCMParameterSpec(TAG_BITS, ticket, 0, IV_LENGTH));
+            ByteBuffer plain = ByteBuffer.wrap(cipher.doFinal(ticket, IV_LENGTH, ticket.length - IV_LENGTH));
+
+            long sessionId = plain.getLong();
+            long expiresAt = plain.getLong();
+            byte[] secret = new byte[SECRET_LENGTH];
+            plain.get(secret);
+            if (expiresAt < System.currentTimeMillis()) {
+                return null;
+            }
+            return new Ticket(sessionId, expiresAt, secret);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            log.debug("Rejected session ticket: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Keeps a client whose connection dropped, so it can be reattached by a resumed session.
+     *
+     * @return false if the client never received a ticket and should be cleaned up right away
+     */
+    public boolean detach(ConnectedClient client) {
+        if (client.getSessionId() == 0 || client.getPlayer() == null) {
+            return false;
+        }
+        if (client.getDetachedAt() == 0) {
+            client.setDetachedAt(System.currentTimeMillis());
+            log.debug("Detached client session {}, keeping it for {}ms", client.getSessionId(), DETACH_GRACE_MS);
+        }
+        return true;
+    }
+
+    /**
+     * @return the still-alive client of this session, or null if it was already cleaned up
+     */
+    public ConnectedClient find(long sessionId) {
+        for (ConnectedClient client : dstServer.getConnectedClients()) {
+            if (client.getSessionId() == sessionId) {
+                return client;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cleans up detached clients whose grace period ran out.
+     */
+    public void expireDetached() {
+        long now = System.currentTimeMillis();
+        List<ConnectedClient> expired = new ArrayList<>();
+        for (ConnectedClient client : dstServer.getConnectedClients()) {
+            if (client.getDetachedAt() != 0 && now - client.getDetachedAt() > DETACH_GRACE_MS) {
+                expired.add(client);
+            }
+        }
+        for (ConnectedClient client : expired) {
+            log.debug("Session {} was not resumed in time, cleaning up", client.getSessionId());
+            client.cleanup();
+            dstServer.removeClient(client);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package io.lolyay.discordmsend.server.registry;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.util.Arrays;
+
+/**
+ * Reference-counted pool of strings that repeat across many tracks (authors, source ids, URL prefixes).
+ * <p>
+ * Each distinct string is stored once and referred to by index; an index is reused once the last track
+ * using it is removed. Interning and releasing are synchronized, {@link #get} is not: a reader racing with
+ * a release may see a reused index, which {@link TrackRegistry} detects through the slot generation.
+ */
+class StringPool {
+    private final Object2IntOpenHashMap<String> indices = new Object2IntOpenHashMap<>();
+    private final IntArrayList freeIndices = new IntArrayList();
+    private volatile String[] entries = new String[256];
+    private int[] refCounts = new int[256];
+    private int next;
+
+    StringPool() {
+        indices.defaultReturnValue(-1);
+    }
+
+    /**
+     * @return the index of the string, -1 for null
+     */
+    synchronized int intern(String s) {
+        if (s == null) {
+            return -1;
+        }
+        int index = indices.getInt(s);
+        if (index >= 0) {
+            refCounts[index]++;
+            return index;
+        }
+        if (!freeIndices.isEmpty()) {
+            index = freeIndices.popInt();
+        } else {
+            index = next++;
+            if (index == refCounts.length) {
+                refCounts = Arrays.copyOf(refCounts, index * 2);
+                entries = Arrays.copyOf(entries, index * 2);
+            }
+        }
+        entries[index] = s;
+        refCounts[index] = 1;
+        indices.put(s, index);
+        return index;
+    }
+
+    synchronized void release(int index) {
+        if (index < 0 || --refCounts[index] > 0) {
+            return;
+        }
+        indices.removeInt(entries[index]);
+        entries[index] = null;
+        freeIndices.add(index);
+    }
+
+    String get(int index) {
+        return index < 0 ? null : entries[index];
+    }
+
+    synchronized int size() {
+        return indices.size();
+    }
+}
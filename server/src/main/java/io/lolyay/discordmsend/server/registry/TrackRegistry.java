@@ -0,0 +1,599 @@
+package io.lolyay.discordmsend.server.registry;
+
+import io.lolyay.discordmsend.network.types.TrackMetadata;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Maps track ids handed out to clients to their metadata.
+ * <p>
+ * An id is a slot index in the low {@value #SLOT_BITS} bits and the slot's generation above it. Slots of
+ * removed tracks go onto a free list and are reused with the next generation, so the table stays compact
+ * and an id a client still holds for a removed track resolves to null instead of to whatever track
+ * reused the slot. Generation 0 ids are just the slot index, which keeps them short on the wire.
+ * <p>
+ * Slot allocation and lookups by id are lock-free. Registering allocates a slot and copies the track into it
+ * before taking the index write lock, which then only covers the identifier index, publishing the slot and the
+ * append to the backing file; registering the same identifier twice returns the existing id. Safe to use from
+ * any thread.
+ * <p>
+ * Metadata is stored column-wise per slot rather than as {@link TrackMetadata} objects: strings that repeat
+ * across tracks (authors, source ids, URL prefixes) are interned in {@link StringPool}s, strings unique to a
+ * track go into an off-heap {@link Utf8Arena}. {@link #get} materializes a {@code TrackMetadata} view on each
+ * call. Reads are not locked; like a seqlock, the slot generation is checked before and after reading the
+ * columns, and a read that raced with the slot being freed is discarded.
+ * <p>
+ * When backed by a file (see {@link TrackRegistryStore}) ids survive restarts: the file is replayed on
+ * startup, and tracks restored from it stay in the mapping until their first lookup, which decodes and
+ * verifies the record once and moves the track into the columns. Last access times given to
+ * {@link #recordAccess} are stored in the file too, and handed out once after startup by
+ * {@link #forEachRestored}.
+ */
+@Slf4j
+public class TrackRegistry implements AutoCloseable {
+    public static final int SLOT_BITS = 24;
+    public static final int MAX_SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = MAX_SLOTS - 1;
+    /** Keeps ids non-negative. */
+    private static final int GENERATION_MASK = 0x7F;
+
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final int IN_COLUMNS = 1;
+    private static final int PROMOTING = 2;
+
+    private static final class Chunk {
+        final AtomicIntegerArray generations = new AtomicIntegerArray(CHUNK_SIZE);
+        /**
+         * {@link #IN_COLUMNS} if the slot's track is held in the columns below, {@link #PROMOTING} while a track
+         * read from the backing file is being copied there, 0 if it is free or only in the backing file.
+         */
+        final AtomicIntegerArray inColumns = new AtomicIntegerArray(CHUNK_SIZE);
+
+        // Pool indices
+        final int[] author = new int[CHUNK_SIZE];
+        final int[] sourceId = new int[CHUNK_SIZE];
+        final int[] artPrefix = new int[CHUNK_SIZE];
+        final int[] urlPrefix = new int[CHUNK_SIZE];
+        // Arena references
+        final long[] trackName = new long[CHUNK_SIZE];
+        final long[] identifier = new long[CHUNK_SIZE];
+        final long[] isrc = new long[CHUNK_SIZE];
+        final long[] artSuffix = new long[CHUNK_SIZE];
+        final long[] urlSuffix = new long[CHUNK_SIZE];
+
+        final long[] durationMs = new long[CHUNK_SIZE];
+        /** Free list links, slot + 1 of the next free slot, 0 for the end of the list. */
+        final AtomicIntegerArray nextFree = new AtomicIntegerArray(CHUNK_SIZE);
+    }
+
+    private final AtomicReferenceArray<Chunk> chunks = new AtomicReferenceArray<>(MAX_SLOTS >>> CHUNK_BITS);
+    /**
+     * Identifier index, keyed by a 64-bit hash of the identifier instead of the string itself so no
+     * per-track objects are kept. Registering verifies a hit against the stored identifier.
+     */
+    private final Long2IntOpenHashMap identifierIndex = new Long2IntOpenHashMap();
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+    /** Slots below this were handed out at least once. */
+    private final AtomicInteger highWaterMark = new AtomicInteger();
+    /** Treiber stack of free slots: modification tag in the high half against ABA, slot + 1 in the low half. */
+    private final AtomicLong freeHead = new AtomicLong();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final StringPool sharedStrings = new StringPool();
+    private final StringPool urlPrefixes = new StringPool();
+    private final Utf8Arena arena = new Utf8Arena();
+
+    private final TrackRegistryStore store;
+    /** Last access of restored tracks by id, until {@link #forEachRestored} takes them. */
+    private Int2LongOpenHashMap restoredAccess = new Int2LongOpenHashMap();
+
+    /**
+     * Receives a track id and when it was last accessed.
+     */
+    @FunctionalInterface
+    public interface AccessConsumer {
+        /**
+         * @param lastAccessMillis epoch millis, or -1 if no access was recorded
+         */
+        void accept(int id, long lastAccessMillis);
+    }
+
+    /**
+     * Creates an in-memory registry.
+     */
+    public TrackRegistry() {
+        this.store = null;
+        identifierIndex.defaultReturnValue(-1);
+    }
+
+    /**
+     * Creates a registry persisted to the given file, restoring every id stored in it.
+     */
+    public TrackRegistry(Path file) throws IOException {
+        this.store = new TrackRegistryStore(file);
+        identifierIndex.defaultReturnValue(-1);
+        long start = System.nanoTime();
+
+        BitSet live = new BitSet();
+        int[] maxSlot = {-1};
+        store.open(new TrackRegistryStore.ReplayVisitor() {
+            @Override
+            public void put(int id, String identifier) {
+                int slot = restoreSlot(id);
+                maxSlot[0] = Math.max(maxSlot[0], slot);
+                live.set(slot);
+                identifierIndex.put(hash(identifier), id);
+            }
+
+            @Override
+            public void free(int id) {
+                int slot = restoreSlot(id);
+                maxSlot[0] = Math.max(maxSlot[0], slot);
+                live.clear(slot);
+            }
+
+            @Override
+            public void access(int id, long millis) {
+                restoredAccess.put(id, millis);
+            }
+        });
+        // Drop identifiers whose track was freed or replaced later in the file
+        identifierIndex.values().removeIf(id -> !live.get(id & SLOT_MASK) || chunk(id & SLOT_MASK).generations.get(id & SLOT_MASK & CHUNK_MASK) != id >>> SLOT_BITS);
+        restoredAccess.keySet().removeIf(id -> !live.get(id & SLOT_MASK) || !isCurrent(id));
+
+        highWaterMark.set(maxSlot[0] + 1);
+        for (int slot = maxSlot[0]; slot >= 0; slot--) {
+            if (!live.get(slot)) {
+                pushFree(slot);
+            }
+        }
+        size.set(identifierIndex.size());
+        log.info("Loaded {} tracks from {} in {}ms", size.get(), file, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private int restoreSlot(int id) {
+        int slot = id & SLOT_MASK;
+        int chunkIndex = slot >>> CHUNK_BITS;
+        if (chunks.get(chunkIndex) == null) {
+            chunks.set(chunkIndex, new Chunk());
+        }
+        chunk(slot).generations.set(slot & CHUNK_MASK, id >>> SLOT_BITS);
+        return slot;
+    }
+
+    /**
+     * Registers a track, or finds the id it already has.
+     *
+     * @return the track's id
+     * @throws IllegalStateException if every slot is in use
+     */
+    public int register(TrackMetadata track) {
+        long hash = hash(track.identifier());
+        int existing = idOf(hash, track.identifier());
+        if (existing >= 0) {
+            return existing;
+        }
+
+        // Readers don't see the slot until it is published below
+        int slot = allocateSlot();
+        Chunk chunk = chunk(slot);
+        int index = slot & CHUNK_MASK;
+        int id = slot | chunk.generations.get(index) << SLOT_BITS;
+        TrackMetadata registered = track.withId(id);
+        fillColumns(chunk, index, registered);
+
+        indexLock.writeLock().lock();
+        try {
+            existing = idOf(hash, track.identifier());
+            if (existing >= 0) {
+                // Registered concurrently; the prepared id was never handed out, so the slot keeps its generation
+                clearColumns(chunk, index);
+                pushFree(slot);
+                return existing;
+            }
+            unindex(hash, track.identifier());
+            chunk.inColumns.set(index, IN_COLUMNS);
+            size.incrementAndGet();
+            if (store != null) {
+                store.appendPut(registered);
+            }
+            identifierIndex.put(hash, id);
+            return id;
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the id indexed for this hash if its track really has this identifier, else -1
+     */
+    private int idOf(long hash, String identifier) {
+        int id = indexedId(hash);
+        if (id < 0) {
+            return -1;
+        }
+        TrackMetadata indexed = get(id);
+        return indexed != null && identifier.equals(indexed.identifier()) ? id : -1;
+    }
+
+    /**
+     * Drops the index entry for {@code hash}, which does not resolve to {@code identifier}. If the indexed track
+     * can no longer be read (a corrupt record in the backing file), its slot is freed too, as nothing could reach
+     * it once the index points elsewhere. Called with the write lock held.
+     */
+    private void unindex(long hash, String identifier) {
+        int indexed = identifierIndex.remove(hash);
+        if (indexed < 0) {
+            return;
+        }
+        if (get(indexed) != null) {
+            // 64-bit collision with a different identifier, that track stays usable by id
+            log.warn("Identifier hash collision between {} and id {}, re-indexing", identifier, indexed);
+        } else if (isCurrent(indexed)) {
+            log.warn("Freeing unreadable track {} indexed for {}", indexed, identifier);
+            free(indexed);
+        }
+    }
+
+    private int indexedId(long hash) {
+        indexLock.readLock().lock();
+        try {
+            return identifierIndex.get(hash);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the track, or null if the id was never handed out or its track was removed
+     */
+    public TrackMetadata get(int id) {
+        if (id < 0) {
+            return null;
+        }
+        int slot = id & SLOT_MASK;
+        Chunk chunk = chunks.get(slot >>> CHUNK_BITS);
+        if (chunk == null) {
+            return null;
+        }
+        int generation = id >>> SLOT_BITS;
+        int index = slot & CHUNK_MASK;
+        if (chunk.generations.get(index) != generation) {
+            return null;
+        }
+        TrackMetadata track;
+        if (chunk.inColumns.get(index) == IN_COLUMNS) {
+            try {
+                track = readColumns(chunk, index, id);
+            } catch (RuntimeException e) {
+                return null; // columns were cleared and reused while reading
+            }
+        } else {
+            track = store != null ? store.read(id) : null;
+            if (track != null) {
+                promote(chunk, index, generation, track);
+            }
+        }
+        // The slot may have been freed and reused while reading
+        return chunk.generations.get(index) == generation ? track : null;
+    }
+
+    /**
+     * Copies a track read from the backing file into the columns, so later lookups don't decode and verify its
+     * record again.
+     */
+    private void promote(Chunk chunk, int index, int generation, TrackMetadata track) {
+        // Slots are only freed under the write lock; of concurrent readers, the one winning the CAS copies
+        indexLock.readLock().lock();
+        try {
+            if (chunk.generations.get(index) == generation && chunk.inColumns.compareAndSet(index, 0, PROMOTING)) {
+                writeColumns(chunk, index, track);
+            }
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the id of the track with this identifier, or -1 if it is not registered
+     */
+    public int idOf(String identifier) {
+        return indexedId(hash(identifier));
+    }
+
+    /**
+     * Removes a track and frees its slot. Does nothing for unknown or stale ids.
+     *
+     * @return the removed track, or null
+     */
+    public TrackMetadata remove(int id) {
+        TrackMetadata track = get(id);
+        if (track == null) {
+            return null;
+        }
+        long hash = hash(track.identifier());
+        indexLock.writeLock().lock();
+        try {
+            if (get(id) == null) {
+                return null; // removed concurrently
+            }
+            if (identifierIndex.get(hash) == id) {
+                identifierIndex.remove(hash);
+            }
+            free(id);
+            return track;
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return whether the id's slot is still on the id's generation
+     */
+    private boolean isCurrent(int id) {
+        int slot = id & SLOT_MASK;
+        Chunk chunk = chunks.get(slot >>> CHUNK_BITS);
+        return chunk != null && chunk.generations.get(slot & CHUNK_MASK) == id >>> SLOT_BITS;
+    }
+
+    /**
+     * Frees the slot of a current id. Called with the write lock held.
+     */
+    private void free(int id) {
+        int slot = id & SLOT_MASK;
+        Chunk chunk = chunk(slot);
+        int index = slot & CHUNK_MASK;
+        boolean inColumns = chunk.inColumns.getAndSet(index, 0) == IN_COLUMNS;
+        int generation = ((id >>> SLOT_BITS) + 1) & GENERATION_MASK;
+        chunk.generations.set(index, generation);
+        if (inColumns) {
+            clearColumns(chunk, index);
+        }
+        size.decrementAndGet();
+        if (store != null) {
+            store.appendFree(slot | generation << SLOT_BITS);
+        }
+        pushFree(slot);
+    }
+
+    /**
+     * @return the id of the live track in this slot, or -1 if the slot is free or was never handed out
+     */
+    public int currentId(int slot) {
+        Chunk chunk = slot < highWaterMark.get() ? chunk(slot) : null;
+        if (chunk == null) {
+            return -1;
+        }
+        int id = slot | chunk.generations.get(slot & CHUNK_MASK) << SLOT_BITS;
+        return get(id) != null ? id : -1;
+    }
+
+    /**
+     * Hands every track restored from the backing file to the consumer, with its last access as of the last
+     * {@link #recordAccess}. Meant to be called once at startup; the restored times are dropped afterwards.
+     */
+    public void forEachRestored(AccessConsumer consumer) {
+        Int2LongOpenHashMap access = restoredAccess;
+        restoredAccess = new Int2LongOpenHashMap();
+        indexLock.readLock().lock();
+        try {
+            for (IntIterator it = identifierIndex.values().iterator(); it.hasNext(); ) {
+                int id = it.nextInt();
+                consumer.accept(id, access.getOrDefault(id, -1L));
+            }
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stores when the track was last accessed, so {@link #forEachRestored} returns it after a restart. Does nothing
+     * for in-memory registries and stale ids. Meant to be called at most about once an hour per track.
+     */
+    public void recordAccess(int id, long millis) {
+        if (store != null && isCurrent(id)) {
+            store.appendAccess(id, millis);
+        }
+    }
+
+    /**
+     * Rewrites the backing file without superseded records if enough of it is garbage. Does nothing for
+     * in-memory registries.
+     */
+    public void compactIfNeeded() {
+        if (store == null || !store.needsCompaction()) {
+            return;
+        }
+        try {
+            store.compact();
+        } catch (IOException e) {
+            log.error("Failed to compact track registry", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @return off-heap bytes held for track strings
+     */
+    public long offHeapBytes() {
+        return arena.allocatedBytes();
+    }
+
+    public int pooledStrings() {
+        return sharedStrings.size() + urlPrefixes.size();
+    }
+
+    private void writeColumns(Chunk chunk, int index, TrackMetadata track) {
+        fillColumns(chunk, index, track);
+        // Publishes the columns to readers
+        chunk.inColumns.set(index, IN_COLUMNS);
+    }
+
+    /**
+     * Copies the track into the columns without publishing them.
+     */
+    private void fillColumns(Chunk chunk, int index, TrackMetadata track) {
+        chunk.author[index] = sharedStrings.intern(track.author());
+        chunk.sourceId[index] = sharedStrings.intern(track.sourceId());
+        chunk.trackName[index] = arena.append(track.trackName());
+        chunk.identifier[index] = arena.append(track.identifier());
+        chunk.isrc[index] = arena.append(track.isrc());
+        chunk.durationMs[index] = track.durationMs();
+
+        int split = urlSplit(track.art());
+        chunk.artPrefix[index] = urlPrefixes.intern(split < 0 ? null : track.art().substring(0, split));
+        chunk.artSuffix[index] = arena.append(split < 0 ? track.art() : track.art().substring(split));
+        split = urlSplit(track.trackUrl());
+        chunk.urlPrefix[index] = urlPrefixes.intern(split < 0 ? null : track.trackUrl().substring(0, split));
+        chunk.urlSuffix[index] = arena.append(split < 0 ? track.trackUrl() : track.trackUrl().substring(split));
+    }
+
+    private TrackMetadata readColumns(Chunk chunk, int index, int id) {
+        return new TrackMetadata(
+                id,
+                arena.get(chunk.trackName[index]),
+                sharedStrings.get(chunk.author[index]),
+                joinUrl(urlPrefixes.get(chunk.artPrefix[index]), arena.get(chunk.artSuffix[index])),
+                joinUrl(urlPrefixes.get(chunk.urlPrefix[index]), arena.get(chunk.urlSuffix[index])),
+                arena.get(chunk.isrc[index]),
+                chunk.durationMs[index],
+                sharedStrings.get(chunk.sourceId[index]),
+                arena.get(chunk.identifier[index])
+        );
+    }
+
+    private void clearColumns(Chunk chunk, int index) {
+        sharedStrings.release(chunk.author[index]);
+        sharedStrings.release(chunk.sourceId[index]);
+        urlPrefixes.release(chunk.artPrefix[index]);
+        urlPrefixes.release(chunk.urlPrefix[index]);
+        arena.release(chunk.trackName[index]);
+        arena.release(chunk.identifier[index]);
+        arena.release(chunk.isrc[index]);
+        arena.release(chunk.artSuffix[index]);
+        arena.release(chunk.urlSuffix[index]);
+    }
+
+    /**
+     * Splits a URL after its host and first path segment ({@code https://i.ytimg.com/vi/}), which is what
+     * URLs of one source have in common; later segments usually already contain the track's own id.
+     *
+     * @return the index where the unique suffix starts, or -1 if the URL has no path
+     */
+    private static int urlSplit(String url) {
+        if (url == null) {
+            return -1;
+        }
+        int scheme = url.indexOf("://");
+        int hostEnd = url.indexOf('/', scheme < 0 ? 0 : scheme + 3);
+        if (hostEnd < 0) {
+            return -1;
+        }
+        int segmentEnd = url.indexOf('/', hostEnd + 1);
+        return (segmentEnd < 0 ? hostEnd : segmentEnd) + 1;
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-16 chars, finished with the MurmurHash3 mixer.
+     */
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static String joinUrl(String prefix, String suffix) {
+        if (prefix == null || suffix == null) {
+            return suffix;
+        }
+        return prefix.concat(suffix);
+    }
+
+    /**
+     * @return the number of slots handed out so far, including freed ones
+     */
+    public int capacity() {
+        return highWaterMark.get();
+    }
+
+    private int allocateSlot() {
+        int slot = popFree();
+        if (slot >= 0) {
+            return slot;
+        }
+        slot = highWaterMark.getAndIncrement();
+        if (slot >= MAX_SLOTS) {
+            highWaterMark.decrementAndGet();
+            throw new IllegalStateException("Track registry is full (" + MAX_SLOTS + " tracks)");
+        }
+        int chunkIndex = slot >>> CHUNK_BITS;
+        if (chunks.get(chunkIndex) == null) {
+            chunks.compareAndSet(chunkIndex, null, new Chunk());
+        }
+        return slot;
+    }
+
+    private Chunk chunk(int slot) {
+        return chunks.get(slot >>> CHUNK_BITS);
+    }
+
+    private void pushFree(int slot) {
+        Chunk chunk = chunk(slot);
+        while (true) {
+            long head = freeHead.get();
+            chunk.nextFree.set(slot & CHUNK_MASK, (int) head);
+            long next = ((head >>> 32) + 1) << 32 | (slot + 1L);
+            if (freeHead.compareAndSet(head, next)) {
+                return;
+            }
+        }
+    }
+
+    private int popFree() {
+        while (true) {
+            long head = freeHead.get();
+            int slot = (int) head - 1;
+            if (slot < 0) {
+                return -1;
+            }
+            int following = chunk(slot).nextFree.get(slot & CHUNK_MASK);
+            long next = ((head >>> 32) + 1) << 32 | (following & 0xFFFFFFFFL);
+            if (freeHead.compareAndSet(head, next)) {
+                return slot;
+            }
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package io.lolyay.discordmsend.server.registry;
+
+import io.lolyay.discordmsend.network.types.TrackMetadata;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file behind a {@link TrackRegistry}.
+ * <p>
+ * File layout: magic, version, then records of
+ * {@code [int length][int crc32][byte op][int id][payload]} where length and crc cover op, id and payload.
+ * {@link #PUT} records carry the metadata with the identifier first, {@link #FREE} records mark a slot as
+ * free at the generation encoded in the id, {@link #ACCESS} records carry when the track was last used (epoch
+ * millis) so track expiry survives restarts. Replaying the records in order restores every slot.
+ * <p>
+ * On open the file is memory-mapped and only scanned for ids and identifiers; the rest of a record is
+ * decoded when the track is first looked up. A torn record at the end (crash during append) is cut off.
+ * <p>
+ * The store keeps the position of each slot's last record itself, so compaction copies records as they are and
+ * never calls back into the registry.
+ */
+@Slf4j
+class TrackRegistryStore implements AutoCloseable {
+    static final byte PUT = 1;
+    static final byte FREE = 2;
+    static final byte ACCESS = 3;
+
+    private static final int MAGIC = 0x44535452; // "DSTR"
+    /** Version 2 added {@link #ACCESS} records; version 1 files are upgraded in place. */
+    private static final int VERSION = 2;
+    private static final int FILE_HEADER = 8;
+    private static final int RECORD_HEADER = 8;
+    private static final int MIN_RECORD = 5;
+    private static final int MAX_RECORD = 1 << 20;
+
+    interface ReplayVisitor {
+        void put(int id, String identifier);
+
+        void free(int id);
+
+        void access(int id, long millis);
+    }
+
+    /** Mapping of the file as of the last open or compaction, and the offset of each slot's record in it. */
+    private record Snapshot(MappedByteBuffer map, int[] offsets) {
+    }
+
+    private final Path file;
+    private FileChannel channel;
+    private volatile Snapshot snapshot;
+    private long liveRecords;
+    private long totalRecords;
+    /** Per slot, the file position of its live PUT record, or -1 if it is free. Guarded by this. */
+    private int[] positions = new int[0];
+    /** Per slot, the file position of the last ACCESS record of its live track, or -1. Guarded by this. */
+    private int[] accessPositions = new int[0];
+    /** Per slot, the id of its last record, or -1 if it has none. Guarded by this. */
+    private int[] lastIds = new int[0];
+
+    TrackRegistryStore(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens (or creates) the file and replays its records into the visitor.
+     */
+    synchronized void open(ReplayVisitor visitor) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < FILE_HEADER) {
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER).putInt(MAGIC).putInt(VERSION).flip();
+            channel.write(header, 0);
+        }
+
+        MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        int version = map.getInt(4);
+        if (map.getInt(0) != MAGIC || version < 1 || version > VERSION) {
+            throw new IOException("Not a track registry file (or unsupported version): " + file);
+        }
+        if (version < VERSION) {
+            // Older versions only lack record types, so the records stay as they are
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(VERSION).flip(), 4);
+        }
+
+        int[] offsets = new int[1024];
+        Arrays.fill(offsets, -1);
+        int position = FILE_HEADER;
+        int limit = map.limit();
+        while (position + RECORD_HEADER + MIN_RECORD <= limit) {
+            int length = map.getInt(position);
+            if (length < MIN_RECORD || length > MAX_RECORD || position + RECORD_HEADER + length > limit) {
+                break;
+            }
+            byte op = map.get(position + RECORD_HEADER);
+            int id = map.getInt(position + RECORD_HEADER + 1);
+            int slot = id & (TrackRegistry.MAX_SLOTS - 1);
+            if (op == PUT) {
+                if (slot >= offsets.length) {
+                    int oldLength = offsets.length;
+                    offsets = Arrays.copyOf(offsets, Math.max(slot + 1, oldLength * 2));
+                    Arrays.fill(offsets, oldLength, offsets.length, -1);
+                }
+                offsets[slot] = position;
+                trackPut(slot, id, position);
+                visitor.put(id, readString(map, position + RECORD_HEADER + MIN_RECORD));
+            } else if (op == FREE) {
+                if (slot < offsets.length) {
+                    offsets[slot] = -1;
+                }
+                trackFree(slot, id);
+                visitor.free(id);
+            } else if (op == ACCESS && length == MIN_RECORD + Long.BYTES) {
+                trackAccess(slot, id, position);
+                visitor.access(id, map.getLong(position + RECORD_HEADER + MIN_RECORD));
+            } else {
+                break;
+            }
+            totalRecords++;
+            position += RECORD_HEADER + length;
+        }
+
+        if (position < limit) {
+            log.warn("Track registry {} has {} unreadable bytes at the end, truncating", file, limit - position);
+            channel.truncate(position);
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, position);
+        }
+        channel.position(position);
+        snapshot = new Snapshot(map, offsets);
+    }
+
+    /**
+     * Decodes the record of this id from the mapped file.
+     *
+     * @return the metadata, or null if the file holds no record for this exact id
+     */
+    TrackMetadata read(int id) {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return null;
+        }
+        int slot = id & (TrackRegistry.MAX_SLOTS - 1);
+        if (slot >= current.offsets().length || current.offsets()[slot] < 0) {
+            return null;
+        }
+        ByteBuffer map = current.map().duplicate();
+        int position = current.offsets()[slot];
+        try {
+            int length = map.getInt(position);
+            int crc = map.getInt(position + 4);
+            if (map.getInt(position + RECORD_HEADER + 1) != id) {
+                return null;
+            }
+            CRC32 checksum = new CRC32();
+            checksum.update(map.slice(position + RECORD_HEADER, length));
+            if ((int) checksum.getValue() != crc) {
+                log.warn("Track registry record for id {} is corrupted", id);
+                return null;
+            }
+            map.position(position + RECORD_HEADER + MIN_RECORD);
+            return decode(id, map);
+        } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+            log.warn("Track registry record for id {} is truncated", id);
+            return null;
+        }
+    }
+
+    synchronized void appendPut(TrackMetadata track) {
+        append(PUT, track.id(), encode(PUT, track.id(), track));
+    }
+
+    synchronized void appendFree(int id) {
+        append(FREE, id, encode(FREE, id, null));
+    }
+
+    /**
+     * Records when the track with this id was last used. Ignored on replay if the track was freed before.
+     */
+    synchronized void appendAccess(int id, long millis) {
+        append(ACCESS, id, encodeAccess(id, millis));
+    }
+
+    /**
+     * @return true if most of the file is superseded records and {@link #compact} would pay off
+     */
+    synchronized boolean needsCompaction() {
+        return totalRecords > 4096 && totalRecords > liveRecords * 2;
+    }
+
+    /**
+     * Rewrites the file with one record per slot: the last PUT of every live track, copied as it is, and a FREE
+     * for every free slot (to keep its generation). Appends wait while this runs.
+     */
+    synchronized void compact() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".compact");
+        int slots = lastIds.length;
+        while (slots > 0 && lastIds[slots - 1] < 0) {
+            slots--;
+        }
+        int[] offsets = new int[Math.max(slots, 1)];
+        Arrays.fill(offsets, -1);
+        int[] newPositions = positions.clone();
+        int[] newAccessPositions = accessPositions.clone();
+        long live = 0;
+        long records = 0;
+        // Covers records appended since the last open or compaction too
+        MappedByteBuffer old = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.position());
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer batch = ByteBuffer.allocate(64 * 1024);
+            batch.putInt(MAGIC).putInt(VERSION);
+            int position = FILE_HEADER;
+            for (int slot = 0; slot < slots; slot++) {
+                ByteBuffer record;
+                if (positions[slot] >= 0) {
+                    int from = positions[slot];
+                    record = old.slice(from, RECORD_HEADER + old.getInt(from));
+                    offsets[slot] = position;
+                    newPositions[slot] = position;
+                    live++;
+                    if (accessPositions[slot] >= 0) {
+                        // Written right behind the PUT
+                        int access = accessPositions[slot];
+                        ByteBuffer accessRecord = old.slice(access, RECORD_HEADER + old.getInt(access));
+                        newAccessPositions[slot] = position + record.remaining();
+                        record = ByteBuffer.allocate(record.remaining() + accessRecord.remaining())
+                                .put(record).put(accessRecord).flip();
+                        live++;
+                        records++;
+                    }
+                } else if (lastIds[slot] >= 0) {
+                    record = encode(FREE, lastIds[slot], null);
+                } else {
+                    continue;
+                }
+                records++;
+                position += record.remaining();
+                if (batch.remaining() < record.remaining()) {
+                    writeFully(out, batch.flip());
+                    batch.clear();
+                }
+                if (batch.remaining() < record.remaining()) {
+                    writeFully(out, record);
+                } else {
+                    batch.put(record);
+                }
+            }
+            writeFully(out, batch.flip());
+            out.force(true);
+        }
+        channel.close();
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        snapshot = new Snapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), offsets);
+        positions = newPositions;
+        accessPositions = newAccessPositions;
+        log.info("Compacted track registry from {} to {} records ({} live)", totalRecords, records, live);
+        totalRecords = records;
+        liveRecords = live;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null && channel.isOpen()) {
+            channel.force(true);
+            channel.close();
+        }
+    }
+
+    private void trackPut(int slot, int id, int position) {
+        ensureSlot(slot);
+        if (positions[slot] < 0) {
+            liveRecords++;
+        }
+        positions[slot] = position;
+        lastIds[slot] = id;
+    }
+
+    private void trackFree(int slot, int id) {
+        ensureSlot(slot);
+        if (positions[slot] >= 0) {
+            liveRecords--;
+        }
+        if (accessPositions[slot] >= 0) {
+            liveRecords--;
+        }
+        positions[slot] = -1;
+        accessPositions[slot] = -1;
+        lastIds[slot] = id;
+    }
+
+    private void trackAccess(int slot, int id, int position) {
+        if (slot >= lastIds.length || lastIds[slot] != id || positions[slot] < 0) {
+            return; // freed already
+        }
+        if (accessPositions[slot] < 0) {
+            liveRecords++;
+        }
+        accessPositions[slot] = position;
+    }
+
+    private void ensureSlot(int slot) {
+        if (slot < lastIds.length) {
+            return;
+        }
+        int oldLength = lastIds.length;
+        int length = Math.max(slot + 1, Math.max(1024, oldLength * 2));
+        positions = Arrays.copyOf(positions, length);
+        accessPositions = Arrays.copyOf(accessPositions, length);
+        lastIds = Arrays.copyOf(lastIds, length);
+        Arrays.fill(positions, oldLength, length, -1);
+        Arrays.fill(accessPositions, oldLength, length, -1);
+        Arrays.fill(lastIds, oldLength, length, -1);
+    }
+
+    private void append(byte op, int id, ByteBuffer record) {
+        try {
+            int position = (int) channel.position();
+            writeFully(channel, record);
+            int slot = id & (TrackRegistry.MAX_SLOTS - 1);
+            switch (op) {
+                case PUT -> trackPut(slot, id, position);
+                case FREE -> trackFree(slot, id);
+                default -> trackAccess(slot, id, position);
+            }
+            totalRecords++;
+        } catch (IOException e) {
+            log.error("Failed to append to track registry {}", file, e);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    private static ByteBuffer encode(byte op, int id, TrackMetadata track) {
+        byte[][] strings = track == null ? new byte[0][] : new byte[][]{
+                utf8(track.identifier()), utf8(track.trackName()), utf8(track.author()), utf8(track.art()),
+                utf8(track.trackUrl()), utf8(track.isrc()), utf8(track.sourceId())
+        };
+        int length = MIN_RECORD + (track == null ? 0 : Long.BYTES);
+        for (byte[] s : strings) {
+            length += Short.BYTES + (s == null ? 0 : s.length);
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER + length);
+        buf.putInt(length).putInt(0).put(op).putInt(id);
+        for (byte[] s : strings) {
+            if (s == null) {
+                buf.putShort((short) -1);
+            } else {
+                buf.putShort((short) s.length).put(s);
+            }
+        }
+        if (track != null) {
+            buf.putLong(track.durationMs());
+        }
+
+        CRC32 checksum = new CRC32();
+        checksum.update(buf.array(), RECORD_HEADER, length);
+        buf.putInt(4, (int) checksum.getValue());
+        return buf.flip();
+    }
+
+    private static ByteBuffer encodeAccess(int id, long millis) {
+        int length = MIN_RECORD + Long.BYTES;
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER + length);
+        buf.putInt(length).putInt(0).put(ACCESS).putInt(id).putLong(millis);
+        CRC32 checksum = new CRC32();
+        checksum.update(buf.array(), RECORD_HEADER, length);
+        buf.putInt(4, (int) checksum.getValue());
+        return buf.flip();
+    }
+
+    private static TrackMetadata decode(int id, ByteBuffer buf) {
+        String identifier = readString(buf);
+        String trackName = readString(buf);
+        String author = readString(buf);
+        String art = readString(buf);
+        String trackUrl = readString(buf);
+        String isrc = readString(buf);
+        String sourceId = readString(buf);
+        long durationMs = buf.getLong();
+        return new TrackMetadata(id, trackName, author, art, trackUrl, isrc, durationMs, sourceId, identifier);
+    }
+
+    private static byte[] utf8(String s) {
+        if (s == null) {
+            return null;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        // Metadata strings are short; anything longer than the length field is cut
+        return bytes.length > Short.MAX_VALUE ? Arrays.copyOf(bytes, Short.MAX_VALUE) : bytes;
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String readString(ByteBuffer map, int position) {
+        int length = map.getShort(position);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        map.get(position + Short.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,97 @@
+package io.lolyay.discordmsend.server.registry;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Off-heap storage for strings that are unique per track (names, identifiers, URL suffixes).
+ * <p>
+ * Strings are appended as {@code [short length][UTF-8 bytes]} to 1 MiB direct pages and referred to by a
+ * {@code long} of page index and offset. A page is dropped once every string in it was released, which
+ * for tracks expiring roughly in registration order reclaims memory without ever moving a string.
+ * Pages are never freed explicitly, only unreferenced, so a racing reader never touches released memory.
+ */
+class Utf8Arena {
+    static final long NULL = -1;
+    private static final int PAGE_SIZE = 1 << 20;
+    private static final int MAX_STRING_BYTES = Short.MAX_VALUE;
+
+    private volatile ByteBuffer[] pages = new ByteBuffer[16];
+    private int[] liveStrings = new int[16];
+    private final IntArrayList freePages = new IntArrayList();
+    private int pageCount;
+    private int current = -1;
+    private long allocatedBytes;
+
+    synchronized long append(String s) {
+        if (s == null) {
+            return NULL;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_STRING_BYTES);
+        if (current < 0 || pages[current].remaining() < Short.BYTES + length) {
+            current = newPage();
+        }
+        ByteBuffer page = pages[current];
+        int offset = page.position();
+        page.putShort((short) length).put(bytes, 0, length);
+        liveStrings[current]++;
+        return (long) current << 32 | offset;
+    }
+
+    synchronized void release(long ref) {
+        if (ref == NULL) {
+            return;
+        }
+        int page = (int) (ref >>> 32);
+        if (--liveStrings[page] == 0 && page != current) {
+            pages[page] = null;
+            freePages.add(page);
+            allocatedBytes -= PAGE_SIZE;
+        }
+    }
+
+    String get(long ref) {
+        if (ref == NULL) {
+            return null;
+        }
+        ByteBuffer page = pages[(int) (ref >>> 32)];
+        int offset = (int) ref;
+        int length = page.getShort(offset);
+        byte[] bytes = new byte[length];
+        page.get(offset + Short.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return off-heap bytes currently held by this arena
+     */
+    synchronized long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    private int newPage() {
+        // A current page that is already empty can simply be rewound
+        if (current >= 0 && liveStrings[current] == 0) {
+            pages[current].clear();
+            return current;
+        }
+        int index;
+        if (!freePages.isEmpty()) {
+            index = freePages.popInt();
+        } else {
+            index = pageCount++;
+            if (index == liveStrings.length) {
+                liveStrings = Arrays.copyOf(liveStrings, index * 2);
+                pages = Arrays.copyOf(pages, index * 2);
+            }
+        }
+        pages[index] = ByteBuffer.allocateDirect(PAGE_SIZE);
+        liveStrings[index] = 0;
+        allocatedBytes += PAGE_SIZE;
+        return index;
+    }
+}
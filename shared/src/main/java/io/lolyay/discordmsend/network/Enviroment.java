@@ -4,6 +4,6 @@ public enum Enviroment {
     CLIENT,
     SERVER;
 
-    public static final int PROTOCOL_VERSION = 109;
+    public static final int PROTOCOL_VERSION = 115;
     // yes, this has been increased by 1 every time protocol changes
 }
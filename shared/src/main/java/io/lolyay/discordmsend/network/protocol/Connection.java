@@ -2,12 +2,15 @@ package io.lolyay.discordmsend.network.protocol;
 
 
 import io.lolyay.discordmsend.network.Enviroment;
+import io.lolyay.discordmsend.network.protocol.codec.StringTable;
+import io.lolyay.discordmsend.network.protocol.coder.PacketInboundDecoder;
+import io.lolyay.discordmsend.network.protocol.encryption.KeyExchange;
 import io.lolyay.discordmsend.network.protocol.encryption.NetworkEncryptionUtils;
-import io.lolyay.discordmsend.network.protocol.encryption.PacketDecryptor;
 import io.lolyay.discordmsend.network.protocol.encryption.PacketEncryptor;
 import io.lolyay.discordmsend.network.protocol.packet.Packet;
 import io.lolyay.discordmsend.network.protocol.packet.PacketListener;
 import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.preenc.HandShakeC2SPacket;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPipeline;
@@ -32,6 +35,13 @@ public class Connection extends SimpleChannelInboundHandler<Packet<?>> {
 
     public long timeSinceLastPacket = System.currentTimeMillis();
 
+    /** String dictionaries for this connection, one per direction; see {@link StringTable}. */
+    private final StringTable outboundStrings = new StringTable();
+    private final StringTable inboundStrings = new StringTable();
+
+    /** Key of the current encrypted session, null before encryption is enabled. */
+    private SecretKey sessionKey;
+
     private int protocolVersion;
     private String host;
     private int port;
@@ -72,24 +82,48 @@ public class Connection extends SimpleChannelInboundHandler<Packet<?>> {
             return;
         }
 
-        HandShakeC2SPacket handshakePacket = new HandShakeC2SPacket(protocolVersion, host, APIKEY, port);
+        HandShakeC2SPacket handshakePacket = new HandShakeC2SPacket(protocolVersion, host, APIKEY, port, KeyExchange.SUPPORTED_MASK);
         setPhase(NetworkPhase.PRE_ENCRYPTION);
         send(handshakePacket);
     }
 
 
     public void enableEncryption(SecretKey secretKey) throws GeneralSecurityException {
+        this.sessionKey = secretKey;
         Cipher encryptCipher = NetworkEncryptionUtils.createStreamCipher(Cipher.ENCRYPT_MODE, secretKey);
         Cipher decryptCipher = NetworkEncryptionUtils.createStreamCipher(Cipher.DECRYPT_MODE, secretKey);
 
         ChannelPipeline pipeline = this.channel.pipeline();
 
-        pipeline.addBefore("frameDecoder", "decryptor", new PacketDecryptor(decryptCipher));
+        pipeline.get(PacketInboundDecoder.class).enableDecryption(decryptCipher);
         pipeline.addBefore("frameEncoder", "encryptor", new PacketEncryptor(encryptCipher));
     }
 
 
 
+    /**
+     * Stops reading and decoding inbound data until {@link #resumeInbound()}. Must be called on the event loop.
+     */
+    public void pauseInbound() {
+        channel.config().setAutoRead(false);
+        PacketInboundDecoder inboundDecoder = channel.pipeline().get(PacketInboundDecoder.class);
+        if (inboundDecoder != null) {
+            inboundDecoder.setSuspended(true);
+        }
+    }
+
+    /**
+     * Resumes inbound processing, decoding anything that was buffered while paused. Must be called on the event loop.
+     */
+    public void resumeInbound() {
+        PacketInboundDecoder inboundDecoder = channel.pipeline().get(PacketInboundDecoder.class);
+        if (inboundDecoder != null) {
+            inboundDecoder.setSuspended(false);
+            channel.pipeline().fireChannelRead(Unpooled.EMPTY_BUFFER);
+        }
+        channel.config().setAutoRead(true);
+    }
+
     public void send(Packet<?> packet) {
         if (packet == null) {
             return;
@@ -2,5 +2,7 @@ package io.lolyay.discordmsend.network.protocol;
 
 public enum NetworkPhase {
     PRE_ENCRYPTION,
-    POST_ENCRYPTION
+    POST_ENCRYPTION,
+    /** Cache links between servers of one cluster; unencrypted, see {@code PeerHelloC2SPacket}. */
+    PEER
 }
\ No newline at end of file
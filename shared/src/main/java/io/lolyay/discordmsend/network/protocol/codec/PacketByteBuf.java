@@ -11,11 +11,13 @@ import dev.dewy.nbt.tags.primitive.StringTag;
 import io.lolyay.discordmsend.util.nbt.NbtUtils;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.ByteBufInputStream;
 import io.netty.buffer.Unpooled;
 import io.netty.handler.codec.DecoderException;
 import io.netty.handler.codec.EncoderException;
 import io.netty.util.ByteProcessor;
+import it.unimi.dsi.fastutil.ints.IntList;
 
 import java.io.*;
 import java.nio.ByteBuffer;
@@ -33,10 +35,20 @@ import java.util.function.Function;
 public class PacketByteBuf extends ByteBuf {
 
     private final ByteBuf parent;
+    private final StringTable stringTable;
     public static final int MAX_STRING_LENGTH = 32767;
 
     public PacketByteBuf(ByteBuf parent) {
+        this(parent, null);
+    }
+
+    /**
+     * @param stringTable the connection's string table for this direction, used by
+     *                    {@link #writeTableString(String)} / {@link #readTableString()}; may be null
+     */
+    public PacketByteBuf(ByteBuf parent, StringTable stringTable) {
         this.parent = parent;
+        this.stringTable = stringTable;
     }
 
     public static final float DEGREES_PER_PROTOCOL_ANGLE_UNIT = 360.0f / 256.0f;
@@ -285,12 +297,134 @@ public class PacketByteBuf extends ByteBuf {
     }
 
     public void writeString(String s) {
-        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
-        if (bytes.length > MAX_STRING_LENGTH) {
-            throw new EncoderException("String too big (was " + bytes.length + " bytes encoded, max " + MAX_STRING_LENGTH + ")");
+        int bytes = ByteBufUtil.utf8Bytes(s);
+        if (bytes > MAX_STRING_LENGTH) {
+            throw new EncoderException("String too big (was " + bytes + " bytes encoded, max " + MAX_STRING_LENGTH + ")");
+        }
+        writeVarInt(bytes);
+        ByteBufUtil.reserveAndWriteUtf8(parent, s, bytes);
+    }
+
+    /**
+     * Writes a string through the connection's string table: the first occurrence is sent as a literal
+     * together with an index assignment, later occurrences as a single varint reference.
+     * Meant for values that repeat across packets (author names, source ids, placeholders).
+     * Without a string table this degrades to a tagged literal.
+     */
+    public void writeTableString(String s) {
+        writeTableString(s, true);
+    }
+
+    /**
+     * @param assign whether a string that is not in the table yet should be added to it;
+     *               pass false for values that are unlikely to repeat so they don't use up table slots
+     */
+    public void writeTableString(String s, boolean assign) {
+        if (stringTable != null) {
+            int index = stringTable.indexOf(s);
+            if (index >= 0) {
+                writeVarInt(StringTable.REFERENCE_BASE + index);
+                return;
+            }
+            if (assign && stringTable.assign(s) >= 0) {
+                writeVarInt(StringTable.ASSIGN);
+                writeString(s);
+                return;
+            }
+        }
+        writeVarInt(StringTable.LITERAL);
+        writeString(s);
+    }
+
+    public String readTableString(int maxLength) {
+        int tag = readVarInt();
+        if (tag == StringTable.LITERAL) {
+            return readString(maxLength);
+        }
+        if (stringTable == null) {
+            throw new DecoderException("Received a string table entry without a string table");
+        }
+        if (tag == StringTable.ASSIGN) {
+            String s = readString(maxLength);
+            stringTable.assign(s);
+            return s;
+        }
+        String s = stringTable.get(tag - StringTable.REFERENCE_BASE);
+        if (s == null) {
+            throw new DecoderException("Unknown string table index " + (tag - StringTable.REFERENCE_BASE));
+        }
+        return s;
+    }
+
+    public String readTableString() {
+        return readTableString(256);
+    }
+
+    /**
+     * Writes a URL as a table string for everything up to and including the last '/' (host and path
+     * prefixes repeat a lot) followed by the remainder as a plain string.
+     */
+    public void writeTableUrl(String url) {
+        int split = url.lastIndexOf('/') + 1;
+        writeTableString(url.substring(0, split));
+        writeString(url.substring(split));
+    }
+
+    public String readTableUrl() {
+        String prefix = readTableString(MAX_STRING_LENGTH);
+        return prefix + readString(MAX_STRING_LENGTH);
+    }
+
+    // ===================================================================================
+    //  SIZE HELPERS (used by PacketCodec size functions)
+    // ===================================================================================
+
+    public static int varIntSize(int value) {
+        if ((value & -128) == 0) return 1;
+        if ((value & -16384) == 0) return 2;
+        if ((value & -2097152) == 0) return 3;
+        if ((value & -268435456) == 0) return 4;
+        return 5;
+    }
+
+    public static int varLongSize(long value) {
+        int size = 1;
+        while ((value & -128L) != 0L) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of bytes {@link #writeString(String)} writes for this string, length prefix included
+     */
+    public static int stringSize(String s) {
+        int bytes = ByteBufUtil.utf8Bytes(s);
+        return varIntSize(bytes) + bytes;
+    }
+
+    /**
+     * @return the maximum number of bytes {@link #writeTableString(String)} writes for this string
+     */
+    public static int tableStringSize(String s) {
+        return 1 + stringSize(s);
+    }
+
+    /**
+     * @return the maximum number of bytes {@link #writeTableUrl(String)} writes for this URL
+     */
+    public static int tableUrlSize(String url) {
+        int split = url.lastIndexOf('/') + 1;
+        return tableStringSize(url.substring(0, split)) + stringSize(url.substring(split));
+    }
+
+    public static int prefixedVarIntArraySize(IntList values) {
+        int size = varIntSize(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            size += varIntSize(values.getInt(i));
         }
-        writeVarInt(bytes.length);
-        this.writeBytes(bytes);
+        return size;
     }
 
     public String readIdentifierString() {
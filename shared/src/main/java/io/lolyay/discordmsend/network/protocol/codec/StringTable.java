@@ -0,0 +1,65 @@
+package io.lolyay.discordmsend.network.protocol.codec;
+
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+/**
+ * One direction of a connection's string dictionary.
+ * <p>
+ * Both ends keep a table per direction that is filled in packet order: the writer assigns the next index
+ * the first time it sends a string and the reader appends that string when it reads the assignment,
+ * so both tables stay identical without ever being sent as a whole. Tables are bounded; once full,
+ * new strings are simply sent as literals.
+ * <p>
+ * Only ever touched from the channel's event loop (encoder or decoder), so it is not synchronized.
+ */
+public class StringTable {
+    public static final int MAX_ENTRIES = 4096;
+
+    /** Wire tag for a literal that is not added to the table. */
+    static final int LITERAL = 0;
+    /** Wire tag for a literal that is added to the table at the next index. */
+    static final int ASSIGN = 1;
+    /** Wire tags from this value on reference index {@code tag - REFERENCE_BASE}. */
+    static final int REFERENCE_BASE = 2;
+
+    private final Object2IntOpenHashMap<String> indices = new Object2IntOpenHashMap<>();
+    private final ObjectArrayList<String> entries = new ObjectArrayList<>();
+
+    public StringTable() {
+        indices.defaultReturnValue(-1);
+    }
+
+    /**
+     * @return the index of the string, or -1 if it was never assigned
+     */
+    public int indexOf(String s) {
+        return indices.getInt(s);
+    }
+
+    /**
+     * Assigns the next index to the string.
+     *
+     * @return the assigned index, or -1 if the table is full
+     */
+    public int assign(String s) {
+        if (entries.size() >= MAX_ENTRIES) {
+            return -1;
+        }
+        int index = entries.size();
+        entries.add(s);
+        indices.put(s, index);
+        return index;
+    }
+
+    public String get(int index) {
+        if (index < 0 || index >= entries.size()) {
+            return null;
+        }
+        return entries.get(index);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
@@ -16,36 +16,92 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToByteEncoder;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 @Slf4j
 public class PacketEncoder extends MessageToByteEncoder<Packet<?>> {
+    // Packet types whose size function was reported as too small / too large, so each is only reported once
+    private static final Set<Class<?>> UNDERSIZED = ConcurrentHashMap.newKeySet();
+    private static final Set<Class<?>> OVERSIZED = ConcurrentHashMap.newKeySet();
 
     private final PacketRegistry registry;
     private final Connection connection;
     private final PacketDirection direction;
 
+    // Looked up once per packet by allocateBuffer and reused by encode; both run on the event loop
+    private Packet<?> pendingPacket;
+    private int pendingId;
+    private PacketCodec<Packet<?>> pendingCodec;
+    private int pendingSize;
+
     public PacketEncoder(PacketRegistry registry, Connection connection, PacketDirection direction) {
         this.registry = registry;
         this.connection = connection;
         this.direction = direction;
     }
 
+    /**
+     * Allocates the outbound buffer at the exact encoded size when the codec knows it,
+     * so large packets (audio, track details) are written without intermediate buffer growth.
+     */
+    @Override
+    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, Packet<?> packet, boolean preferDirect) throws Exception {
+        lookUp(packet);
+        if (pendingSize < 0) {
+            return super.allocateBuffer(ctx, packet, preferDirect);
+        }
+
+        int size = PacketByteBuf.varIntSize(pendingId) + pendingSize;
+        return preferDirect ? ctx.alloc().ioBuffer(size) : ctx.alloc().heapBuffer(size);
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, Packet<?> packet, ByteBuf out) throws Exception {
         try {
-            int packetId = registry.getPacketId(connection.getPhase(), this.direction, packet);
-            PacketByteBuf buf = new PacketByteBuf(out);
+            if (pendingPacket != packet) {
+                lookUp(packet);
+            }
+            PacketByteBuf buf = new PacketByteBuf(out, connection.getOutboundStrings());
 
-            buf.writeVarInt(packetId);
+            buf.writeVarInt(pendingId);
+            int bodyStart = out.writerIndex();
 
-            @SuppressWarnings("unchecked")
-            var codec = (PacketCodec<Packet<?>>) registry.getCodec(connection.getPhase(), this.direction, packetId);
-
-            codec.encoder().accept(buf, packet);
+            pendingCodec.encoder().accept(buf, packet);
 
+            if (pendingSize >= 0) {
+                checkSize(packet, out.writerIndex() - bodyStart);
+            }
         } catch (Exception e){
             log.error("Failed to encode packet: {}", packet.getClass().getSimpleName(), e);
             e.printStackTrace();
             throw e;
+        } finally {
+            pendingPacket = null;
+            pendingCodec = null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void lookUp(Packet<?> packet) {
+        pendingPacket = packet;
+        pendingId = registry.getPacketId(connection.getPhase(), this.direction, packet);
+        pendingCodec = (PacketCodec<Packet<?>>) registry.getCodec(connection.getPhase(), this.direction, pendingId);
+        pendingSize = pendingCodec == null ? -1 : pendingCodec.sizeOf(packet);
+    }
+
+    /**
+     * Reports a size function that disagrees with what the encoder wrote, once per packet type. Writing more
+     * than predicted is a bug (the buffer had to grow); less is expected where the size is an upper bound
+     * because of string table references.
+     */
+    private void checkSize(Packet<?> packet, int written) {
+        if (written > pendingSize) {
+            if (UNDERSIZED.add(packet.getClass())) {
+                log.warn("Size of {} is wrong: predicted {} bytes, wrote {}", packet.getClass().getSimpleName(), pendingSize, written);
+            }
+        } else if (written < pendingSize && OVERSIZED.add(packet.getClass())) {
+            log.debug("Size of {} is an upper bound: predicted {} bytes, wrote {}", packet.getClass().getSimpleName(), pendingSize, written);
         }
     }
-}
\ No newline at end of file
+}
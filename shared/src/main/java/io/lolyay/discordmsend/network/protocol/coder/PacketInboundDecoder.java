@@ -0,0 +1,160 @@
+package io.lolyay.discordmsend.network.protocol.coder;
+
+
+import io.lolyay.discordmsend.network.protocol.Connection;
+import io.lolyay.discordmsend.network.protocol.codec.PacketByteBuf;
+import io.lolyay.discordmsend.network.protocol.encryption.PacketEncryptionManager;
+import io.lolyay.discordmsend.network.protocol.packet.Packet;
+import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
+import io.lolyay.discordmsend.network.protocol.packet.PacketDirection;
+import io.lolyay.discordmsend.network.protocol.packet.PacketRegistry;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.crypto.Cipher;
+import java.util.List;
+
+/**
+ * Single inbound handler replacing the decryptor -> frame decoder -> packet decoder chain.
+ * <p>
+ * Incoming bytes are decrypted in place inside the cumulation buffer, varint length frames are
+ * parsed straight out of it and the codec reads the frame by temporarily limiting the writer index,
+ * so no per-read or per-frame buffers, slices or wrappers are allocated.
+ * <p>
+ * Exactly one frame is decoded per {@link #decode} call. The packet is dispatched before the next call,
+ * which lets a listener enable decryption (see {@link #enableDecryption}) right after a handshake packet
+ * without the following, already received, bytes being misread as plaintext.
+ */
+@Slf4j
+public class PacketInboundDecoder extends ByteToMessageDecoder {
+    private static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    private final PacketRegistry registry;
+    private final Connection connection;
+    private final PacketDirection direction;
+    private final IntOpenHashSet unknownPackets = new IntOpenHashSet();
+
+    private PacketEncryptionManager decryption;
+    /** While set, received bytes stay in the cumulation untouched; see {@link #setSuspended}. */
+    private boolean suspended;
+    /** Readable bytes (counted from the reader index) that are already plaintext. */
+    private int plaintextBytes;
+
+    private ByteBuf wrappedCumulation;
+    private PacketByteBuf wrapper;
+
+    public PacketInboundDecoder(PacketRegistry registry, Connection connection, PacketDirection direction) {
+        this.registry = registry;
+        this.connection = connection;
+        this.direction = direction;
+    }
+
+    /**
+     * Every byte after the last decoded frame is treated as ciphertext from now on.
+     */
+    public void enableDecryption(Cipher cipher) {
+        this.decryption = new PacketEncryptionManager(cipher);
+        this.plaintextBytes = 0;
+    }
+
+    /**
+     * Stops decoding until resumed, e.g. while the session key is being computed off the event loop and
+     * the bytes that already arrived may be ciphertext. Resuming does not decode by itself, the next read
+     * (or an empty read fired by {@link Connection#resumeInbound()}) picks up the buffered bytes.
+     */
+    public void setSuspended(boolean suspended) {
+        this.suspended = suspended;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        if (suspended) {
+            return;
+        }
+        int readable = in.readableBytes();
+        if (decryption != null && readable > plaintextBytes) {
+            decryption.processInPlace(in, in.readerIndex() + plaintextBytes, readable - plaintextBytes);
+        }
+        plaintextBytes = readable;
+
+        int start = in.readerIndex();
+        int frameLength = 0;
+        int headerLength = 0;
+        while (true) {
+            if (headerLength == readable) {
+                return; // length prefix not complete yet
+            }
+            byte b = in.getByte(start + headerLength);
+            frameLength |= (b & 127) << (7 * headerLength++);
+            if ((b & 128) == 0) {
+                break;
+            }
+            if (headerLength == 5) {
+                throw new CorruptedFrameException("Frame length wider than 32 bits");
+            }
+        }
+        if (frameLength < 0 || frameLength > MAX_FRAME_LENGTH) {
+            throw new CorruptedFrameException("Invalid frame length: " + frameLength);
+        }
+        if (readable - headerLength < frameLength) {
+            return; // frame not complete yet
+        }
+
+        int frameStart = start + headerLength;
+        int frameEnd = frameStart + frameLength;
+        in.readerIndex(frameStart);
+        plaintextBytes -= headerLength + frameLength;
+
+        if (frameLength == 0) {
+            return;
+        }
+
+        int writerIndex = in.writerIndex();
+        in.writerIndex(frameEnd);
+        try {
+            decodeFrame(in, out);
+        } finally {
+            in.writerIndex(writerIndex);
+            in.readerIndex(frameEnd);
+        }
+    }
+
+    private void decodeFrame(ByteBuf in, List<Object> out) {
+        PacketByteBuf buf = wrap(in);
+        int packetId = buf.readVarInt();
+        PacketCodec<?> codec = registry.getCodec(connection.getPhase(), this.direction, packetId);
+        if (codec == null) {
+            if (unknownPackets.add(packetId)) {
+                log.warn("Unknown packet id: 0x{} for {}/{}", Integer.toHexString(packetId), connection.getPhase(), direction);
+            }
+            return;
+        }
+
+        Packet<?> packet = codec.decoder().apply(buf);
+
+        if (in.isReadable()) {
+            log.warn("Packet {} (0x{}) did not read all of its bytes! {} remaining.", packet.getClass().getSimpleName(), Integer.toHexString(packetId), in.readableBytes());
+        }
+
+        out.add(packet);
+    }
+
+    private PacketByteBuf wrap(ByteBuf cumulation) {
+        if (cumulation != wrappedCumulation) {
+            wrappedCumulation = cumulation;
+            wrapper = new PacketByteBuf(cumulation, connection.getInboundStrings());
+        }
+        return wrapper;
+    }
+
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) {
+        wrappedCumulation = null;
+        wrapper = null;
+    }
+}
@@ -0,0 +1,23 @@
+package io.lolyay.discordmsend.network.protocol.encryption;
+
+/**
+ * Key exchange used during the pre-encryption phase. The client announces every mode it supports
+ * in the handshake, the server picks one and names it in the encryption request.
+ */
+public enum KeyExchange {
+    /** Client encrypts (AES key XOR nonce) with the server's RSA-1024 key. */
+    RSA,
+    /** Ephemeral X25519 agreement, the AES key is derived from the shared secret and the nonce. */
+    X25519;
+
+    /** Every mode this build understands. */
+    public static final int SUPPORTED_MASK = RSA.mask() | X25519.mask();
+
+    public int mask() {
+        return 1 << ordinal();
+    }
+
+    public boolean isIn(int mask) {
+        return (mask & mask()) != 0;
+    }
+}
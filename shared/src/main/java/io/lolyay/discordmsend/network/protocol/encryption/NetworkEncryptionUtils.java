@@ -2,7 +2,9 @@ package io.lolyay.discordmsend.network.protocol.encryption;
 
 
 import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
 import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
@@ -21,6 +23,27 @@ public class NetworkEncryptionUtils {
         }
     }
 
+    public static KeyPair createX25519KeyPair() {
+        try {
+            return KeyPairGenerator.getInstance("X25519").generateKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Failed to create X25519 key pair", e);
+        }
+    }
+
+    /**
+     * Runs the X25519 agreement and derives the AES session key from the shared secret and the server nonce.
+     */
+    public static SecretKey agreeX25519(PrivateKey privateKey, PublicKey peerKey, byte[] nonce) throws GeneralSecurityException {
+        KeyAgreement agreement = KeyAgreement.getInstance("X25519");
+        agreement.init(privateKey);
+        agreement.doPhase(peerKey, true);
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(agreement.generateSecret());
+        digest.update(nonce);
+        return new SecretKeySpec(java.util.Arrays.copyOf(digest.digest(), SIZE), "AES");
+    }
+
     private static final int SIZE = 16;
     private static final SecureRandom RANDOM = new SecureRandom();
 
@@ -68,6 +91,28 @@ public class NetworkEncryptionUtils {
         return cipher;
     }
 
+    /**
+     * Secret both sides derive from an established session key once a resumption ticket is issued.
+     * The secret itself never goes over the wire; the server keeps it inside the encrypted ticket.
+     */
+    public static byte[] deriveResumptionSecret(SecretKey sessionKey) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(sessionKey.getEncoded(), "HmacSHA256"));
+        byte[] out = mac.doFinal("dst-resumption".getBytes(java.nio.charset.StandardCharsets.US_ASCII));
+        return java.util.Arrays.copyOf(out, SIZE);
+    }
+
+    /**
+     * Fresh AES session key for a resumed session, bound to both handshake nonces.
+     */
+    public static SecretKey deriveResumedKey(byte[] resumptionSecret, byte[] serverNonce, byte[] clientNonce) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(resumptionSecret, "HmacSHA256"));
+        mac.update(serverNonce);
+        mac.update(clientNonce);
+        return new SecretKeySpec(java.util.Arrays.copyOf(mac.doFinal(), SIZE), "AES");
+    }
+
     public static byte[] computeServerIdHash(String serverId, SecretKey sharedSecret, PublicKey publicKey) throws NoSuchAlgorithmException, UnsupportedEncodingException {
         MessageDigest digest = MessageDigest.getInstance("SHA-1");
         digest.update(serverId.getBytes("ISO_8859_1"));
@@ -40,4 +40,24 @@ public class PacketEncryptionManager {
             output.writeBytes(this.outputBuffer, 0, writtenBytes);
         }
     }
+
+    /**
+     * Runs the stream cipher over {@code length} bytes at {@code index} and writes the result back to the same place.
+     * Heap buffers are processed directly in their backing array; direct buffers go through the reusable scratch array.
+     */
+    public void processInPlace(ByteBuf buf, int index, int length) throws ShortBufferException {
+        if (buf.hasArray()) {
+            byte[] array = buf.array();
+            int offset = buf.arrayOffset() + index;
+            this.cipher.update(array, offset, length, array, offset);
+            return;
+        }
+
+        if (this.inputBuffer.length < length) {
+            this.inputBuffer = new byte[length];
+        }
+        buf.getBytes(index, this.inputBuffer, 0, length);
+        int writtenBytes = this.cipher.update(this.inputBuffer, 0, length, this.inputBuffer, 0);
+        buf.setBytes(index, this.inputBuffer, 0, writtenBytes);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,43 @@
+package io.lolyay.discordmsend.network.protocol.encryption;
+
+import java.math.BigInteger;
+import java.security.*;
+import java.security.interfaces.XECPublicKey;
+import java.security.spec.*;
+
+/**
+ * Raw 32-byte (RFC 7748, little-endian u-coordinate) encoding of X25519 public keys.
+ */
+public class X25519Serializer {
+
+    public static final int KEY_LENGTH = 32;
+
+    public static byte[] publicKeyToBytes(PublicKey pubKey) {
+        BigInteger u = ((XECPublicKey) pubKey).getU();
+        byte[] bigEndian = u.toByteArray();
+
+        byte[] result = new byte[KEY_LENGTH];
+        for (int i = 0; i < KEY_LENGTH && i < bigEndian.length; i++) {
+            result[i] = bigEndian[bigEndian.length - 1 - i];
+        }
+        return result;
+    }
+
+    public static PublicKey bytesToPublicKey(byte[] bytes) {
+        if (bytes.length != KEY_LENGTH) {
+            throw new IllegalArgumentException("X25519 public key must be exactly " + KEY_LENGTH + " bytes");
+        }
+        byte[] bigEndian = new byte[KEY_LENGTH];
+        for (int i = 0; i < KEY_LENGTH; i++) {
+            bigEndian[i] = bytes[KEY_LENGTH - 1 - i];
+        }
+        // RFC 7748: the most significant bit of the last byte is ignored
+        bigEndian[0] &= 0x7f;
+        XECPublicKeySpec spec = new XECPublicKeySpec(NamedParameterSpec.X25519, new BigInteger(1, bigEndian));
+        try {
+            return KeyFactory.getInstance("X25519").generatePublic(spec);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
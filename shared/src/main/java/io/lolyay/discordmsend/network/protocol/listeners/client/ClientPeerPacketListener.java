@@ -0,0 +1,9 @@
+package io.lolyay.discordmsend.network.protocol.listeners.client;
+
+
+import io.lolyay.discordmsend.network.protocol.packet.PacketListener;
+import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.peer.PeerFetchResponseS2CPacket;
+
+public interface ClientPeerPacketListener extends PacketListener {
+    void onPeerFetchResponse(PeerFetchResponseS2CPacket packet);
+}
@@ -10,11 +10,13 @@ public interface ClientPostEncryptionPacketListener extends PacketListener {
     void onEncHello(EncHelloS2CPacket packet);
     void onKeepAlive(KeepAliveS2CPacket packet);
     void onTrackDetails(TrackDetailsS2CPacket packet);
+    void onTrackDetailsBatch(TrackDetailsBatchS2CPacket packet);
     void onStatistics(StatisticsS2CPacket packet);
     void onPlayerUpdate(PlayerUpdateS2CPacket packet);
     void onPong(PongS2CPacket packet);
     void onCacheExpire(CacheExpireS2C packet);
     void onTrackTimingUpdate(TrackTimingUpdateS2CPacket packet);
+    void onSessionTicket(SessionTicketS2CPacket packet);
 
     //Events
     void onPlayerPause(PlayerPauseS2CPacket packet);
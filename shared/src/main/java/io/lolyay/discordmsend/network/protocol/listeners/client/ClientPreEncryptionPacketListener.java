@@ -3,7 +3,9 @@ package io.lolyay.discordmsend.network.protocol.listeners.client;
 
 import io.lolyay.discordmsend.network.protocol.packet.PacketListener;
 import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.preenc.EncryptionRequestS2CPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.preenc.ResumeSessionS2CPacket;
 
 public interface ClientPreEncryptionPacketListener extends PacketListener {
     void onEncryptionRequest(EncryptionRequestS2CPacket packet);
+    void onResumeSession(ResumeSessionS2CPacket packet);
 }
\ No newline at end of file
@@ -0,0 +1,13 @@
+package io.lolyay.discordmsend.network.protocol.listeners.server;
+
+
+import io.lolyay.discordmsend.network.protocol.packet.PacketListener;
+import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.peer.PeerAnnounceC2SPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.peer.PeerFetchC2SPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.peer.PeerHelloC2SPacket;
+
+public interface ServerPeerPacketListener extends PacketListener {
+    void onPeerHello(PeerHelloC2SPacket packet);
+    void onPeerFetch(PeerFetchC2SPacket packet);
+    void onPeerAnnounce(PeerAnnounceC2SPacket packet);
+}
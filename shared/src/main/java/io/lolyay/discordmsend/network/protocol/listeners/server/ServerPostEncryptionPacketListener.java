@@ -18,5 +18,9 @@ public interface ServerPostEncryptionPacketListener extends PacketListener {
     void onPing(PingC2SPacket packet);
     void onForceReconnect(ForceDiscordReconnectC2SPacket packet);
     void onSeek(SeekC2SPacket packet);
+    void onQueueTrack(QueueTrackC2SPacket packet);
+    void onQueueClear(QueueClearC2SPacket packet);
+    void onPlayerSkip(PlayerSkipC2SPacket packet);
+    void onSetCrossfade(SetCrossfadeC2SPacket packet);
     void onRequest(IRequestPacket requestPacket);
 }
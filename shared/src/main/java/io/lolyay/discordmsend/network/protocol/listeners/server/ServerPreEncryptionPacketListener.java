@@ -4,8 +4,10 @@ package io.lolyay.discordmsend.network.protocol.listeners.server;
 import io.lolyay.discordmsend.network.protocol.packet.PacketListener;
 import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.preenc.EncryptionResponseC2SPacket;
 import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.preenc.HandShakeC2SPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.preenc.ResumeSessionC2SPacket;
 
 public interface ServerPreEncryptionPacketListener extends PacketListener {
     void onHandShake(HandShakeC2SPacket packet);
     void onEncryptionResponse(EncryptionResponseC2SPacket packet);
+    void onResumeSession(ResumeSessionC2SPacket packet);
 }
\ No newline at end of file
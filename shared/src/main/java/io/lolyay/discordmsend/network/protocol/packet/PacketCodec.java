@@ -6,12 +6,33 @@ import io.lolyay.discordmsend.network.protocol.codec.PacketByteBuf;
 
 import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
+/**
+ * Encoder / decoder pair for a packet type, optionally with a size function.
+ * <p>
+ * When a size function is present, {@link io.lolyay.discordmsend.network.protocol.coder.PacketEncoder}
+ * allocates the outbound buffer at exactly the encoded size instead of growing a default-sized one,
+ * so the function must return the exact number of bytes the encoder writes (excluding the packet id),
+ * or an upper bound where the encoding depends on connection state (string table references).
+ */
 public record PacketCodec<T extends Packet<?>>(
         BiConsumer<PacketByteBuf, T> encoder,
-        Function<PacketByteBuf, T> decoder
+        Function<PacketByteBuf, T> decoder,
+        ToIntFunction<T> sizer
 ) {
     public static <T extends Packet<?>> PacketCodec<T> create(BiConsumer<PacketByteBuf, T> encoder, Function<PacketByteBuf, T> decoder) {
-        return new PacketCodec<>(encoder, decoder);
+        return new PacketCodec<>(encoder, decoder, null);
     }
-}
\ No newline at end of file
+
+    public static <T extends Packet<?>> PacketCodec<T> create(BiConsumer<PacketByteBuf, T> encoder, Function<PacketByteBuf, T> decoder, ToIntFunction<T> sizer) {
+        return new PacketCodec<>(encoder, decoder, sizer);
+    }
+
+    /**
+     * @return the encoded size of the packet body in bytes, or -1 if this codec has no size function
+     */
+    public int sizeOf(T packet) {
+        return sizer == null ? -1 : sizer.applyAsInt(packet);
+    }
+}
@@ -2,12 +2,18 @@ package io.lolyay.discordmsend.network.protocol.packet;
 
 
 import io.lolyay.discordmsend.network.protocol.NetworkPhase;
+import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.peer.PeerAnnounceC2SPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.peer.PeerFetchC2SPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.peer.PeerHelloC2SPacket;
 import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.postenc.*;
 import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc.*;
 import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc.events.*;
 import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.preenc.EncryptionResponseC2SPacket;
 import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.preenc.HandShakeC2SPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.preenc.ResumeSessionC2SPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.peer.PeerFetchResponseS2CPacket;
 import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.preenc.EncryptionRequestS2CPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.preenc.ResumeSessionS2CPacket;
 
 
 import io.netty.util.collection.IntObjectHashMap;
@@ -70,9 +76,11 @@ public class PacketRegistry {
         // PRE ENCRYPTION (Client to Server)
         register(NetworkPhase.PRE_ENCRYPTION, PacketDirection.SERVER_BOUND, 0, HandShakeC2SPacket.class, HandShakeC2SPacket.CODEC);
         register(NetworkPhase.PRE_ENCRYPTION, PacketDirection.SERVER_BOUND, 1, EncryptionResponseC2SPacket.class, EncryptionResponseC2SPacket.CODEC);
+        register(NetworkPhase.PRE_ENCRYPTION, PacketDirection.SERVER_BOUND, 2, ResumeSessionC2SPacket.class, ResumeSessionC2SPacket.CODEC);
 
         // PRE ENCRYPTION (Server to Client)
         register(NetworkPhase.PRE_ENCRYPTION, PacketDirection.CLIENT_BOUND, 0, EncryptionRequestS2CPacket.class, EncryptionRequestS2CPacket.CODEC);  // 0x25 is 37
+        register(NetworkPhase.PRE_ENCRYPTION, PacketDirection.CLIENT_BOUND, 1, ResumeSessionS2CPacket.class, ResumeSessionS2CPacket.CODEC);
 
 
 
@@ -98,6 +106,11 @@ public class PacketRegistry {
         register(NetworkPhase.POST_ENCRYPTION, PacketDirection.SERVER_BOUND, 17, RequestLinkC2SPacket.class, RequestLinkC2SPacket.CODEC);
         register(NetworkPhase.POST_ENCRYPTION, PacketDirection.SERVER_BOUND, 18, ForceDiscordReconnectC2SPacket.class, ForceDiscordReconnectC2SPacket.CODEC);
         register(NetworkPhase.POST_ENCRYPTION, PacketDirection.SERVER_BOUND, 19, SeekC2SPacket.class, SeekC2SPacket.CODEC);
+        register(NetworkPhase.POST_ENCRYPTION, PacketDirection.SERVER_BOUND, 20, RequestTrackInfoBatchC2SPacket.class, RequestTrackInfoBatchC2SPacket.CODEC);
+        register(NetworkPhase.POST_ENCRYPTION, PacketDirection.SERVER_BOUND, 21, QueueTrackC2SPacket.class, QueueTrackC2SPacket.CODEC);
+        register(NetworkPhase.POST_ENCRYPTION, PacketDirection.SERVER_BOUND, 22, QueueClearC2SPacket.class, QueueClearC2SPacket.CODEC);
+        register(NetworkPhase.POST_ENCRYPTION, PacketDirection.SERVER_BOUND, 23, PlayerSkipC2SPacket.class, PlayerSkipC2SPacket.CODEC);
+        register(NetworkPhase.POST_ENCRYPTION, PacketDirection.SERVER_BOUND, 24, SetCrossfadeC2SPacket.class, SetCrossfadeC2SPacket.CODEC);
 
         // POST ENCRYPTION (Server to Client)
         register(NetworkPhase.POST_ENCRYPTION, PacketDirection.CLIENT_BOUND, 0, EncHelloS2CPacket.class, EncHelloS2CPacket.CODEC);
@@ -121,6 +134,17 @@ public class PacketRegistry {
         register(NetworkPhase.POST_ENCRYPTION, PacketDirection.CLIENT_BOUND, 15, LinkResponseS2CPacket.class, LinkResponseS2CPacket.CODEC);
         register(NetworkPhase.POST_ENCRYPTION, PacketDirection.CLIENT_BOUND, 16, TrackTimingUpdateS2CPacket.class, TrackTimingUpdateS2CPacket.CODEC);
         register(NetworkPhase.POST_ENCRYPTION, PacketDirection.CLIENT_BOUND, 17, AudioS2CPacket.class, AudioS2CPacket.CODEC);
+        register(NetworkPhase.POST_ENCRYPTION, PacketDirection.CLIENT_BOUND, 18, SessionTicketS2CPacket.class, SessionTicketS2CPacket.CODEC);
+        register(NetworkPhase.POST_ENCRYPTION, PacketDirection.CLIENT_BOUND, 19, TrackDetailsBatchS2CPacket.class, TrackDetailsBatchS2CPacket.CODEC);
+
+
+        // PEER (requesting server to serving server)
+        register(NetworkPhase.PEER, PacketDirection.SERVER_BOUND, 0, PeerHelloC2SPacket.class, PeerHelloC2SPacket.CODEC);
+        register(NetworkPhase.PEER, PacketDirection.SERVER_BOUND, 1, PeerFetchC2SPacket.class, PeerFetchC2SPacket.CODEC);
+        register(NetworkPhase.PEER, PacketDirection.SERVER_BOUND, 2, PeerAnnounceC2SPacket.class, PeerAnnounceC2SPacket.CODEC);
+
+        // PEER (serving server to requesting server)
+        register(NetworkPhase.PEER, PacketDirection.CLIENT_BOUND, 0, PeerFetchResponseS2CPacket.class, PeerFetchResponseS2CPacket.CODEC);
 
 
     }
@@ -0,0 +1,25 @@
+package io.lolyay.discordmsend.network.protocol.packet.packets.C2S.peer;
+
+import io.lolyay.discordmsend.network.protocol.listeners.server.ServerPeerPacketListener;
+import io.lolyay.discordmsend.network.protocol.packet.Packet;
+import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
+
+/**
+ * Tells the peer that owns a track that the sender just cached it, so the owner can fetch it from the sender.
+ */
+public record PeerAnnounceC2SPacket(
+        String key
+) implements Packet<ServerPeerPacketListener> {
+
+    public static final PacketCodec<PeerAnnounceC2SPacket> CODEC = PacketCodec.create(
+            // Encoder
+            (buf, packet) -> buf.writeString(packet.key),
+            // Decoder
+            (buf) -> new PeerAnnounceC2SPacket(buf.readString())
+    );
+
+    @Override
+    public void apply(ServerPeerPacketListener listener) {
+        listener.onPeerAnnounce(this);
+    }
+}
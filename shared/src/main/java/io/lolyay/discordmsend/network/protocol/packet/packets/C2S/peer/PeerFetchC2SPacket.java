@@ -0,0 +1,34 @@
+package io.lolyay.discordmsend.network.protocol.packet.packets.C2S.peer;
+
+import io.lolyay.discordmsend.network.protocol.listeners.server.ServerPeerPacketListener;
+import io.lolyay.discordmsend.network.protocol.packet.Packet;
+import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
+
+/**
+ * Asks a peer for a cached track. Answered, in request order, by a {@code PeerFetchResponseS2CPacket}.
+ *
+ * @param key object key of the track, as used by the shared track store
+ */
+public record PeerFetchC2SPacket(
+        int requestId,
+        String key
+) implements Packet<ServerPeerPacketListener> {
+
+    public static final PacketCodec<PeerFetchC2SPacket> CODEC = PacketCodec.create(
+            // Encoder
+            (buf, packet) -> {
+                buf.writeVarInt(packet.requestId);
+                buf.writeString(packet.key);
+            },
+            // Decoder
+            (buf) -> new PeerFetchC2SPacket(
+                    buf.readVarInt(),
+                    buf.readString()
+            )
+    );
+
+    @Override
+    public void apply(ServerPeerPacketListener listener) {
+        listener.onPeerFetch(this);
+    }
+}
@@ -0,0 +1,38 @@
+package io.lolyay.discordmsend.network.protocol.packet.packets.C2S.peer;
+
+import io.lolyay.discordmsend.network.protocol.listeners.server.ServerPeerPacketListener;
+import io.lolyay.discordmsend.network.protocol.packet.Packet;
+import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
+
+/**
+ * First packet on a peer link. Peer links carry cached audio as raw file regions, so they are not encrypted;
+ * the shared cluster secret only keeps strangers out and the links belong on a private network.
+ *
+ * @param nodeId the sender's own peer address ({@code host:port}) as listed in the cluster configuration
+ */
+public record PeerHelloC2SPacket(
+        int protocolVersion,
+        String secret,
+        String nodeId
+) implements Packet<ServerPeerPacketListener> {
+
+    public static final PacketCodec<PeerHelloC2SPacket> CODEC = PacketCodec.create(
+            // Encoder
+            (buf, packet) -> {
+                buf.writeVarInt(packet.protocolVersion);
+                buf.writeString(packet.secret);
+                buf.writeString(packet.nodeId);
+            },
+            // Decoder
+            (buf) -> new PeerHelloC2SPacket(
+                    buf.readVarInt(),
+                    buf.readString(),
+                    buf.readString()
+            )
+    );
+
+    @Override
+    public void apply(ServerPeerPacketListener listener) {
+        listener.onPeerHello(this);
+    }
+}
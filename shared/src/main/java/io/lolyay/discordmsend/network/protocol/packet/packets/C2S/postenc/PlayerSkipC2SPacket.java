@@ -0,0 +1,30 @@
+package io.lolyay.discordmsend.network.protocol.packet.packets.C2S.postenc;
+
+
+import io.lolyay.discordmsend.network.protocol.listeners.server.ServerPostEncryptionPacketListener;
+import io.lolyay.discordmsend.network.protocol.packet.Packet;
+import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
+
+/**
+ * Ends the current track and plays the next queued one, or stops if the queue is empty.
+ */
+public record PlayerSkipC2SPacket(
+        long guildId
+) implements Packet<ServerPostEncryptionPacketListener> {
+
+    public static final PacketCodec<PlayerSkipC2SPacket> CODEC = PacketCodec.create(
+            // Encoder
+            (buf, packet) -> {
+                buf.writeLong(packet.guildId);
+            },
+            // Decoder
+            (buf) -> new PlayerSkipC2SPacket(
+                    buf.readLong()
+            )
+    );
+
+    @Override
+    public void apply(ServerPostEncryptionPacketListener listener) {
+        listener.onPlayerSkip(this);
+    }
+}
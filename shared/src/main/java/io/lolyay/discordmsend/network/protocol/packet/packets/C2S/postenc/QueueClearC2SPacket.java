@@ -0,0 +1,30 @@
+package io.lolyay.discordmsend.network.protocol.packet.packets.C2S.postenc;
+
+
+import io.lolyay.discordmsend.network.protocol.listeners.server.ServerPostEncryptionPacketListener;
+import io.lolyay.discordmsend.network.protocol.packet.Packet;
+import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
+
+/**
+ * Removes every queued track of a guild. The current track keeps playing.
+ */
+public record QueueClearC2SPacket(
+        long guildId
+) implements Packet<ServerPostEncryptionPacketListener> {
+
+    public static final PacketCodec<QueueClearC2SPacket> CODEC = PacketCodec.create(
+            // Encoder
+            (buf, packet) -> {
+                buf.writeLong(packet.guildId);
+            },
+            // Decoder
+            (buf) -> new QueueClearC2SPacket(
+                    buf.readLong()
+            )
+    );
+
+    @Override
+    public void apply(ServerPostEncryptionPacketListener listener) {
+        listener.onQueueClear(this);
+    }
+}
@@ -0,0 +1,34 @@
+package io.lolyay.discordmsend.network.protocol.packet.packets.C2S.postenc;
+
+
+import io.lolyay.discordmsend.network.protocol.listeners.server.ServerPostEncryptionPacketListener;
+import io.lolyay.discordmsend.network.protocol.packet.Packet;
+import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
+
+/**
+ * Appends a track to the server-side queue of a guild. The server starts decoding it shortly before the
+ * current track ends and switches over without waiting for the client; if nothing is playing it starts right away.
+ */
+public record QueueTrackC2SPacket(
+        long guildId,
+        int trackId
+) implements Packet<ServerPostEncryptionPacketListener> {
+
+    public static final PacketCodec<QueueTrackC2SPacket> CODEC = PacketCodec.create(
+            // Encoder
+            (buf, packet) -> {
+                buf.writeLong(packet.guildId);
+                buf.writeVarInt(packet.trackId);
+            },
+            // Decoder
+            (buf) -> new QueueTrackC2SPacket(
+                    buf.readLong(),
+                    buf.readVarInt()
+            )
+    );
+
+    @Override
+    public void apply(ServerPostEncryptionPacketListener listener) {
+        listener.onQueueTrack(this);
+    }
+}
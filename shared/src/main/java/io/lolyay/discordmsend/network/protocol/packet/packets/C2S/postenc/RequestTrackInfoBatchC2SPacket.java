@@ -0,0 +1,50 @@
+package io.lolyay.discordmsend.network.protocol.packet.packets.C2S.postenc;
+
+import io.lolyay.discordmsend.network.protocol.codec.PacketByteBuf;
+import io.lolyay.discordmsend.network.protocol.listeners.server.ServerPostEncryptionPacketListener;
+import io.lolyay.discordmsend.network.protocol.packet.Packet;
+import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
+import io.lolyay.discordmsend.network.protocol.request.IRequestPacket;
+import io.netty.handler.codec.DecoderException;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import static io.lolyay.discordmsend.network.protocol.request.TrackInfoBatchRequest.EXCHANGE_TYPE;
+import static io.lolyay.discordmsend.network.protocol.request.TrackInfoBatchRequest.MAX_TRACKS;
+
+public record RequestTrackInfoBatchC2SPacket(
+        IntArrayList trackIds,
+        int sequence
+) implements Packet<ServerPostEncryptionPacketListener>, IRequestPacket {
+
+    public static final PacketCodec<RequestTrackInfoBatchC2SPacket> CODEC = PacketCodec.create(
+            // Encoder
+            (buf, packet) -> {
+                buf.writePrefixedArray(packet.trackIds, PacketByteBuf::writeVarInt);
+                buf.writeVarInt(packet.sequence);
+            },
+            // Decoder
+            (buf) -> {
+                int count = buf.readVarInt();
+                if (count < 0 || count > MAX_TRACKS) {
+                    throw new DecoderException("Track info batch of " + count + " ids exceeds " + MAX_TRACKS);
+                }
+                IntArrayList trackIds = new IntArrayList(count);
+                for (int i = 0; i < count; i++) {
+                    trackIds.add(buf.readVarInt());
+                }
+                return new RequestTrackInfoBatchC2SPacket(trackIds, buf.readVarInt());
+            },
+            // Size
+            (packet) -> PacketByteBuf.prefixedVarIntArraySize(packet.trackIds) + PacketByteBuf.varIntSize(packet.sequence)
+    );
+
+    @Override
+    public void apply(ServerPostEncryptionPacketListener listener) {
+        listener.onRequest(this);
+    }
+
+    @Override
+    public int getExchangeType() {
+        return EXCHANGE_TYPE;
+    }
+}
@@ -0,0 +1,33 @@
+package io.lolyay.discordmsend.network.protocol.packet.packets.C2S.postenc;
+
+
+import io.lolyay.discordmsend.network.protocol.listeners.server.ServerPostEncryptionPacketListener;
+import io.lolyay.discordmsend.network.protocol.packet.Packet;
+import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
+
+/**
+ * Sets how long queued tracks are crossfaded into each other, 0 for a gapless cut.
+ */
+public record SetCrossfadeC2SPacket(
+        long guildId,
+        int crossfadeMs
+) implements Packet<ServerPostEncryptionPacketListener> {
+
+    public static final PacketCodec<SetCrossfadeC2SPacket> CODEC = PacketCodec.create(
+            // Encoder
+            (buf, packet) -> {
+                buf.writeLong(packet.guildId);
+                buf.writeVarInt(packet.crossfadeMs);
+            },
+            // Decoder
+            (buf) -> new SetCrossfadeC2SPacket(
+                    buf.readLong(),
+                    buf.readVarInt()
+            )
+    );
+
+    @Override
+    public void apply(ServerPostEncryptionPacketListener listener) {
+        listener.onSetCrossfade(this);
+    }
+}
@@ -5,14 +5,17 @@ import io.lolyay.discordmsend.network.protocol.listeners.server.ServerPreEncrypt
 import io.lolyay.discordmsend.network.protocol.packet.Packet;
 import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
 
+/**
+ * @param sharedSecret the RSA-encrypted (AES key XOR nonce), or the client's X25519 public key
+ */
 public record EncryptionResponseC2SPacket(byte[] sharedSecret) implements Packet<ServerPreEncryptionPacketListener> {
 
     public static final PacketCodec<EncryptionResponseC2SPacket> CODEC = PacketCodec.create(
             (buf, packet) -> {
-                buf.writeBytes(packet.sharedSecret);
+                buf.writeByteArray(packet.sharedSecret);
             },
             (buf) -> new EncryptionResponseC2SPacket(
-                    buf.readRawBytes(128)
+                    buf.readByteArray(128)
             )
     );
 
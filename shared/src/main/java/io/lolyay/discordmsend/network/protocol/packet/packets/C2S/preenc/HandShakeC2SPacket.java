@@ -6,7 +6,10 @@ import io.lolyay.discordmsend.network.protocol.packet.Packet;
 import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
 
 
-public record HandShakeC2SPacket(int protocolVersion, String serverAddress, String apiKey, int serverPort) implements Packet<ServerPreEncryptionPacketListener> {
+/**
+ * @param keyExchanges mask of the {@link io.lolyay.discordmsend.network.protocol.encryption.KeyExchange} modes the client supports
+ */
+public record HandShakeC2SPacket(int protocolVersion, String serverAddress, String apiKey, int serverPort, int keyExchanges) implements Packet<ServerPreEncryptionPacketListener> {
 
     public static final PacketCodec<HandShakeC2SPacket> CODEC = PacketCodec.create(
             (buf, packet) -> {
@@ -14,12 +17,14 @@ public record HandShakeC2SPacket(int protocolVersion, String serverAddress, Stri
                 buf.writeString(packet.serverAddress);
                 buf.writeString(packet.apiKey);
                 buf.writeShort(packet.serverPort);
+                buf.writeVarInt(packet.keyExchanges);
             },
             (buf) -> new HandShakeC2SPacket(
                     buf.readVarInt(),
                     buf.readString(255),
                     buf.readString(255),
-                    buf.readShort()
+                    buf.readShort(),
+                    buf.readVarInt()
             )
     );
 
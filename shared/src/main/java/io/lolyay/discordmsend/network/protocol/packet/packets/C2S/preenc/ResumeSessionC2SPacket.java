@@ -0,0 +1,34 @@
+package io.lolyay.discordmsend.network.protocol.packet.packets.C2S.preenc;
+
+
+import io.lolyay.discordmsend.network.protocol.listeners.server.ServerPreEncryptionPacketListener;
+import io.lolyay.discordmsend.network.protocol.packet.Packet;
+import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
+
+/**
+ * Sent instead of {@link EncryptionResponseC2SPacket} by a client that holds a session ticket.
+ * Both sides derive the new session key from the ticket's resumption secret and both nonces.
+ */
+public record ResumeSessionC2SPacket(
+        byte[] ticket,
+        byte[] clientNonce
+) implements Packet<ServerPreEncryptionPacketListener> {
+
+    public static final PacketCodec<ResumeSessionC2SPacket> CODEC = PacketCodec.create(
+            // Encoder
+            (buf, packet) -> {
+                buf.writeByteArray(packet.ticket);
+                buf.writeBytes(packet.clientNonce);
+            },
+            // Decoder
+            (buf) -> new ResumeSessionC2SPacket(
+                    buf.readByteArray(256),
+                    buf.readRawBytes(16)
+            )
+    );
+
+    @Override
+    public void apply(ServerPreEncryptionPacketListener listener) {
+        listener.onResumeSession(this);
+    }
+}
@@ -0,0 +1,35 @@
+package io.lolyay.discordmsend.network.protocol.packet.packets.S2C.peer;
+
+import io.lolyay.discordmsend.network.protocol.listeners.client.ClientPeerPacketListener;
+import io.lolyay.discordmsend.network.protocol.packet.Packet;
+import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
+
+/**
+ * Answer to a {@code PeerFetchC2SPacket}. If the track was found, the frame is followed by {@code length} raw
+ * bytes of the cache file, outside of any frame, so the sender can hand the file to the socket without copying it.
+ *
+ * @param length length of the file that follows, -1 if the peer does not have the track
+ */
+public record PeerFetchResponseS2CPacket(
+        int requestId,
+        long length
+) implements Packet<ClientPeerPacketListener> {
+
+    public static final PacketCodec<PeerFetchResponseS2CPacket> CODEC = PacketCodec.create(
+            // Encoder
+            (buf, packet) -> {
+                buf.writeVarInt(packet.requestId);
+                buf.writeLong(packet.length);
+            },
+            // Decoder
+            (buf) -> new PeerFetchResponseS2CPacket(
+                    buf.readVarInt(),
+                    buf.readLong()
+            )
+    );
+
+    @Override
+    public void apply(ClientPeerPacketListener listener) {
+        listener.onPeerFetchResponse(this);
+    }
+}
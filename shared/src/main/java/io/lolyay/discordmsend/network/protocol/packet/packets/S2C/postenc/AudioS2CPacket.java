@@ -1,6 +1,7 @@
 package io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc;
 
 
+import io.lolyay.discordmsend.network.protocol.codec.PacketByteBuf;
 import io.lolyay.discordmsend.network.protocol.listeners.client.ClientPostEncryptionPacketListener;
 import io.lolyay.discordmsend.network.protocol.packet.Packet;
 import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
@@ -30,7 +31,13 @@ public record AudioS2CPacket(
                     AudioCodec.values()[buf.readVarInt()],
                     buf.readRawBytes(buf.readVarInt()),
                     buf.readLong()
-            )
+            ),
+            // Size
+            (packet) -> Long.BYTES
+                    + PacketByteBuf.varIntSize(packet.codec.ordinal())
+                    + PacketByteBuf.varIntSize(packet.audioBytes.length)
+                    + packet.audioBytes.length
+                    + Long.BYTES
     );
 
     @Override
@@ -5,20 +5,103 @@ import io.lolyay.discordmsend.network.protocol.codec.PacketByteBuf;
 import io.lolyay.discordmsend.network.protocol.listeners.client.ClientPostEncryptionPacketListener;
 import io.lolyay.discordmsend.network.protocol.packet.Packet;
 import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
+import io.netty.handler.codec.DecoderException;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 
+import java.util.Arrays;
 
+/**
+ * Track ids the server forgot. On the wire the ids are sorted and sent as runs of consecutive ids:
+ * {@code [varint runs] ([varint gap to previous run end] [varint run length - 1])*}, so a block of ids
+ * registered together costs two bytes.
+ */
 public record CacheExpireS2C(
         IntArrayList expiredTrackIds
 ) implements Packet<ClientPostEncryptionPacketListener> {
-    
+    /** Upper bound on ids a single packet may expand to. */
+    public static final int MAX_IDS = 1 << 16;
+
     public static final PacketCodec<CacheExpireS2C> CODEC = PacketCodec.create(
             // Encoder
-            (buf, packet) -> buf.writePrefixedArray(packet.expiredTrackIds(), PacketByteBuf::writeVarInt),
+            (buf, packet) -> {
+                int[] ids = sortedIds(packet.expiredTrackIds());
+                buf.writeVarInt(runCount(ids));
+                int previous = 0;
+                for (int i = 0; i < ids.length; ) {
+                    int end = runEnd(ids, i);
+                    buf.writeVarInt(ids[i] - previous);
+                    buf.writeVarInt(end - i - 1);
+                    previous = ids[end - 1];
+                    i = end;
+                }
+            },
             // Decoder
-            (buf) -> new CacheExpireS2C(new IntArrayList(buf.readPrefixedArray(PacketByteBuf::readVarInt)))
+            (buf) -> {
+                int runs = buf.readVarInt();
+                if (runs < 0 || runs > MAX_IDS) {
+                    throw new DecoderException("Cache expiry with " + runs + " runs exceeds " + MAX_IDS);
+                }
+                IntArrayList ids = new IntArrayList(runs);
+                int previous = 0;
+                for (int run = 0; run < runs; run++) {
+                    int start = previous + buf.readVarInt();
+                    int length = buf.readVarInt() + 1;
+                    if (length <= 0 || ids.size() + length > MAX_IDS) {
+                        throw new DecoderException("Cache expiry exceeds " + MAX_IDS + " ids");
+                    }
+                    for (int i = 0; i < length; i++) {
+                        ids.add(start + i);
+                    }
+                    previous = start + length - 1;
+                }
+                return new CacheExpireS2C(ids);
+            },
+            // Size
+            (packet) -> {
+                int[] ids = sortedIds(packet.expiredTrackIds());
+                int size = PacketByteBuf.varIntSize(runCount(ids));
+                int previous = 0;
+                for (int i = 0; i < ids.length; ) {
+                    int end = runEnd(ids, i);
+                    size += PacketByteBuf.varIntSize(ids[i] - previous) + PacketByteBuf.varIntSize(end - i - 1);
+                    previous = ids[end - 1];
+                    i = end;
+                }
+                return size;
+            }
     );
 
+    private static int[] sortedIds(IntArrayList ids) {
+        int[] sorted = ids.toIntArray();
+        Arrays.sort(sorted);
+        int unique = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[unique - 1]) {
+                sorted[unique++] = sorted[i];
+            }
+        }
+        return unique == sorted.length ? sorted : Arrays.copyOf(sorted, unique);
+    }
+
+    /**
+     * @return the index after the run of consecutive ids starting at {@code start}
+     */
+    private static int runEnd(int[] ids, int start) {
+        int end = start + 1;
+        while (end < ids.length && ids[end] == ids[end - 1] + 1) {
+            end++;
+        }
+        return end;
+    }
+
+    private static int runCount(int[] ids) {
+        int runs = 0;
+        for (int i = 0; i < ids.length; i = runEnd(ids, i)) {
+            runs++;
+        }
+        return runs;
+    }
+
     @Override
     public void apply(ClientPostEncryptionPacketListener listener) {
         listener.onCacheExpire(this);
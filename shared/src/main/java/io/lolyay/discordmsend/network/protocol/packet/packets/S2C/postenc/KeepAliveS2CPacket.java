@@ -13,7 +13,9 @@ public record KeepAliveS2CPacket(
             // Encoder
             (buf, packet) -> buf.writeLong(packet.keepAliveId()),
             // Decoder
-            (buf) -> new KeepAliveS2CPacket(buf.readLong())
+            (buf) -> new KeepAliveS2CPacket(buf.readLong()),
+            // Size
+            (packet) -> Long.BYTES
     );
 
     @Override
@@ -35,7 +35,9 @@ public record PlayerUpdateS2CPacket(
                 boolean hasTrack = buf.readBoolean();
                 int trackId = hasTrack ? buf.readInt() : -1;
                 return new PlayerUpdateS2CPacket(playerId, paused, volume, position, hasTrack, trackId);
-            }
+            },
+            // Size
+            (packet) -> Long.BYTES + 1 + Integer.BYTES + Long.BYTES + 1 + (packet.hasTrack() ? Integer.BYTES : 0)
     );
 
     @Override
@@ -26,7 +26,9 @@ public record SearchResponseS2CPacket(
             (buf) -> new SearchResponseS2CPacket(
                     new IntArrayList(buf.readPrefixedArray(PacketByteBuf::readVarInt)),
                     buf.readVarInt()
-            )
+            ),
+            // Size
+            (packet) -> PacketByteBuf.prefixedVarIntArraySize(packet.trackIds) + PacketByteBuf.varIntSize(packet.sequence)
     );
 
     @Override
@@ -0,0 +1,34 @@
+package io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc;
+
+
+import io.lolyay.discordmsend.network.protocol.listeners.client.ClientPostEncryptionPacketListener;
+import io.lolyay.discordmsend.network.protocol.packet.Packet;
+import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
+
+/**
+ * Opaque resumption ticket, only readable by the server that issued it.
+ * The matching resumption secret is derived from the current session key on both sides and never sent.
+ */
+public record SessionTicketS2CPacket(
+        byte[] ticket,
+        long lifetimeMs
+) implements Packet<ClientPostEncryptionPacketListener> {
+
+    public static final PacketCodec<SessionTicketS2CPacket> CODEC = PacketCodec.create(
+            // Encoder
+            (buf, packet) -> {
+                buf.writeByteArray(packet.ticket);
+                buf.writeLong(packet.lifetimeMs);
+            },
+            // Decoder
+            (buf) -> new SessionTicketS2CPacket(
+                    buf.readByteArray(256),
+                    buf.readLong()
+            )
+    );
+
+    @Override
+    public void apply(ClientPostEncryptionPacketListener listener) {
+        listener.onSessionTicket(this);
+    }
+}
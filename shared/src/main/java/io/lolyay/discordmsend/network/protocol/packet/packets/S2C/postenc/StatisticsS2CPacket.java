@@ -1,6 +1,7 @@
 package io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc;
 
 
+import io.lolyay.discordmsend.network.protocol.codec.PacketByteBuf;
 import io.lolyay.discordmsend.network.protocol.listeners.client.ClientPostEncryptionPacketListener;
 import io.lolyay.discordmsend.network.protocol.packet.Packet;
 import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
@@ -24,7 +25,11 @@ public record StatisticsS2CPacket(
             // Decoder
             (buf) -> {
                 return new StatisticsS2CPacket(buf.readLong(), buf.readLong(), buf.readInt(), buf.readVarInt(), buf.readVarInt());
-            }
+            },
+            // Size
+            (packet) -> Long.BYTES + Long.BYTES + Integer.BYTES
+                    + PacketByteBuf.varIntSize(packet.players())
+                    + PacketByteBuf.varIntSize(packet.clients())
     );
 
     @Override
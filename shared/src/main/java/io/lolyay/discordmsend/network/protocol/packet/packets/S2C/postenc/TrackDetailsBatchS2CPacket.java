@@ -0,0 +1,59 @@
+package io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc;
+
+import io.lolyay.discordmsend.network.protocol.codec.PacketByteBuf;
+import io.lolyay.discordmsend.network.protocol.listeners.client.ClientPostEncryptionPacketListener;
+import io.lolyay.discordmsend.network.protocol.packet.Packet;
+import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
+import io.lolyay.discordmsend.network.protocol.request.IResponsePacket;
+import io.lolyay.discordmsend.network.types.TrackMetadata;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.List;
+
+import static io.lolyay.discordmsend.network.protocol.request.TrackInfoBatchRequest.EXCHANGE_TYPE;
+
+/**
+ * Answer to a {@link io.lolyay.discordmsend.network.protocol.packet.packets.C2S.postenc.RequestTrackInfoBatchC2SPacket}.
+ *
+ * @param tracks     metadata of every requested id that is still known, encoded like {@link TrackDetailsS2CPacket}
+ * @param missingIds requested ids the server does not know (anymore)
+ */
+public record TrackDetailsBatchS2CPacket(
+        List<TrackMetadata> tracks,
+        IntArrayList missingIds,
+        int sequence
+) implements Packet<ClientPostEncryptionPacketListener>, IResponsePacket {
+
+    public static final PacketCodec<TrackDetailsBatchS2CPacket> CODEC = PacketCodec.create(
+            // Encoder
+            (buf, packet) -> {
+                buf.writePrefixedArray(packet.tracks, TrackDetailsS2CPacket::writeMetadata);
+                buf.writePrefixedArray(packet.missingIds, PacketByteBuf::writeVarInt);
+                buf.writeVarInt(packet.sequence);
+            },
+            // Decoder
+            (buf) -> new TrackDetailsBatchS2CPacket(
+                    buf.readPrefixedArray(TrackDetailsS2CPacket::readMetadata),
+                    new IntArrayList(buf.readPrefixedArray(PacketByteBuf::readVarInt)),
+                    buf.readVarInt()
+            ),
+            // Size
+            (packet) -> {
+                int size = PacketByteBuf.varIntSize(packet.tracks.size());
+                for (TrackMetadata track : packet.tracks) {
+                    size += TrackDetailsS2CPacket.metadataSize(track);
+                }
+                return size + PacketByteBuf.prefixedVarIntArraySize(packet.missingIds) + PacketByteBuf.varIntSize(packet.sequence);
+            }
+    );
+
+    @Override
+    public void apply(ClientPostEncryptionPacketListener listener) {
+        listener.onTrackDetailsBatch(this);
+    }
+
+    @Override
+    public int getExchangeType() {
+        return EXCHANGE_TYPE;
+    }
+}
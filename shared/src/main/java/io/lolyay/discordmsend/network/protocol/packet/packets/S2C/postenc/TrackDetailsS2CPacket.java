@@ -1,5 +1,6 @@
 package io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc;
 
+import io.lolyay.discordmsend.network.protocol.codec.PacketByteBuf;
 import io.lolyay.discordmsend.network.protocol.listeners.client.ClientPostEncryptionPacketListener;
 import io.lolyay.discordmsend.network.protocol.packet.Packet;
 import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
@@ -11,37 +12,67 @@ import static io.lolyay.discordmsend.network.protocol.request.TrackInfoRequest.E
 public record TrackDetailsS2CPacket(
         TrackMetadata metadata
 ) implements Packet<ClientPostEncryptionPacketListener>, IResponsePacket {
+    private static final String UNKNOWN = "UNKNOWN";
+
     public static final PacketCodec<TrackDetailsS2CPacket> CODEC = PacketCodec.create(
             // Encoder
-            (buf, packet) -> {
-                buf.writeVarInt(packet.metadata.id());
-                buf.writeString(packet.metadata.trackName() == null ? "UNKNOWN" : packet.metadata.trackName());
-                buf.writeString(packet.metadata.author() == null ? "UNKNOWN" : packet.metadata.author());
-                buf.writeString(packet.metadata.art() == null ? "UNKNOWN" : packet.metadata.art());
-                buf.writeString(packet.metadata.trackUrl() == null ? "UNKNOWN" : packet.metadata.trackUrl());
-                buf.writeString(packet.metadata.isrc() == null ? "UNKNOWN" : packet.metadata.isrc());
-                buf.writeLong(packet.metadata.durationMs());
-                buf.writeString(packet.metadata.sourceId() == null ? "UNKNOWN" : packet.metadata.sourceId());
-                buf.writeString(packet.metadata.identifier() == null ? "UNKNOWN" : packet.metadata.identifier());
-            },
+            (buf, packet) -> writeMetadata(buf, packet.metadata),
             // Decoder
-            (buf) -> {
-                return new TrackDetailsS2CPacket(
-                        new TrackMetadata(
-                                buf.readVarInt(),
-                                buf.readString(),
-                                buf.readString(),
-                                buf.readString(),
-                                buf.readString(),
-                                buf.readString(),
-                                buf.readLong(),
-                                buf.readString(),
-                                buf.readString()
-                        )
-                );
-            }
+            (buf) -> new TrackDetailsS2CPacket(readMetadata(buf)),
+            // Size
+            (packet) -> metadataSize(packet.metadata)
     );
 
+    /**
+     * Repeating values (authors, source ids, ISRC placeholders, URL prefixes) go through the connection's
+     * string table; names and identifiers are almost always unique and are only referenced when they happen
+     * to be the placeholder.
+     */
+    public static void writeMetadata(PacketByteBuf buf, TrackMetadata metadata) {
+        buf.writeVarInt(metadata.id());
+        buf.writeTableString(orUnknown(metadata.trackName()), false);
+        buf.writeTableString(orUnknown(metadata.author()));
+        buf.writeTableUrl(orUnknown(metadata.art()));
+        buf.writeTableUrl(orUnknown(metadata.trackUrl()));
+        buf.writeTableString(orUnknown(metadata.isrc()), metadata.isrc() == null);
+        buf.writeLong(metadata.durationMs());
+        buf.writeTableString(orUnknown(metadata.sourceId()));
+        buf.writeTableString(orUnknown(metadata.identifier()), false);
+    }
+
+    public static TrackMetadata readMetadata(PacketByteBuf buf) {
+        return new TrackMetadata(
+                buf.readVarInt(),
+                buf.readTableString(),
+                buf.readTableString(),
+                buf.readTableUrl(),
+                buf.readTableUrl(),
+                buf.readTableString(),
+                buf.readLong(),
+                buf.readTableString(),
+                buf.readTableString()
+        );
+    }
+
+    /**
+     * @return upper bound of the bytes {@link #writeMetadata} writes
+     */
+    public static int metadataSize(TrackMetadata metadata) {
+        return PacketByteBuf.varIntSize(metadata.id())
+                + PacketByteBuf.tableStringSize(orUnknown(metadata.trackName()))
+                + PacketByteBuf.tableStringSize(orUnknown(metadata.author()))
+                + PacketByteBuf.tableUrlSize(orUnknown(metadata.art()))
+                + PacketByteBuf.tableUrlSize(orUnknown(metadata.trackUrl()))
+                + PacketByteBuf.tableStringSize(orUnknown(metadata.isrc()))
+                + Long.BYTES
+                + PacketByteBuf.tableStringSize(orUnknown(metadata.sourceId()))
+                + PacketByteBuf.tableStringSize(orUnknown(metadata.identifier()));
+    }
+
+    private static String orUnknown(String value) {
+        return value == null ? UNKNOWN : value;
+    }
+
     @Override
     public void apply(ClientPostEncryptionPacketListener listener) {
         listener.onTrackDetails(this);
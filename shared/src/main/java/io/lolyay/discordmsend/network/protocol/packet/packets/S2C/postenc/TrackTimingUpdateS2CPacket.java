@@ -1,6 +1,7 @@
 package io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc;
 
 
+import io.lolyay.discordmsend.network.protocol.codec.PacketByteBuf;
 import io.lolyay.discordmsend.network.protocol.listeners.client.ClientPostEncryptionPacketListener;
 import io.lolyay.discordmsend.network.protocol.packet.Packet;
 import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
@@ -25,7 +26,9 @@ public record TrackTimingUpdateS2CPacket(
                     TrackTimingUpdateType.values()[buf.readVarInt()],
                     buf.readLong(),
                     buf.readLong()
-            )
+            ),
+            // Size
+            (packet) -> PacketByteBuf.varIntSize(packet.timingType().ordinal()) + Long.BYTES + Long.BYTES
     );
 
     public enum TrackTimingUpdateType {
@@ -1,21 +1,28 @@
 package io.lolyay.discordmsend.network.protocol.packet.packets.S2C.preenc;
 
+import io.lolyay.discordmsend.network.protocol.encryption.KeyExchange;
 import io.lolyay.discordmsend.network.protocol.listeners.client.ClientPreEncryptionPacketListener;
 import io.lolyay.discordmsend.network.protocol.packet.Packet;
 import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
 
+/**
+ * @param publicKey the server's RSA modulus (128 bytes) or ephemeral X25519 key (32 bytes), depending on {@code keyExchange}
+ */
 public record EncryptionRequestS2CPacket(
+        KeyExchange keyExchange,
         byte[] publicKey,
         byte[] nonce
 ) implements Packet<ClientPreEncryptionPacketListener> {
 
     public static final PacketCodec<EncryptionRequestS2CPacket> CODEC = PacketCodec.create(
             (buf, packet) -> {
-                buf.writeBytes(packet.publicKey());
+                buf.writeVarInt(packet.keyExchange().ordinal());
+                buf.writeByteArray(packet.publicKey());
                 buf.writeBytes(packet.nonce());
             },
             (buf) -> new EncryptionRequestS2CPacket(
-                    buf.readRawBytes(128),
+                    KeyExchange.values()[buf.readVarInt()],
+                    buf.readByteArray(128),
                     buf.readRawBytes(16)
             )
     );
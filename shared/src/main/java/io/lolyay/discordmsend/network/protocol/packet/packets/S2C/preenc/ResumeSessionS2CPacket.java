@@ -0,0 +1,26 @@
+package io.lolyay.discordmsend.network.protocol.packet.packets.S2C.preenc;
+
+import io.lolyay.discordmsend.network.protocol.listeners.client.ClientPreEncryptionPacketListener;
+import io.lolyay.discordmsend.network.protocol.packet.Packet;
+import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
+
+/**
+ * Answer to a resumption attempt. If not accepted the client continues with the regular
+ * key exchange using the {@link EncryptionRequestS2CPacket} it already received.
+ */
+public record ResumeSessionS2CPacket(
+        boolean accepted
+) implements Packet<ClientPreEncryptionPacketListener> {
+
+    public static final PacketCodec<ResumeSessionS2CPacket> CODEC = PacketCodec.create(
+            // Encoder
+            (buf, packet) -> buf.writeBoolean(packet.accepted),
+            // Decoder
+            (buf) -> new ResumeSessionS2CPacket(buf.readBoolean())
+    );
+
+    @Override
+    public void apply(ClientPreEncryptionPacketListener listener) {
+        listener.onResumeSession(this);
+    }
+}
@@ -0,0 +1,27 @@
+package io.lolyay.discordmsend.network.protocol.request;
+
+import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.postenc.RequestTrackInfoBatchC2SPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc.TrackDetailsBatchS2CPacket;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+public class TrackInfoBatchRequest extends IRequest<RequestTrackInfoBatchC2SPacket, TrackDetailsBatchS2CPacket> {
+    public static final int EXCHANGE_TYPE = 3;
+    /** Most ids a single batch may ask for. */
+    public static final int MAX_TRACKS = 512;
+
+    private final IntArrayList trackIds;
+
+    public TrackInfoBatchRequest(IntArrayList trackIds) {
+        this.trackIds = trackIds;
+    }
+
+    @Override
+    public RequestTrackInfoBatchC2SPacket createRequestPacket() {
+        return new RequestTrackInfoBatchC2SPacket(trackIds, sequenceGen.getAndIncrement());
+    }
+
+    @Override
+    public Class<TrackDetailsBatchS2CPacket> getResponseTypeClass() {
+        return TrackDetailsBatchS2CPacket.class;
+    }
+}
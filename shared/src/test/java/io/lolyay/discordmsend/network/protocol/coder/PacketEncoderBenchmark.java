@@ -0,0 +1,138 @@
+package io.lolyay.discordmsend.network.protocol.coder;
+
+import io.lolyay.discordmsend.network.Enviroment;
+import io.lolyay.discordmsend.network.protocol.Connection;
+import io.lolyay.discordmsend.network.protocol.NetworkPhase;
+import io.lolyay.discordmsend.network.protocol.codec.PacketByteBuf;
+import io.lolyay.discordmsend.network.protocol.packet.Packet;
+import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
+import io.lolyay.discordmsend.network.protocol.packet.PacketDirection;
+import io.lolyay.discordmsend.network.protocol.packet.PacketRegistry;
+import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc.AudioS2CPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc.CacheExpireS2C;
+import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc.KeepAliveS2CPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc.PlayerUpdateS2CPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc.SearchResponseS2CPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc.StatisticsS2CPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc.TrackDetailsS2CPacket;
+import io.lolyay.discordmsend.network.protocol.packet.packets.S2C.postenc.TrackTimingUpdateS2CPacket;
+import io.lolyay.discordmsend.network.types.TrackMetadata;
+import io.lolyay.discordmsend.obj.AudioCodec;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.List;
+
+/**
+ * Checks the size function of every sized client-bound codec against what {@link PacketEncoder} writes, then
+ * compares exact-size allocation with Netty's default buffer for the packets it matters most for.
+ * <p>
+ * Not a unit test; run it with {@code mvn -pl shared test-compile} and
+ * {@code java -cp shared/target/test-classes:shared/target/classes:<dependencies> io.lolyay.discordmsend.network.protocol.coder.PacketEncoderBenchmark}.
+ * Exits with 1 if a size function predicts less than is written.
+ */
+public class PacketEncoderBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+    private static final int PACKETS_PER_ROUND = 200_000;
+
+    public static void main(String[] args) {
+        PacketRegistry registry = new PacketRegistry();
+        registry.registerAll();
+
+        TrackMetadata track = new TrackMetadata(4711, "Some Fairly Long Track Name (Remastered 2011)", "Some Artist",
+                "https://i.ytimg.com/vi/dQw4w9WgXcQ/maxresdefault.jpg", "https://www.youtube.com/watch?v=dQw4w9WgXcQ",
+                "GBARL9300135", 213_000, "youtube", "dQw4w9WgXcQ");
+        IntArrayList ids = new IntArrayList();
+        for (int i = 0; i < 50; i++) {
+            ids.add(i * 997);
+        }
+        List<Packet<?>> samples = List.of(
+                new AudioS2CPacket(123456789L, AudioCodec.OPUS_MAX, new byte[160], 42),
+                new AudioS2CPacket(123456789L, AudioCodec.PCM_MAX, new byte[3840], 1L << 40),
+                new TrackDetailsS2CPacket(track),
+                new TrackDetailsS2CPacket(new TrackMetadata(1, "a", null, null, null, null, 0, "x", "b")),
+                new SearchResponseS2CPacket(ids, 7),
+                new CacheExpireS2C(ids),
+                new PlayerUpdateS2CPacket(1L, false, 100, 60_000, true, 4711),
+                new PlayerUpdateS2CPacket(1L, true, 50, 0, false, -1),
+                new KeepAliveS2CPacket(System.currentTimeMillis()),
+                new StatisticsS2CPacket(8L << 30, 1L << 30, 12, 40, 3),
+                new TrackTimingUpdateS2CPacket(TrackTimingUpdateS2CPacket.TrackTimingUpdateType.STARTED, 1L, System.currentTimeMillis())
+        );
+
+        boolean undersized = false;
+        System.out.println("Size functions:");
+        for (Packet<?> packet : samples) {
+            EmbeddedChannel channel = channel(registry, false);
+            int predicted = predictedSize(registry, channel, packet);
+            ByteBuf out = encode(channel, packet);
+            int written = out.readableBytes();
+            out.release();
+            undersized |= predicted >= 0 && written > predicted;
+            System.out.printf("  %-28s predicted %5d, wrote %5d%s%n", packet.getClass().getSimpleName(), predicted, written,
+                    predicted < 0 ? " (no size function)" : written > predicted ? "  TOO SMALL" : written < predicted ? "  (upper bound)" : "");
+        }
+
+        System.out.println("Encoding " + PACKETS_PER_ROUND + " packets, ns/packet (exact size vs default buffer):");
+        for (Packet<?> packet : List.of(samples.get(1), samples.get(2), samples.get(4))) {
+            double exact = 0;
+            double growing = 0;
+            for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+                double e = run(channel(registry, false), packet);
+                double g = run(channel(registry, true), packet);
+                if (round >= WARMUP_ROUNDS) {
+                    exact += e / ROUNDS;
+                    growing += g / ROUNDS;
+                }
+            }
+            System.out.printf("  %-28s %7.1f vs %7.1f%n", packet.getClass().getSimpleName(), exact, growing);
+        }
+        if (undersized) {
+            System.exit(1);
+        }
+    }
+
+    private static double run(EmbeddedChannel channel, Packet<?> packet) {
+        long start = System.nanoTime();
+        for (int i = 0; i < PACKETS_PER_ROUND; i++) {
+            encode(channel, packet).release();
+        }
+        return (System.nanoTime() - start) / (double) PACKETS_PER_ROUND;
+    }
+
+    private static ByteBuf encode(EmbeddedChannel channel, Packet<?> packet) {
+        channel.writeOutbound(packet);
+        return channel.readOutbound();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int predictedSize(PacketRegistry registry, EmbeddedChannel channel, Packet<?> packet) {
+        Connection connection = channel.pipeline().get(Connection.class);
+        int id = registry.getPacketId(connection.getPhase(), PacketDirection.CLIENT_BOUND, packet);
+        var codec = (PacketCodec<Packet<?>>) registry.getCodec(connection.getPhase(), PacketDirection.CLIENT_BOUND, id);
+        int size = codec.sizeOf(packet);
+        return size < 0 ? -1 : PacketByteBuf.varIntSize(id) + size;
+    }
+
+    /**
+     * @param defaultBuffer whether to allocate the way {@link PacketEncoder} did before it knew packet sizes
+     */
+    private static EmbeddedChannel channel(PacketRegistry registry, boolean defaultBuffer) {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        Connection connection = new Connection(channel, Enviroment.SERVER);
+        connection.setPhase(NetworkPhase.POST_ENCRYPTION);
+        PacketEncoder encoder = defaultBuffer
+                ? new PacketEncoder(registry, connection, PacketDirection.CLIENT_BOUND) {
+                    @Override
+                    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, Packet<?> packet, boolean preferDirect) {
+                        return preferDirect ? ctx.alloc().ioBuffer() : ctx.alloc().heapBuffer();
+                    }
+                }
+                : new PacketEncoder(registry, connection, PacketDirection.CLIENT_BOUND);
+        channel.pipeline().addLast("packetEncoder", encoder).addLast("handler", connection);
+        return channel;
+    }
+}
@@ -0,0 +1,160 @@
+package io.lolyay.discordmsend.network.protocol.coder;
+
+import io.lolyay.discordmsend.network.Enviroment;
+import io.lolyay.discordmsend.network.protocol.Connection;
+import io.lolyay.discordmsend.network.protocol.NetworkPhase;
+import io.lolyay.discordmsend.network.protocol.codec.PacketByteBuf;
+import io.lolyay.discordmsend.network.protocol.encryption.NetworkEncryptionUtils;
+import io.lolyay.discordmsend.network.protocol.encryption.PacketEncryptionManager;
+import io.lolyay.discordmsend.network.protocol.encryption.PacketEncryptor;
+import io.lolyay.discordmsend.network.protocol.packet.PacketCodec;
+import io.lolyay.discordmsend.network.protocol.packet.PacketDirection;
+import io.lolyay.discordmsend.network.protocol.packet.PacketRegistry;
+import io.lolyay.discordmsend.network.protocol.packet.packets.C2S.postenc.KeepAliveC2SPacket;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.handler.codec.protobuf.ProtobufVarint32FrameDecoder;
+import io.netty.handler.codec.protobuf.ProtobufVarint32LengthFieldPrepender;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.util.List;
+
+/**
+ * Compares the fused {@link PacketInboundDecoder} with the decryptor, frame decoder and packet decoder chain it
+ * replaced, on an encrypted stream of many small control packets arriving in 2 KB reads.
+ * <p>
+ * Not a unit test; run it with {@code mvn -pl shared test-compile} and
+ * {@code java -cp shared/target/test-classes:shared/target/classes:<dependencies> io.lolyay.discordmsend.network.protocol.coder.PacketInboundDecoderBenchmark}.
+ */
+public class PacketInboundDecoderBenchmark {
+    private static final int PACKETS = 200_000;
+    private static final int READ_BYTES = 2048;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        PacketRegistry registry = new PacketRegistry();
+        registry.registerAll();
+        SecretKey key = NetworkEncryptionUtils.createAesKey();
+
+        EmbeddedChannel sender = new EmbeddedChannel();
+        Connection senderConnection = new Connection(sender, Enviroment.CLIENT);
+        senderConnection.setPhase(NetworkPhase.POST_ENCRYPTION);
+        sender.pipeline()
+                .addLast(new PacketEncryptor(NetworkEncryptionUtils.createStreamCipher(Cipher.ENCRYPT_MODE, key)))
+                .addLast(new ProtobufVarint32LengthFieldPrepender())
+                .addLast(new PacketEncoder(registry, senderConnection, PacketDirection.SERVER_BOUND));
+        for (int i = 0; i < PACKETS; i++) {
+            sender.writeOutbound(new KeepAliveC2SPacket(i));
+        }
+        ByteBuf stream = Unpooled.directBuffer();
+        for (ByteBuf b; (b = sender.readOutbound()) != null; ) {
+            stream.writeBytes(b);
+            b.release();
+        }
+
+        double fused = 0;
+        double chain = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            double f = run(registry, key, stream, true);
+            double c = run(registry, key, stream, false);
+            if (round >= WARMUP_ROUNDS) {
+                fused += f / ROUNDS;
+                chain += c / ROUNDS;
+            }
+        }
+        System.out.printf("%d keep-alives (%d KB): fused %.1f ns/packet, chain %.1f ns/packet%n",
+                PACKETS, stream.readableBytes() >> 10, fused, chain);
+        stream.release();
+    }
+
+    private static double run(PacketRegistry registry, SecretKey key, ByteBuf stream, boolean fused) throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        Connection connection = new Connection(channel, Enviroment.SERVER);
+        connection.setPhase(NetworkPhase.POST_ENCRYPTION);
+        Cipher cipher = NetworkEncryptionUtils.createStreamCipher(Cipher.DECRYPT_MODE, key);
+        if (fused) {
+            PacketInboundDecoder decoder = new PacketInboundDecoder(registry, connection, PacketDirection.SERVER_BOUND);
+            decoder.enableDecryption(cipher);
+            channel.pipeline().addLast(decoder);
+        } else {
+            channel.pipeline()
+                    .addLast(new LegacyDecryptor(cipher))
+                    .addLast(new ProtobufVarint32FrameDecoder())
+                    .addLast(new LegacyDecoder(registry, connection));
+        }
+        int[] received = {0};
+        channel.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+            @Override
+            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                received[0]++;
+            }
+        });
+
+        ByteBuf source = stream.duplicate();
+        long start = System.nanoTime();
+        while (source.isReadable()) {
+            int n = Math.min(source.readableBytes(), READ_BYTES);
+            ByteBuf read = PooledByteBufAllocator.DEFAULT.directBuffer(n);
+            read.writeBytes(source, n);
+            channel.writeInbound(read);
+        }
+        long elapsed = System.nanoTime() - start;
+        channel.finishAndReleaseAll();
+        if (received[0] != PACKETS) {
+            throw new IllegalStateException((fused ? "Fused" : "Chain") + " decoded " + received[0] + " of " + PACKETS + " packets");
+        }
+        return elapsed / (double) PACKETS;
+    }
+
+    /** The decryptor the pipeline used before, with a fresh buffer per read. */
+    private static final class LegacyDecryptor extends ByteToMessageDecoder {
+        private final PacketEncryptionManager manager;
+
+        LegacyDecryptor(Cipher cipher) {
+            this.manager = new PacketEncryptionManager(cipher);
+        }
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+            int readable = in.readableBytes();
+            if (readable == 0) {
+                return;
+            }
+            ByteBuf decrypted = ctx.alloc().heapBuffer(readable);
+            manager.process(in, decrypted);
+            out.add(decrypted);
+        }
+    }
+
+    /** The packet decoder the pipeline used before, wrapping every frame. */
+    private static final class LegacyDecoder extends MessageToMessageDecoder<ByteBuf> {
+        private final PacketRegistry registry;
+        private final Connection connection;
+
+        LegacyDecoder(PacketRegistry registry, Connection connection) {
+            this.registry = registry;
+            this.connection = connection;
+        }
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+            if (!in.isReadable()) {
+                return;
+            }
+            PacketByteBuf buf = new PacketByteBuf(in, connection.getInboundStrings());
+            int packetId = buf.readVarInt();
+            PacketCodec<?> codec = registry.getCodec(connection.getPhase(), PacketDirection.SERVER_BOUND, packetId);
+            if (codec != null) {
+                out.add(codec.decoder().apply(buf));
+            }
+        }
+    }
+}